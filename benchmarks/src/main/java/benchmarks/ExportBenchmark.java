@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import dao.FilmDao;
+import models.FilmField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.FilmStreamWriter;
+
+/**
+ * A full export of two million films (FilmDao.exportFilms into the NDJSON and CSV writers, as '/films/export'
+ * runs it), written to a stream that only counts the bytes. Each operation is one complete export.
+ *
+ * The table itself lives in the heap, in H2, so the heap is sized for it; the old way of getting the whole
+ * catalogue, getAllFilms and one formatted String, does not fit alongside it. Setup runs one export and fails the
+ * run if the heap in use halfway through, after a GC, has grown by more than MAX_GROWTH_MB: export memory must not
+ * depend on the number of rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ExportBenchmark {
+
+    private static final int ROWS = 2_000_000;
+    private static final long MAX_GROWTH_MB = 64;
+
+    @Param({"ndjson", "csv"})
+    public String format;
+
+    private FilmDao dao;
+    private String type;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        Fixtures.createDatabase(ROWS, false);
+        // Streams rows as MySQL does with its streaming fetch size, instead of materialising the result first
+        System.setProperty("db.url", Fixtures.DB_URL + ";LAZY_QUERY_EXECUTION=TRUE");
+        dao = FilmDao.getInstance();
+        type = "csv".equals(format) ? FilmStreamWriter.CSV : FilmStreamWriter.NDJSON;
+        verifyConstantMemory();
+    }
+
+    private void verifyConstantMemory() throws SQLException, IOException {
+        long before = usedAfterGc();
+        long[] halfway = {0};
+        int[] rows = {0};
+        FilmStreamWriter films = FilmStreamWriter.openExport(type, writer(new CountingStream()), FilmField.ALL);
+        dao.exportFilms(FilmField.ALL, film -> {
+            films.write(film);
+            if (++rows[0] == ROWS / 2) {
+                halfway[0] = usedAfterGc();
+            }
+        });
+        films.finish();
+        long growth = (halfway[0] - before) >> 20;
+        System.out.printf("%n%s export: heap grew by %d MB halfway through %d rows%n", format, growth, rows[0]);
+        if (rows[0] != ROWS || growth > MAX_GROWTH_MB) {
+            throw new IllegalStateException(format + " export kept " + growth + " MB after " + rows[0] + " rows");
+        }
+    }
+
+    private static long usedAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Writer writer(OutputStream out) {
+        return new OutputStreamWriter(out, StandardCharsets.UTF_8); // As FilmExportServlet wraps the response
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.shutdown();
+    }
+
+    /**
+     * @return The size of the export in bytes.
+     */
+    @Benchmark
+    public long export() throws SQLException, IOException {
+        CountingStream out = new CountingStream();
+        FilmStreamWriter films = FilmStreamWriter.openExport(type, writer(out), FilmField.ALL);
+        dao.exportFilms(FilmField.ALL, films::write);
+        films.finish();
+        return out.count;
+    }
+
+    /**
+     * Discards what it is given and counts the bytes.
+     */
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
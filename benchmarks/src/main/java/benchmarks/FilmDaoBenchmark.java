@@ -0,0 +1,190 @@
+package benchmarks;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import dao.FilmDao;
+import models.Film;
+import models.FilmField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FilmDao reads and writes against an in-memory H2 database in MySQL mode, with the read cache on and off.
+ * Each parameter combination runs in its own JVM fork, which is what lets the singleton DAO be configured per run.
+ *
+ * H2 answers in microseconds where a networked MySQL takes a round trip, so these numbers show the cost of
+ * the code around the query (pooling, mapping, caching), not what a client of the real server would see.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilmDaoBenchmark {
+
+    private static final int ROWS = 10000;
+    private static final int PAGE_SIZE = 50;
+    private static final int BATCH_IDS = 100;
+    private static final int INSERT_BATCH = 1000;
+    private static final Set<FilmField> TITLE_AND_YEAR = FilmField.parse("title,year");
+
+    @Param({"true", "false"})
+    public boolean cache;
+
+    private FilmDao dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        Fixtures.createDatabase(ROWS, cache);
+        dao = FilmDao.getInstance();
+        dao.rebuildSearchIndex();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.shutdown();
+    }
+
+    /**
+     * Walks through the table so successive calls read different films, as a real mix of clients would.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int nextId() {
+            next = next % ROWS + 1;
+            return next;
+        }
+
+        int nextOffset() {
+            next = (next + PAGE_SIZE) % (ROWS - PAGE_SIZE);
+            return next;
+        }
+
+        List<Integer> nextIds() {
+            List<Integer> ids = new ArrayList<>(BATCH_IDS);
+            for (int i = 0; i < BATCH_IDS; i++) {
+                ids.add(nextId());
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * A fresh batch of films for each insert benchmark call, deleted again afterwards so the table keeps its size.
+     */
+    @State(Scope.Thread)
+    public static class NewFilms {
+        List<Film> films;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            films = new ArrayList<>(INSERT_BATCH);
+            for (int i = 0; i < INSERT_BATCH; i++) {
+                films.add(Fixtures.film(0));
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws SQLException {
+            FilmDao dao = FilmDao.getInstance();
+            for (Film film : films) {
+                if (film.getId() > 0) {
+                    dao.deleteFilm(film.getId());
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Film getFilmById(Cursor cursor) throws SQLException {
+        return dao.getFilmById(cursor.nextId());
+    }
+
+    @Benchmark
+    public List<Film> getAllFilmsPage(Cursor cursor) throws SQLException {
+        return dao.getAllFilms(PAGE_SIZE, cursor.nextOffset());
+    }
+
+    /**
+     * The same page as getAllFilmsPage, read and cached without the review and other text columns.
+     */
+    @Benchmark
+    public List<Film> getAllFilmsPageProjected(Cursor cursor) throws SQLException {
+        return dao.getAllFilms(PAGE_SIZE, cursor.nextOffset(), TITLE_AND_YEAR);
+    }
+
+    @Benchmark
+    public List<Film> getFilmsAfter(Cursor cursor) throws SQLException {
+        return dao.getFilmsAfter(cursor.nextOffset(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Map<Integer, Film> getFilmsByIds(Cursor cursor) throws SQLException {
+        return dao.getFilmsByIds(cursor.nextIds());
+    }
+
+    @Benchmark
+    public List<Film> searchFilmsIndexed() throws SQLException {
+        return dao.searchFilms("director 42", 20);
+    }
+
+    @Benchmark
+    public List<Film> searchFilmLike() throws SQLException {
+        return dao.searchFilm("Director 42");
+    }
+
+    @Benchmark
+    public void updateFilm(Cursor cursor) throws SQLException {
+        dao.updateFilm(Fixtures.film(cursor.nextId()));
+    }
+
+    /**
+     * Inserts a film and deletes it again, so the table stays the same size however long the run.
+     */
+    @Benchmark
+    public void insertAndDeleteFilm() throws SQLException {
+        Film film = Fixtures.film(0);
+        dao.insertFilm(film);
+        dao.deleteFilm(film.getId());
+    }
+
+    /**
+     * INSERT_BATCH films through one JDBC batch and transaction, as POST /add-films writes a chunk; reported per film.
+     */
+    @Benchmark
+    @OperationsPerInvocation(INSERT_BATCH)
+    public List<String> insertFilms(NewFilms state) throws SQLException {
+        return dao.insertFilms(state.films);
+    }
+
+    /**
+     * The same films as insertFilms, inserted one at a time; reported per film.
+     */
+    @Benchmark
+    @OperationsPerInvocation(INSERT_BATCH)
+    public void insertFilmEach(NewFilms state) throws SQLException {
+        for (Film film : state.films) {
+            dao.insertFilm(film);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import dao.FilmDao;
+import models.Film;
+import models.FilmField;
+import models.FilmQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.PageCursor;
+
+/**
+ * Filtered and sorted film listings (FilmDao.getFilms) over a million films in an in-memory H2 database,
+ * with and without the indexes from db/migrations/001_film_listing_indexes.sql.
+ *
+ * With the indexes, setup checks each query's plan with FilmDao.explain and fails if the expected index is not
+ * used, so a change to the SQL that loses an index shows up as a failed run rather than a slower one. The plans
+ * are printed once per run. H2 cannot read an index backwards, so descending orders are left out here; MySQL 8 can.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class FilmQueryBenchmark {
+
+    private static final int ROWS = 1_000_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int DEEP_OFFSET = ROWS / 2;
+    private static final Set<FilmField> LIST_FIELDS = FilmField.parse("title,year,director");
+
+    // Fixtures.film gives year 1950 + i % 70, director "Director " + i % 500 and title "Film title number " + i.
+    private static final FilmQuery YEAR_RANGE = FilmQuery.ALL.withYears(1990, 1991).sortedBy("year");
+    private static final FilmQuery DIRECTOR = FilmQuery.ALL.withDirector("Director 42").sortedBy("year");
+    private static final FilmQuery TITLE_PREFIX = FilmQuery.ALL.withTitlePrefix("Film title number 4242").sortedBy("title");
+    private static final FilmQuery BY_TITLE = FilmQuery.ALL.sortedBy("title");
+
+    @Param({"true", "false"})
+    public boolean indexed;
+
+    private FilmDao dao;
+    private FilmQuery deepKeyset; // BY_TITLE, starting where DEEP_OFFSET does
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        Fixtures.createDatabase(ROWS, false);
+        if (indexed) {
+            Fixtures.migrate("001_film_listing_indexes.sql");
+        }
+        // H2 otherwise hands back the previous result of an identical query on an unchanged table
+        System.setProperty("db.url", Fixtures.DB_URL + ";OPTIMIZE_REUSE_RESULTS=FALSE");
+        dao = FilmDao.getInstance();
+
+        Film last = dao.getFilms(BY_TITLE, 1, DEEP_OFFSET - 1, FilmField.ALL).get(0);
+        deepKeyset = PageCursor.decode(PageCursor.encode(last, BY_TITLE), BY_TITLE);
+
+        if (indexed) {
+            verifyPlan("yearRange", YEAR_RANGE, 0, "idx_films_year_id");
+            verifyPlan("director", DIRECTOR, 0, "idx_films_director_year_id");
+            verifyPlan("titlePrefix", TITLE_PREFIX, 0, "idx_films_title_id");
+            verifyPlan("sortedByTitle", BY_TITLE, 0, "idx_films_title_id");
+            verifyPlan("deepKeysetByTitle", deepKeyset, 0, "idx_films_title_id");
+        }
+    }
+
+    private void verifyPlan(String name, FilmQuery query, int offset, String index) throws SQLException {
+        String plan = dao.explain(query, PAGE_SIZE, offset);
+        System.out.printf("%n%s plan:%n%s", name, plan);
+        if (!plan.toLowerCase(Locale.ROOT).contains(index)) {
+            throw new IllegalStateException(name + " does not use " + index);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.shutdown();
+    }
+
+    @Benchmark
+    public List<Film> yearRange() throws SQLException {
+        return dao.getFilms(YEAR_RANGE, PAGE_SIZE, 0, LIST_FIELDS);
+    }
+
+    @Benchmark
+    public List<Film> director() throws SQLException {
+        return dao.getFilms(DIRECTOR, PAGE_SIZE, 0, LIST_FIELDS);
+    }
+
+    @Benchmark
+    public List<Film> titlePrefix() throws SQLException {
+        return dao.getFilms(TITLE_PREFIX, PAGE_SIZE, 0, LIST_FIELDS);
+    }
+
+    @Benchmark
+    public List<Film> sortedByTitle() throws SQLException {
+        return dao.getFilms(BY_TITLE, PAGE_SIZE, 0, LIST_FIELDS);
+    }
+
+    /**
+     * Half way through the catalogue by offset: the database walks past every earlier row.
+     */
+    @Benchmark
+    public List<Film> deepOffsetByTitle() throws SQLException {
+        return dao.getFilms(BY_TITLE, PAGE_SIZE, DEEP_OFFSET, LIST_FIELDS);
+    }
+
+    /**
+     * The same page as deepOffsetByTitle, reached with the '?after=' token of the page before it.
+     */
+    @Benchmark
+    public List<Film> deepKeysetByTitle() throws SQLException {
+        return dao.getFilms(deepKeyset, PAGE_SIZE, 0, LIST_FIELDS);
+    }
+}
@@ -0,0 +1,174 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+
+import models.Film;
+
+/**
+ * Test data shared by the benchmarks: generated films, an in-memory database and a request carrying a body.
+ */
+final class Fixtures {
+
+    // H2 in MySQL mode stands in for the real server; YEAR is a keyword in H2 but a column name here.
+    static final String DB_URL = "jdbc:h2:mem:films;MODE=MySQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=YEAR";
+
+    // Static utility class, no instances.
+    private Fixtures() {
+    }
+
+    /**
+     * Builds films with realistic field lengths; the same index always gives the same film.
+     */
+    static Film film(int i) {
+        return new Film(i, "Film title number " + i, 1950 + i % 70, "Director " + i % 500,
+                "First Star " + i % 300 + ", Second Star " + i % 700 + ", Third Star " + i % 1100,
+                "A review of film " + i + " that runs to a couple of sentences, about as long as the ones in the catalogue. "
+                        + "It mentions the plot, the cast and whether the film is worth seeing.");
+    }
+
+    static List<Film> films(int count) {
+        List<Film> films = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            films.add(film(i));
+        }
+        return films;
+    }
+
+    /**
+     * Points FilmDao at the in-memory database and fills it with films numbered 1 to rows.
+     * Must run before FilmDao.getInstance(), since the DAO reads its settings once.
+     */
+    static void createDatabase(int rows, boolean cacheEnabled) throws SQLException {
+        setProperties(cacheEnabled);
+        System.setProperty("db.url", DB_URL);
+        createTable(DB_URL, rows, 0, 1);
+    }
+
+    /**
+     * The URL of one of the in-memory databases that createShards splits the films across.
+     */
+    static String shardUrl(int shard) {
+        return "jdbc:h2:mem:films-shard-" + shard + ";MODE=MySQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=YEAR";
+    }
+
+    /**
+     * Points FilmDao at in-memory databases holding films 1 to rows between them, each film on the one FilmShards
+     * routes its ID to, with the ID counter on the first (db/migrations/002_film_ids.sql). A single shard is set up
+     * as the plain database at db.url, so it is measured without sharding.
+     * Must run before FilmDao.getInstance(), since the DAO reads its settings once.
+     */
+    static void createShards(int rows, int shards, boolean cacheEnabled) throws SQLException, IOException {
+        setProperties(cacheEnabled);
+        List<String> urls = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            createTable(shardUrl(shard), rows, shard, shards);
+            urls.add(shardUrl(shard));
+        }
+        if (shards == 1) {
+            System.setProperty("db.url", shardUrl(0));
+        } else {
+            migrate(shardUrl(0), "002_film_ids.sql");
+            System.setProperty("db.shards.urls", String.join(",", urls));
+        }
+    }
+
+    private static void setProperties(boolean cacheEnabled) {
+        System.setProperty("db.driver", "org.h2.Driver");
+        System.setProperty("db.user", "sa");
+        System.setProperty("db.password", "");
+        System.setProperty("db.streamFetchSize", "100"); // H2 has no MySQL-style row streaming
+        System.setProperty("cache.enabled", Boolean.toString(cacheEnabled));
+    }
+
+    /**
+     * Creates the films table in a database and fills it with the films numbered 1 to rows whose ID modulo shards
+     * is shard.
+     */
+    private static void createTable(String url, int rows, int shard, int shards) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP TABLE IF EXISTS films");
+                stmt.execute("CREATE TABLE films (id INT AUTO_INCREMENT PRIMARY KEY, title VARCHAR(255) NOT NULL,"
+                        + " year INT, director VARCHAR(255), stars VARCHAR(255), review TEXT)");
+            }
+            conn.setAutoCommit(false);
+            String sql = "INSERT INTO films (id, title, year, director, stars, review) VALUES (?, ?, ?, ?, ?, ?)";
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (int i = 1; i <= rows; i++) {
+                    if (i % shards != shard) {
+                        continue;
+                    }
+                    Film film = film(i);
+                    pstmt.setInt(1, film.getId());
+                    pstmt.setString(2, film.getTitle());
+                    pstmt.setInt(3, film.getYear());
+                    pstmt.setString(4, film.getDirector());
+                    pstmt.setString(5, film.getStars());
+                    pstmt.setString(6, film.getReview());
+                    pstmt.addBatch();
+                    if (i % 10000 == 0) {
+                        pstmt.executeBatch(); // Keeps the pending batch small for large tables
+                    }
+                }
+                pstmt.executeBatch();
+            }
+            conn.commit();
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE films ALTER COLUMN id RESTART WITH " + (rows + 1));
+            }
+        }
+    }
+
+    /**
+     * Runs a schema migration from db/migrations, which the build copies into the benchmarks jar.
+     * @param name The file name, e.g. "001_film_listing_indexes.sql".
+     */
+    static void migrate(String name) throws SQLException, IOException {
+        migrate(DB_URL, name);
+    }
+
+    /**
+     * Runs a schema migration from db/migrations against the given database.
+     */
+    static void migrate(String url, String name) throws SQLException, IOException {
+        String script;
+        try (InputStream in = Fixtures.class.getResourceAsStream("/db/migrations/" + name)) {
+            if (in == null) {
+                throw new IOException("Migration not found on the classpath: " + name);
+            }
+            script = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        try (Connection conn = DriverManager.getConnection(url, "sa", "");
+             Statement stmt = conn.createStatement()) {
+            for (String sql : script.replaceAll("--[^\n]*", "").split(";")) {
+                if (!sql.trim().isEmpty()) {
+                    stmt.execute(sql);
+                }
+            }
+        }
+    }
+
+    /**
+     * A request whose only behaviour is to return a reader over the given body; anything else returns null.
+     */
+    static HttpServletRequest requestWithBody(String body) {
+        return (HttpServletRequest) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class},
+                (proxy, method, args) -> "getReader".equals(method.getName())
+                        ? new BufferedReader(new StringReader(body)) : null);
+    }
+}
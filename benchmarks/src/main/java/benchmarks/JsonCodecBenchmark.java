@@ -0,0 +1,85 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import models.Film;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.FilmJsonCodec;
+
+/**
+ * FilmJsonCodec against a shared Gson instance: encoding lists of films and decoding a posted film.
+ * Run with -prof gc to compare allocation as well as time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+    private static final Gson GSON = new Gson();
+
+    /**
+     * A list of films to encode; only the list benchmarks vary its size.
+     */
+    @State(Scope.Benchmark)
+    public static class FilmList {
+        @Param({"10", "1000", "100000"})
+        public int films;
+
+        List<Film> list;
+
+        @Setup
+        public void setUp() {
+            list = Fixtures.films(films);
+        }
+    }
+
+    /**
+     * The JSON body of one film, as posted to /add-film and /update-film.
+     */
+    @State(Scope.Benchmark)
+    public static class FilmBody {
+        String json;
+
+        @Setup
+        public void setUp() {
+            json = GSON.toJson(Fixtures.film(1));
+        }
+    }
+
+    @Benchmark
+    public String encodeGson(FilmList state) {
+        return GSON.toJson(state.list);
+    }
+
+    @Benchmark
+    public String encodeCodec(FilmList state) {
+        return FilmJsonCodec.toJson(state.list);
+    }
+
+    @Benchmark
+    public Film decodeGson(FilmBody state) {
+        return GSON.fromJson(new StringReader(state.json), Film.class);
+    }
+
+    @Benchmark
+    public Film decodeCodec(FilmBody state) throws IOException {
+        return FilmJsonCodec.fromJson(new StringReader(state.json));
+    }
+}
@@ -0,0 +1,216 @@
+package benchmarks;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import controllers.FilmServlet;
+import dao.FaultInjectingDriver;
+import dao.FilmDao;
+import utils.RequestExecutor;
+
+/**
+ * Closed-loop load test of GET /films/{id}: how many requests a container with a fixed number of threads answers
+ * per second, and at what latency, when each query takes a while, with the servlet blocking its container thread
+ * (-Dasync.enabled=false) or handing the request to RequestExecutor (the default).
+ *
+ * Clients each send a request, wait for its response and send the next. The container is an executor of
+ * loadtest.containerThreads threads, as Tomcat's maxThreads, that calls FilmServlet.service and returns; an
+ * async request is answered when its AsyncContext is completed. The database is the in-memory one behind
+ * FaultInjectingDriver, with loadtest.dbLatencyMillis added to every statement and the read and response caches off,
+ * so every request waits for it. Not a JMH benchmark: run it on its own, once per mode, e.g.
+ *
+ *     java -Dasync.enabled=false -cp benchmarks/target/benchmarks.jar benchmarks.LoadTest
+ *     java -cp benchmarks/target/benchmarks.jar benchmarks.LoadTest
+ *
+ * Settings (system properties): loadtest.clients (200), loadtest.containerThreads (20), loadtest.dbLatencyMillis (20),
+ * loadtest.warmupSeconds (2), loadtest.seconds (8); db.pool.maxSize and async.threads default to 64 here.
+ */
+public final class LoadTest {
+
+    private static final int ROWS = 1000;
+
+    private final FilmServlet servlet = new FilmServlet();
+    private final ExecutorService container;
+    private final AtomicInteger errors = new AtomicInteger();
+
+    private LoadTest(int containerThreads) {
+        container = Executors.newFixedThreadPool(containerThreads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("loadtest.clients", 200);
+        int containerThreads = Integer.getInteger("loadtest.containerThreads", 20);
+        long latencyMillis = Long.getLong("loadtest.dbLatencyMillis", 20);
+        long warmupMillis = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.warmupSeconds", 2));
+        long measureMillis = TimeUnit.SECONDS.toMillis(Long.getLong("loadtest.seconds", 8));
+
+        Fixtures.createDatabase(ROWS, false);
+        System.setProperty("db.url", FaultInjectingDriver.PREFIX + Fixtures.DB_URL);
+        System.setProperty("db.faults.queryDelayMillis", Long.toString(latencyMillis));
+        System.setProperty("cache.responses.enabled", "false");
+        System.setProperty("db.pool.maxSize", System.getProperty("db.pool.maxSize", "64"));
+        System.setProperty("async.threads", System.getProperty("async.threads", "64"));
+        boolean async = Boolean.parseBoolean(System.getProperty("async.enabled", "true"));
+
+        LoadTest test = new LoadTest(containerThreads);
+        long start = System.currentTimeMillis();
+        long measureFrom = start + warmupMillis;
+        long end = measureFrom + measureMillis;
+        List<long[]> latencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            long[] client = new long[(int) (measureMillis / Math.max(1, latencyMillis)) + 1];
+            latencies.add(client);
+            Thread thread = new Thread(() -> test.runClient(client, measureFrom, end), "loadtest-client-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = latencies.stream().flatMapToLong(client -> Arrays.stream(client, 1, (int) client[0] + 1))
+                .sorted().toArray();
+        System.out.printf("async=%b clients=%d containerThreads=%d dbLatencyMillis=%d: %.0f req/s, "
+                        + "p50 %.1f ms, p99 %.1f ms, max %.1f ms, errors %d%n",
+                async, clients, containerThreads, latencyMillis, all.length * 1000.0 / measureMillis,
+                percentile(all, 0.50), percentile(all, 0.99), percentile(all, 1.0), test.errors.get());
+
+        test.container.shutdown();
+        RequestExecutor.shutdown();
+        FilmDao.getInstance().shutdown();
+    }
+
+    /**
+     * Sends requests back to back until end, keeping the latency of those that start after measureFrom.
+     * @param latencies Element 0 counts the latencies kept, in nanoseconds, from element 1 on; extras are dropped.
+     */
+    private void runClient(long[] latencies, long measureFrom, long end) {
+        while (System.currentTimeMillis() < end) {
+            boolean measured = System.currentTimeMillis() >= measureFrom;
+            long start = System.nanoTime();
+            if (!get("/" + ThreadLocalRandom.current().nextInt(1, ROWS + 1))) {
+                errors.incrementAndGet();
+            }
+            if (measured && latencies[0] < latencies.length - 1) {
+                latencies[(int) ++latencies[0]] = System.nanoTime() - start;
+            }
+        }
+    }
+
+    /**
+     * Runs one GET /films{path} on a container thread and waits for the response.
+     * @return true if it was answered with 200.
+     */
+    private boolean get(String path) {
+        CountDownLatch answered = new CountDownLatch(1);
+        boolean[] asyncStarted = {false};
+        int[] status = {HttpServletResponse.SC_OK};
+        AsyncContext context = proxy(AsyncContext.class, (method, args) ->
+                "complete".equals(method.getName()) ? countDown(answered) : null);
+        HttpServletRequest request = proxy(HttpServletRequest.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getMethod":
+                    return "GET";
+                case "getPathInfo":
+                    return path;
+                case "getHeader":
+                    return "Accept".equals(args[0]) ? "application/json" : null;
+                case "isAsyncSupported":
+                    return true;
+                case "startAsync":
+                    asyncStarted[0] = true;
+                    return context;
+                case "isAsyncStarted":
+                    return asyncStarted[0];
+                default:
+                    return null;
+            }
+        });
+        StringWriter body = new StringWriter();
+        HttpServletResponse response = proxy(HttpServletResponse.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getWriter":
+                    return new PrintWriter(body);
+                case "setStatus":
+                    status[0] = (Integer) args[0];
+                    return null;
+                case "getStatus":
+                    return status[0];
+                default:
+                    return null;
+            }
+        });
+        try {
+            container.execute(() -> {
+                try {
+                    servlet.service(request, response);
+                } catch (Exception e) {
+                    status[0] = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+                }
+                if (!asyncStarted[0]) {
+                    answered.countDown(); // A blocking request is answered when service returns
+                }
+            });
+            answered.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return status[0] == HttpServletResponse.SC_OK;
+    }
+
+    private static Object countDown(CountDownLatch latch) {
+        latch.countDown();
+        return null;
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args);
+    }
+
+    /**
+     * An implementation of a servlet interface that answers through the handler; a null answer from a method with
+     * a primitive result becomes false, -1 for headers and 0 otherwise.
+     */
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(LoadTest.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    Object result = handler.invoke(method, args);
+                    Class<?> returns = method.getReturnType();
+                    if (result != null || !returns.isPrimitive() || returns == void.class) {
+                        return result;
+                    } else if (returns == boolean.class) {
+                        return false;
+                    } else if (returns == long.class) {
+                        return -1L; // getDateHeader: no such header
+                    } else if (returns == int.class) {
+                        return method.getName().endsWith("Header") ? -1 : 0;
+                    }
+                    return null;
+                }));
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) (sorted.length * fraction));
+        return sorted[index] / 1e6;
+    }
+}
@@ -0,0 +1,66 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import models.Film;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.RequestUtils;
+import utils.marshallUtil;
+
+/**
+ * Request parsing: RequestUtils.parseRequestBody for a single film posted as JSON and as XML.
+ * The request is a proxy whose getReader() wraps the body in a fresh reader, a small fixed cost in both cases.
+ * parseXmlNewContext is the baseline for parseXml, building a JAXBContext and unmarshaller for every body as
+ * parseRequestBody did before it reused them (JaxbContexts).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseRequestBodyBenchmark {
+
+    private HttpServletRequest jsonRequest;
+    private HttpServletRequest xmlRequest;
+
+    @Setup
+    public void setUp() throws JAXBException {
+        Film film = Fixtures.film(1);
+        jsonRequest = Fixtures.requestWithBody(marshallUtil.toJson(film));
+        xmlRequest = Fixtures.requestWithBody(marshallUtil.toXml(new JAXBElement<>(new QName("film"), Film.class, film)));
+    }
+
+    @Benchmark
+    public Film parseJson() throws IOException {
+        return RequestUtils.parseRequestBody(jsonRequest, "application/json");
+    }
+
+    @Benchmark
+    public Film parseXml() throws IOException {
+        return RequestUtils.parseRequestBody(xmlRequest, "application/xml");
+    }
+
+    @Benchmark
+    public Film parseXmlNewContext() throws IOException, JAXBException {
+        JAXBContext context = JAXBContext.newInstance(Film.class);
+        return context.createUnmarshaller().unmarshal(new StreamSource(xmlRequest.getReader()), Film.class).getValue();
+    }
+}
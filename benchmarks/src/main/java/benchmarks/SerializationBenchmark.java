@@ -0,0 +1,108 @@
+package benchmarks;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import models.Film;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.ObjectListWrapper;
+import utils.marshallUtil;
+
+/**
+ * Response serialization: marshallUtil.toJson and toXml for a list of films and for a single film.
+ * JsonCodecBenchmark compares the hand-written JSON codec with Gson. The NewContext benchmarks are the XML baseline,
+ * building a JAXBContext and marshaller on every call as toXml did before it reused them (JaxbContexts).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    /**
+     * A list of films, as written by the list endpoints; only the list benchmarks vary its size.
+     */
+    @State(Scope.Benchmark)
+    public static class FilmList {
+        @Param({"1", "50", "500"})
+        public int films;
+
+        List<Film> list;
+
+        @Setup
+        public void setUp() {
+            list = Fixtures.films(films);
+        }
+    }
+
+    /**
+     * One film, as written by GET /films/{id}.
+     */
+    @State(Scope.Benchmark)
+    public static class SingleFilm {
+        Film film;
+
+        @Setup
+        public void setUp() {
+            film = Fixtures.film(1);
+        }
+    }
+
+    @Benchmark
+    public String toJsonList(FilmList state) {
+        return marshallUtil.toJson(state.list);
+    }
+
+    @Benchmark
+    public String toXmlList(FilmList state) throws JAXBException {
+        return marshallUtil.toXml(state.list, Film.class);
+    }
+
+    @Benchmark
+    public String toXmlListNewContext(FilmList state) throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(ObjectListWrapper.class, Film.class);
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(new ObjectListWrapper<>(state.list), writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String toJsonFilm(SingleFilm state) {
+        return marshallUtil.toJson(state.film);
+    }
+
+    @Benchmark
+    public String toXmlFilm(SingleFilm state) throws JAXBException {
+        return marshallUtil.toXml(new JAXBElement<>(new QName("film"), Film.class, state.film));
+    }
+
+    @Benchmark
+    public String toXmlFilmNewContext(SingleFilm state) throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(Film.class);
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        StringWriter writer = new StringWriter();
+        marshaller.marshal(new JAXBElement<>(new QName("film"), Film.class, state.film), writer);
+        return writer.toString();
+    }
+}
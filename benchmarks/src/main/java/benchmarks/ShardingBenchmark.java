@@ -0,0 +1,147 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dao.FilmDao;
+import models.Film;
+import models.FilmField;
+import models.FilmQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * FilmDao with the films split across 1, 2 and 4 in-memory H2 databases (db.shards.urls; one shard is the plain
+ * db.url setup), with the read cache off so every call reaches the shards.
+ *
+ * Lookups and writes by ID go to one shard, so they should cost the same whatever the count. Listings and searches
+ * run on every shard in parallel and are merged: a full scan (searchFilm) gets faster as each shard scans less,
+ * while a page costs more with each shard, since every shard returns a whole page for the merge. All shards share
+ * this machine's cores here, where real ones would each have their own, so the gains are a lower bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardingBenchmark {
+
+    private static final int ROWS = 200_000;
+    private static final int PAGE_SIZE = 50;
+    private static final int BATCH_SIZE = 100;
+
+    // Fixtures.film gives year 1950 + i % 70 and director "Director " + i % 500.
+    private static final FilmQuery DIRECTOR_BY_YEAR = FilmQuery.ALL.withDirector("Director 42").sortedBy("-year");
+
+    @Param({"1", "2", "4"})
+    public int shards;
+
+    private FilmDao dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException {
+        Fixtures.createShards(ROWS, shards, false);
+        dao = FilmDao.getInstance();
+        if (dao.getShards().getShards().size() != shards) {
+            throw new IllegalStateException("Expected " + shards + " shards, FilmDao has "
+                    + dao.getShards().getShards().size());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.shutdown();
+    }
+
+    /**
+     * Walks through the table so successive calls read different films, as in FilmDaoBenchmark.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int nextId() {
+            next = next % ROWS + 1;
+            return next;
+        }
+
+        int nextOffset() {
+            next = (next + PAGE_SIZE) % 10_000; // Shallow pages: every shard reads offset + limit rows
+            return next;
+        }
+
+        int nextAfter() {
+            next = (next + PAGE_SIZE) % (ROWS - PAGE_SIZE);
+            return next;
+        }
+
+        List<Film> nextBatch() {
+            List<Film> films = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                films.add(Fixtures.film(nextId()));
+            }
+            return films;
+        }
+    }
+
+    @Benchmark
+    public Film getFilmById(Cursor cursor) throws SQLException {
+        return dao.getFilmById(cursor.nextId());
+    }
+
+    @Benchmark
+    public List<Film> getAllFilmsPage(Cursor cursor) throws SQLException {
+        return dao.getAllFilms(PAGE_SIZE, cursor.nextOffset());
+    }
+
+    @Benchmark
+    public List<Film> getFilmsAfter(Cursor cursor) throws SQLException {
+        return dao.getFilmsAfter(cursor.nextAfter(), PAGE_SIZE);
+    }
+
+    /**
+     * A filtered and sorted page; without the listing indexes each shard scans its part of the table.
+     */
+    @Benchmark
+    public List<Film> getFilmsFiltered() throws SQLException {
+        return dao.getFilms(DIRECTOR_BY_YEAR, PAGE_SIZE, 0, FilmField.ALL);
+    }
+
+    @Benchmark
+    public List<Film> searchFilm() throws SQLException {
+        return dao.searchFilm("Director 42");
+    }
+
+    /**
+     * A batch spread over every shard, written as one transaction per shard.
+     */
+    @Benchmark
+    public List<String> updateFilms(Cursor cursor) throws SQLException {
+        return dao.updateFilms(cursor.nextBatch());
+    }
+
+    /**
+     * Inserts a film, with an ID from the global counter when sharded, and deletes it again.
+     */
+    @Benchmark
+    public void insertAndDeleteFilm() throws SQLException {
+        Film film = Fixtures.film(0);
+        dao.insertFilm(film);
+        dao.deleteFilm(film.getId());
+    }
+}
@@ -0,0 +1,153 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import dao.FilmDao;
+import jakarta.xml.bind.JAXBException;
+import models.Film;
+import models.FilmField;
+import models.FilmQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.FilmStreamWriter;
+import utils.RequestUtils;
+
+/**
+ * One GET /films page holding every film in a table of 10,000 or 1,000,000, written as JSON to a stream that only
+ * counts the bytes: streamed (FilmDao.streamFilms into a FilmStreamWriter, as FilmServlet does above
+ * films.streamThreshold) against buffered (getFilms and formatResponse, as it does below). Each operation is one
+ * complete page.
+ *
+ * Setup writes each page once and prints how much the heap in use grew, after a GC, at its fullest point: halfway
+ * through the rows when streamed, with the list and its text both held when buffered. It fails the run if the
+ * streamed page grew by more than MAX_GROWTH_MB, since its memory must not depend on the number of rows.
+ * Add '-prof gc' to the JMH arguments for the allocation rate of each.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class StreamingBenchmark {
+
+    private static final String JSON = "application/json";
+    private static final long MAX_GROWTH_MB = 64;
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    private FilmDao dao;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException, IOException, JAXBException {
+        Fixtures.createDatabase(rows, false);
+        // Streams rows as MySQL does with its streaming fetch size, instead of materialising the result first
+        System.setProperty("db.url", Fixtures.DB_URL + ";LAZY_QUERY_EXECUTION=TRUE");
+        dao = FilmDao.getInstance();
+        reportHeapGrowth();
+    }
+
+    private void reportHeapGrowth() throws SQLException, IOException, JAXBException {
+        long before = usedAfterGc();
+        long[] halfway = {0};
+        int[] count = {0};
+        FilmStreamWriter films = FilmStreamWriter.open(JSON, writer(new CountingStream()), FilmField.ALL);
+        dao.streamFilms(FilmQuery.ALL, rows, 0, FilmField.ALL, film -> {
+            films.write(film);
+            if (++count[0] == rows / 2) {
+                halfway[0] = usedAfterGc();
+            }
+        });
+        films.finish();
+        long streamed = (halfway[0] - before) >> 20;
+
+        before = usedAfterGc();
+        List<Film> page = dao.getFilms(FilmQuery.ALL, rows, 0, FilmField.ALL);
+        String text = RequestUtils.formatResponse(JSON, page, FilmField.ALL);
+        long buffered = (usedAfterGc() - before) >> 20;
+
+        System.out.printf("%n%d films: heap grew by %d MB streamed, %d MB buffered (%d films, %d chars)%n",
+                rows, streamed, buffered, page.size(), text.length());
+        if (count[0] != rows || streamed > MAX_GROWTH_MB) {
+            throw new IllegalStateException("Streamed page kept " + streamed + " MB after " + count[0] + " rows");
+        }
+    }
+
+    private static long usedAfterGc() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Writer writer(OutputStream out) {
+        return new OutputStreamWriter(out, StandardCharsets.UTF_8); // As the servlet container encodes the response
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.shutdown();
+    }
+
+    /**
+     * @return The size of the page in bytes.
+     */
+    @Benchmark
+    public long streamed() throws SQLException, IOException {
+        CountingStream out = new CountingStream();
+        Writer writer = writer(out);
+        FilmStreamWriter films = FilmStreamWriter.open(JSON, writer, FilmField.ALL);
+        dao.streamFilms(FilmQuery.ALL, rows, 0, FilmField.ALL, films::write);
+        films.finish();
+        writer.flush();
+        return out.count;
+    }
+
+    /**
+     * @return The size of the page in bytes.
+     */
+    @Benchmark
+    public long buffered() throws SQLException, IOException, JAXBException {
+        CountingStream out = new CountingStream();
+        Writer writer = writer(out);
+        List<Film> page = dao.getFilms(FilmQuery.ALL, rows, 0, FilmField.ALL);
+        writer.write(RequestUtils.formatResponse(JSON, page, FilmField.ALL));
+        writer.flush();
+        return out.count;
+    }
+
+    /**
+     * Discards what it is given and counts the bytes.
+     */
+    private static final class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.stream.StreamSource;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import jakarta.xml.bind.JAXBException;
+import models.Film;
+import models.FilmField;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.FilmCbor;
+import utils.FilmJsonCodec;
+import utils.JaxbContexts;
+import utils.ObjectListWrapper;
+import utils.marshallUtil;
+
+/**
+ * The three wire formats for a list of films: encoding and decoding as JSON (FilmJsonCodec out, Gson in),
+ * XML (JAXB) and CBOR (FilmCbor). The encoded size of each is printed once per list size during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final Gson GSON = new Gson();
+    private static final Type FILM_LIST = new TypeToken<List<Film>>() { }.getType();
+
+    @Param({"1", "100", "1000"})
+    public int films;
+
+    private List<Film> list;
+    private String json;
+    private String xml;
+    private byte[] cbor;
+
+    @Setup
+    public void setUp() throws JAXBException {
+        list = Fixtures.films(films);
+        json = FilmJsonCodec.toJson(list);
+        xml = marshallUtil.toXml(list, Film.class);
+        cbor = FilmCbor.encode(list, FilmField.ALL);
+        System.out.printf("%n%d films: JSON %d bytes, XML %d bytes, CBOR %d bytes%n", films,
+                json.getBytes(StandardCharsets.UTF_8).length, xml.getBytes(StandardCharsets.UTF_8).length, cbor.length);
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return FilmJsonCodec.toJson(list);
+    }
+
+    @Benchmark
+    public String encodeXml() throws JAXBException {
+        return marshallUtil.toXml(list, Film.class);
+    }
+
+    @Benchmark
+    public byte[] encodeCbor() {
+        return FilmCbor.encode(list, FilmField.ALL);
+    }
+
+    @Benchmark
+    public List<Film> decodeJson() {
+        return GSON.fromJson(new StringReader(json), FILM_LIST);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public List<Film> decodeXml() throws JAXBException {
+        return JaxbContexts.withUnmarshaller(
+                unmarshaller -> ((ObjectListWrapper<Film>) unmarshaller.unmarshal(new StreamSource(new StringReader(xml))))
+                        .getObjects(),
+                ObjectListWrapper.class, Film.class);
+    }
+
+    @Benchmark
+    public List<Film> decodeCbor() throws IOException {
+        return FilmCbor.decodeFilms(new ByteArrayInputStream(cbor));
+    }
+}
@@ -0,0 +1,21 @@
+-- Indexes behind the filtered and sorted film listings (GET /films?yearFrom=&yearTo=&director=&titlePrefix=&sort=).
+-- Apply once to the films database, e.g. mysql -h <host> -u <user> -p <database> < 001_film_listing_indexes.sql
+--
+-- FilmDao breaks ties on id in every order, so each index ends with id and the listing can be read straight from
+-- it, stopping at the page's LIMIT. (InnoDB would append the primary key anyway; naming it makes the order explicit
+-- and costs nothing, since the column is not stored twice.)
+--
+--   query                                   index                        access
+--   yearFrom/yearTo, sort=year or -year     idx_films_year_id            range on year, in index order
+--   titlePrefix, sort=title or -title       idx_films_title_id           range on title ('abc%' is a range)
+--   director, optionally a year range       idx_films_director_year_id   ref on director, range on year
+--   director, sort=year or -year            idx_films_director_year_id   ref on director, in index order
+--   sort=title / sort=year, no filter       idx_films_title_id / _year_id  index scan, stops at LIMIT
+--   keyset pages (?after=) in any order     the sort column's index      range from the last key seen
+--
+-- Other combinations (e.g. a title prefix sorted by year) use an index for the filter and sort only the rows it
+-- matches. Check a query with FilmDao.explain, or EXPLAIN in the mysql client.
+
+CREATE INDEX idx_films_year_id ON films (year, id);
+CREATE INDEX idx_films_title_id ON films (title, id);
+CREATE INDEX idx_films_director_year_id ON films (director, year, id);
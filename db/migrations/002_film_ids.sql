@@ -0,0 +1,11 @@
+-- The counter behind film IDs when the films table is split across shards (db.shards.urls; see FilmShards).
+-- Apply once to the first shard listed, e.g. mysql -h <host> -u <user> -p <database> < 002_film_ids.sql
+-- Not needed with a single database, whose films get their IDs from AUTO_INCREMENT.
+--
+-- Each node reserves a block of db.shards.idBlockSize IDs at a time by moving next_id on under a row lock, and
+-- inserts films with IDs from its block on the shard that owns them (ID modulo the number of shards). The first
+-- block a node reserves after starting also moves next_id past the largest ID on any shard, so films already there,
+-- e.g. copied in from a single database, keep their IDs.
+
+CREATE TABLE film_ids (next_id BIGINT NOT NULL);
+INSERT INTO film_ids (next_id) VALUES (1);
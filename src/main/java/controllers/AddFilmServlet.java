@@ -8,25 +8,31 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.SQLException;
+import dao.CircuitOpenException;
 import dao.FilmDao;
 import models.Film;
+import utils.RequestExecutor;
 import utils.RequestUtils;
 
 /**
  * Servlet implementation for adding a new film.
  * Mapped to '/add-film' URL pattern.
  */
-@WebServlet("/add-film")
+@WebServlet(urlPatterns = "/add-film", asyncSupported = true)
 public class AddFilmServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private FilmDao dao = FilmDao.getInstance(); // Singleton instance of FilmDao
 
     /**
      * Handles POST request to add a new film. It expects data in various formats
-     * and uses utility methods to parse the request body.
+     * (JSON, XML or CBOR, by Content-Type) and uses utility methods to parse the request body.
      */
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RequestExecutor.execute(request, response, this::handlePost); // Runs off the container thread when async is enabled
+    }
+
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         String contentType = request.getContentType(); // Get the content type of the request
         PrintWriter out = response.getWriter(); // Get the PrintWriter object to write the response
         RequestUtils.setAccessControlHeaders(response); // Set CORS headers
@@ -52,6 +58,8 @@ public class AddFilmServlet extends HttpServlet {
             dao.insertFilm(film);
             response.setStatus(HttpServletResponse.SC_CREATED); // Set the status to 201 Created
             out.write(film.getTitle() + " has been added successfully."); // Write success message
+        } catch (CircuitOpenException e) {
+            RequestUtils.writeUnavailable(response, out, e);
         } catch (SQLException e) {
             // Handle SQL exceptions by throwing a ServletException
             throw new ServletException("SQL error occurred", e);
@@ -0,0 +1,151 @@
+package controllers;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import dao.FilmDao;
+import jakarta.xml.bind.JAXBException;
+import models.BulkInsertResult;
+import models.Film;
+import utils.AppConfig;
+import utils.FilmStreamReader;
+import utils.RequestExecutor;
+import utils.RequestUtils;
+
+/**
+ * Servlet implementation for adding many films in one request.
+ * Mapped to '/add-films' URL pattern. Accepts a JSON array of films or an XML 'list' of 'object' elements,
+ * parses it incrementally, and inserts the films in JDBC batches of '?chunkSize=' films, one transaction per batch.
+ * The response lists the generated ID of every stored film and an error for every rejected one.
+ */
+@WebServlet(urlPatterns = "/add-films", asyncSupported = true)
+public class AddFilmsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CHUNK_SIZE = AppConfig.getInt("films.bulk.chunkSize", 1000);
+    private static final int MAX_CHUNK_SIZE = AppConfig.getInt("films.bulk.maxChunkSize", 10000);
+    private FilmDao dao = FilmDao.getInstance(); // Singleton instance of FilmDao
+
+    /**
+     * Handles POST requests carrying a list of films.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RequestExecutor.execute(request, response, this::handlePost); // Runs off the container thread when async is enabled
+    }
+
+    private void handlePost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        PrintWriter out = response.getWriter(); // Get the PrintWriter object to write the response
+        RequestUtils.setAccessControlHeaders(response); // Set CORS headers
+
+        try {
+            int chunkSize = DEFAULT_CHUNK_SIZE;
+            String chunkParam = request.getParameter("chunkSize");
+            if (chunkParam != null) {
+                try {
+                    chunkSize = Integer.parseInt(chunkParam);
+                } catch (NumberFormatException e) {
+                    chunkSize = -1;
+                }
+                if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    out.write("chunkSize must be between 1 and " + MAX_CHUNK_SIZE + ".");
+                    return;
+                }
+            }
+
+            FilmStreamReader films;
+            try {
+                films = FilmStreamReader.open(request.getContentType(), request.getReader());
+            } catch (IOException e) {
+                films = null;
+            }
+            if (films == null) {
+                // Unsupported content type or a body that does not start with a list
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.write("Invalid request data.");
+                return;
+            }
+
+            BulkInsertResult result = new BulkInsertResult();
+            boolean malformed = false;
+            List<Film> chunk = new ArrayList<>();
+            List<Integer> positions = new ArrayList<>(); // Request position of each film in the chunk
+            int index = 0;
+            try (FilmStreamReader reader = films) {
+                Film film;
+                while ((film = reader.next()) != null) {
+                    if (film.getTitle() == null || film.getTitle().isEmpty()) {
+                        result.addError(index, "Title is required.");
+                    } else {
+                        chunk.add(film);
+                        positions.add(index);
+                    }
+                    index++;
+                    if (chunk.size() == chunkSize) {
+                        insertChunk(chunk, positions, result);
+                    }
+                }
+            } catch (IOException e) {
+                // Keep what was read before the damage, and report where parsing stopped
+                result.addError(index, e.getMessage());
+                malformed = true;
+            }
+            insertChunk(chunk, positions, result);
+            result.setReceived(index);
+
+            if (malformed) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            } else if (result.getErrors().isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_CREATED);
+            } else {
+                response.setStatus(HttpServletResponse.SC_OK); // Partly stored; the errors say which films were not
+            }
+            String format = request.getHeader("Accept");
+            response.setContentType(RequestUtils.getContentType(format == null ? "application/json" : format));
+            out.write(RequestUtils.formatObject(format, result));
+        } catch (SQLException e) {
+            // Handle SQL exceptions by throwing a ServletException
+            throw new ServletException("SQL error occurred", e);
+        } catch (JAXBException e) {
+            throw new ServletException("Could not format the bulk insert result", e);
+        } finally {
+            out.close(); // Close the PrintWriter
+        }
+    }
+
+    /**
+     * Inserts the pending chunk as one batch, records the outcome of each film, and empties the chunk.
+     */
+    private void insertChunk(List<Film> chunk, List<Integer> positions, BulkInsertResult result) throws SQLException {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        List<String> errors = dao.insertFilms(chunk);
+        for (int i = 0; i < chunk.size(); i++) {
+            if (errors.get(i) == null) {
+                result.addCreated(positions.get(i), chunk.get(i).getId());
+            } else {
+                result.addError(positions.get(i), errors.get(i));
+            }
+        }
+        chunk.clear();
+        positions.clear();
+    }
+
+    /**
+     * Handles HTTP OPTIONS requests, commonly used in CORS pre-flight checks.
+     */
+    @Override
+    protected void doOptions(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        RequestUtils.setAccessControlHeaders(resp);
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+}
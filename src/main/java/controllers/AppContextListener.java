@@ -0,0 +1,47 @@
+package controllers;
+
+import java.sql.SQLException;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+import dao.FilmDao;
+import dao.WriteBehindQueue;
+import utils.FilmChangeFeed;
+import utils.RequestExecutor;
+
+/**
+ * Application lifecycle hooks.
+ * Builds the film search index, starts recording changes for /films/changes and replays the write-behind journal
+ * on startup, and releases shared resources such as the request executor, queued updates and the database
+ * connection pool when the application is undeployed.
+ */
+@WebListener
+public class AppContextListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        // Build the search index in the background so a large catalogue does not hold up deployment.
+        // Searches fall back to the database until it is ready.
+        Thread indexer = new Thread(() -> {
+            try {
+                FilmDao.getInstance().rebuildSearchIndex();
+            } catch (SQLException e) {
+                event.getServletContext().log("Could not build the film search index", e);
+            }
+        }, "film-search-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+
+        FilmChangeFeed.getInstance(); // Before the journal replay, whose updates are changes too
+        WriteBehindQueue.getInstance(); // Updates acknowledged before the last shutdown or crash are written now
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        RequestExecutor.shutdown(); // Let requests in progress finish before their connections go.
+        WriteBehindQueue.getInstance().close(); // Flush queued updates; any left over stay in the journal.
+        FilmDao.getInstance().shutdown(); // Close pooled database connections.
+    }
+}
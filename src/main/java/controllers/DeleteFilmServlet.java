@@ -8,20 +8,26 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.SQLException;
+import dao.CircuitOpenException;
 import dao.FilmDao;
+import utils.RequestExecutor;
 import utils.RequestUtils;
 
 /**
  * Servlet implementation to handle deletion of a film.
  * Mapped to '/delete-film/*' URL pattern to include film ID as a path parameter.
  */
-@WebServlet("/delete-film/*")
+@WebServlet(urlPatterns = "/delete-film/*", asyncSupported = true)
 public class DeleteFilmServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private FilmDao dao = FilmDao.getInstance(); // Use the singleton FilmDao instance.
 
     @Override
     protected void doDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RequestExecutor.execute(request, response, this::handleDelete); // Runs off the container thread when async is enabled
+    }
+
+    private void handleDelete(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         RequestUtils.setAccessControlHeaders(response); // Set necessary HTTP headers for CORS.
 
         PrintWriter out = response.getWriter();
@@ -50,6 +56,8 @@ public class DeleteFilmServlet extends HttpServlet {
             dao.deleteFilm(filmId);
             response.setStatus(HttpServletResponse.SC_OK);
             out.write("Film deleted successfully.");
+        } catch (CircuitOpenException e) {
+            RequestUtils.writeUnavailable(response, out, e);
         } catch (SQLException e) {
             if (e.getMessage().contains("No film found")) {
                 // Set status to NOT FOUND if the deletion attempt failed because the film does not exist.
@@ -0,0 +1,301 @@
+package controllers;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import metrics.Metrics;
+import utils.AppConfig;
+import utils.FilmChangeFeed;
+import utils.RequestUtils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Servlet streaming film inserts, updates and deletes as Server-Sent Events, so that services mirroring the
+ * catalogue can follow it instead of polling '/films' (see FilmChangeFeed for the events).
+ * Mapped to '/films/changes'. A client that reconnects with Last-Event-ID, or passes an event ID as '?after=',
+ * is first sent the changes it missed; without one it gets changes from now on.
+ *
+ * Subscribers hold no thread while they wait. Each stream is asynchronous with non-blocking output: one dispatcher
+ * thread writes new events to every subscriber whose connection can take them, and the container calls back when a
+ * slow one can take more. A subscriber that stays behind for longer than the feed's buffer is sent a reset.
+ * Streams bypass CompressionFilter, which would hold events back until a block of them filled.
+ *
+ * Settings: changes.maxSubscribers (503 beyond that), changes.heartbeatMillis (a comment line is sent this often,
+ * so proxies keep idle streams open and dead ones are noticed), changes.maxStreamMillis (streams are ended after
+ * this long and the client reconnects where it left off; 0 for never), changes.retryMillis (the reconnect delay
+ * suggested to clients).
+ */
+@WebServlet(urlPatterns = "/films/changes", asyncSupported = true)
+public class FilmChangesServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_SUBSCRIBERS = AppConfig.getInt("changes.maxSubscribers", 10000);
+    private static final long HEARTBEAT_MILLIS = AppConfig.getLong("changes.heartbeatMillis", 15000);
+    private static final long MAX_STREAM_MILLIS = AppConfig.getLong("changes.maxStreamMillis", 300000);
+    private static final long RETRY_MILLIS = AppConfig.getLong("changes.retryMillis", 2000);
+    // Most frames written to one subscriber in a turn, so a client catching up does not hold up the rest
+    private static final int FRAMES_PER_TURN = 64;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final FilmChangeFeed feed = FilmChangeFeed.getInstance();
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+    private final Runnable watcher = this::dispatch;
+    private transient ScheduledExecutorService dispatcher;
+
+    /**
+     * Starts the dispatcher thread and the heartbeat, and registers the stream metrics.
+     */
+    @Override
+    public void init() throws ServletException {
+        dispatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "film-changes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (HEARTBEAT_MILLIS > 0) {
+            dispatcher.scheduleWithFixedDelay(this::heartbeat, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        feed.watch(watcher);
+
+        Metrics.gauge("films_changes_subscribers", "Clients connected to the change stream.", subscribers::size);
+        Metrics.counter("films_changes_events_total", "Film changes published to the change stream.", feed::getLatest);
+        Metrics.counter("films_changes_resets_total", "Subscribers told to resync because they missed changes.",
+                feed::getResetCount);
+    }
+
+    /**
+     * Opens a change stream. The request is left in asynchronous mode; the events are written by the dispatcher.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        RequestUtils.setAccessControlHeaders(response); // Set CORS headers for external access
+        if (!feed.isEnabled()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            PrintWriter writer = response.getWriter();
+            writer.write("The change feed is disabled.");
+            writer.close();
+            return;
+        }
+        if (subscribers.size() >= MAX_SUBSCRIBERS) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", Long.toString(Math.max(1, RETRY_MILLIS / 1000)));
+            PrintWriter writer = response.getWriter();
+            writer.write("Too many change stream subscribers, try again later.");
+            writer.close();
+            return;
+        }
+
+        String lastEventId = request.getHeader("Last-Event-ID"); // Sent by EventSource when it reconnects
+        if (lastEventId == null) {
+            lastEventId = request.getParameter("after");
+        }
+        long cursor = feed.resumeFrom(lastEventId);
+        StringBuilder opening = new StringBuilder("retry: ").append(RETRY_MILLIS).append("\n\n");
+        if (cursor < 0) {
+            FilmChangeFeed.Change reset = feed.reset(); // Missed changes that are no longer kept
+            cursor = reset.getSequence();
+            opening.append(new String(reset.getFrame(), StandardCharsets.UTF_8));
+        }
+
+        response.setContentType("text/event-stream");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("X-Accel-Buffering", "no"); // Tells nginx not to buffer the stream
+
+        // Started with the container's own request and response, past the filter wrappers: the compressing
+        // response only supports blocking writes
+        AsyncContext context = request.startAsync();
+        context.setTimeout(MAX_STREAM_MILLIS);
+        Subscriber subscriber = new Subscriber(context, context.getResponse().getOutputStream(), cursor,
+                opening.toString().getBytes(StandardCharsets.UTF_8));
+        context.addListener(subscriber);
+        subscriber.out.setWriteListener(subscriber); // The container calls onWritePossible once this method returns
+        // Only now may the dispatcher pump it: isReady() throws on a stream without a write listener
+        subscribers.add(subscriber);
+        if (subscriber.ended) {
+            subscribers.remove(subscriber); // Ended before it was added, e.g. the connection failed at once
+        }
+    }
+
+    /**
+     * Has the dispatcher write new events to every subscriber. Runs on the writing thread, so it only hands over;
+     * calls that arrive while a turn is already waiting share it.
+     */
+    private void dispatch() {
+        if (dispatchScheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(this::dispatchTurn);
+            } catch (RejectedExecutionException e) {
+                dispatchScheduled.set(false); // Shutting down
+            }
+        }
+    }
+
+    private void dispatchTurn() {
+        dispatchScheduled.set(false); // Changes published from here on get another turn
+        boolean more = false;
+        for (Subscriber subscriber : subscribers) {
+            more |= subscriber.pump();
+        }
+        if (more) {
+            dispatch();
+        }
+    }
+
+    private void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.heartbeatDue = true;
+        }
+        dispatchTurn();
+    }
+
+    /**
+     * Ends every stream and stops the dispatcher. Clients reconnect to another node, or to this one once it is back.
+     */
+    @Override
+    public void destroy() {
+        feed.unwatch(watcher);
+        dispatcher.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.end();
+        }
+    }
+
+    /**
+     * One open stream: how far it has got in the feed, and the callbacks for its connection.
+     */
+    private final class Subscriber implements WriteListener, AsyncListener {
+        private final AsyncContext context;
+        private final ServletOutputStream out;
+        private long cursor; // Sequence number of the last change written; guarded by this
+        private byte[] opening; // Sent before any change, then null; guarded by this
+        private boolean unflushed; // Guarded by this
+        private volatile boolean heartbeatDue;
+        private volatile boolean ended;
+
+        Subscriber(AsyncContext context, ServletOutputStream out, long cursor, byte[] opening) {
+            this.context = context;
+            this.out = out;
+            this.cursor = cursor;
+            this.opening = opening;
+        }
+
+        /**
+         * Writes what the subscriber has not yet been sent, for as long as its connection takes it without blocking.
+         * Called by the dispatcher and, when a blocked connection drains, by the container.
+         * @return true if there is more to send once other subscribers have had their turn.
+         */
+        synchronized boolean pump() {
+            if (ended) {
+                return false;
+            }
+            try {
+                for (int frames = 0; out.isReady(); ) {
+                    if (frames == FRAMES_PER_TURN) {
+                        return true;
+                    }
+                    byte[] frame = nextFrame();
+                    if (frame == null) {
+                        if (!unflushed) {
+                            return false;
+                        }
+                        unflushed = false;
+                        out.flush(); // isReady() turns false until the flush completes, then onWritePossible is called
+                        continue;
+                    }
+                    out.write(frame);
+                    unflushed = true;
+                    frames++;
+                }
+            } catch (IOException | IllegalStateException e) {
+                end(); // The client has gone
+            }
+            return false; // The connection is full; the container calls onWritePossible when it drains
+        }
+
+        private byte[] nextFrame() {
+            if (opening != null) {
+                byte[] frame = opening;
+                opening = null;
+                return frame;
+            }
+            FilmChangeFeed.Change change = feed.next(cursor);
+            if (change != null) {
+                cursor = change.getSequence();
+                heartbeatDue = false;
+                return change.getFrame();
+            }
+            if (heartbeatDue) {
+                heartbeatDue = false;
+                return HEARTBEAT;
+            }
+            return null;
+        }
+
+        /**
+         * Ends the stream; the client may reconnect and resume.
+         */
+        void end() {
+            if (!ended) {
+                ended = true;
+                subscribers.remove(this);
+                try {
+                    context.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed
+                }
+            }
+        }
+
+        @Override
+        public void onWritePossible() {
+            if (pump()) {
+                dispatch();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            end();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            end(); // changes.maxStreamMillis has passed
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            end();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            ended = true;
+            subscribers.remove(this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package controllers;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import dao.FilmDao;
+import metrics.Metrics;
+import models.FilmField;
+import utils.AppConfig;
+import utils.FilmStreamWriter;
+import utils.RequestUtils;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Servlet exporting the whole catalogue in one response, for jobs that need every film rather than a page.
+ * Mapped to '/films/export'. Films are written in ID order as newline-delimited JSON (the default, or
+ * 'Accept: application/x-ndjson') or as CSV ('Accept: text/csv'); '?format=ndjson|csv' overrides the header.
+ * '?fields=' works as it does on '/films'.
+ *
+ * Rows go from a streaming result set (FilmDao.exportFilms, one consistent snapshot) straight to the response as
+ * they are read, so memory use does not depend on the size of the catalogue. The body is sent chunked, and gzipped
+ * by CompressionFilter for clients that accept it.
+ *
+ * Exports run on the container thread rather than through RequestExecutor: they outlast async.timeoutMillis, and
+ * an exception thrown once the body has started makes the container drop the connection, so a client never takes a
+ * failed export for a complete one. At most export.maxConcurrent run at once; more get 503.
+ */
+@WebServlet("/films/export")
+public class FilmExportServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    // Each export holds a database connection and a container thread until the client has read every film
+    private static final int MAX_CONCURRENT = AppConfig.getInt("export.maxConcurrent", 2);
+    private final FilmDao dao = FilmDao.getInstance(); // Singleton instance of FilmDao
+    private final Semaphore exports = new Semaphore(MAX_CONCURRENT);
+
+    @Override
+    public void init() throws ServletException {
+        Metrics.gauge("films_exports_in_progress", "Catalogue exports being streamed.",
+                () -> MAX_CONCURRENT - exports.availablePermits());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        RequestUtils.setAccessControlHeaders(response); // Set CORS headers for external access
+
+        Set<FilmField> fields;
+        try {
+            fields = FilmField.parse(request.getParameter("fields"));
+        } catch (IllegalArgumentException e) {
+            reject(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        String type = exportType(request);
+        if (type == null) {
+            reject(response, HttpServletResponse.SC_BAD_REQUEST, "Unknown format. Use ndjson or csv.");
+            return;
+        }
+        if (!exports.tryAcquire()) {
+            response.setHeader("Retry-After", "30");
+            reject(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many exports in progress, try again later.");
+            return;
+        }
+
+        try {
+            response.setContentType(type);
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Content-Disposition",
+                    "attachment; filename=\"films." + (FilmStreamWriter.CSV.equals(type) ? "csv" : "ndjson") + "\"");
+            response.setHeader("Cache-Control", "no-store");
+            // The output stream, unlike the response's PrintWriter, reports a client that has gone away,
+            // which stops the export instead of reading the rest of the table for no one
+            Writer out = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+            FilmStreamWriter films = FilmStreamWriter.openExport(type, out, fields);
+            dao.exportFilms(fields, films::write);
+            films.finish();
+            out.close();
+        } catch (SQLException e) {
+            if (!reset(response)) {
+                throw new ServletException("Export failed part way through", e); // Aborts the connection
+            }
+            // Nothing has been sent: the buffered opening is dropped and the error sent instead. The output stream
+            // is already taken, so the message goes through it rather than the writer.
+            RequestUtils.setAccessControlHeaders(response);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            ServletOutputStream stream = response.getOutputStream();
+            stream.write(("SQL error occurred during export: " + e.getMessage()).getBytes(StandardCharsets.UTF_8));
+            stream.close();
+        } finally {
+            exports.release();
+        }
+    }
+
+    /**
+     * Picks the export format from '?format=' or, failing that, the Accept header.
+     * @return FilmStreamWriter.NDJSON or CSV, or null if '?format=' names something else.
+     */
+    private static String exportType(HttpServletRequest request) {
+        String format = request.getParameter("format");
+        if (format != null) {
+            switch (format.trim().toLowerCase()) {
+                case "ndjson":
+                    return FilmStreamWriter.NDJSON;
+                case "csv":
+                    return FilmStreamWriter.CSV;
+                default:
+                    return null;
+            }
+        }
+        String accept = request.getHeader("Accept");
+        return accept != null && accept.contains(FilmStreamWriter.CSV) ? FilmStreamWriter.CSV : FilmStreamWriter.NDJSON;
+    }
+
+    /**
+     * Clears a response that has not been sent yet, to replace it.
+     * @return false if part of it has gone out. That includes a compressed body CompressionFilter has started, which
+     *         it can no longer take back even though the container has not committed the response yet.
+     */
+    private static boolean reset(HttpServletResponse response) {
+        if (response.isCommitted()) {
+            return false;
+        }
+        try {
+            response.reset();
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    private static void reject(HttpServletResponse response, int status, String message) throws IOException {
+        response.setStatus(status);
+        PrintWriter writer = response.getWriter();
+        writer.write(message);
+        writer.close();
+    }
+}
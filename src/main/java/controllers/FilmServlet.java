@@ -6,22 +6,61 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import dao.CircuitOpenException;
 import dao.FilmDao;
+import dao.FilmVersions;
+import jakarta.xml.bind.JAXBException;
 import models.Film;
+import models.FilmField;
+import models.FilmQuery;
+import utils.AppConfig;
+import utils.ConditionalGet;
+import utils.DeferredWriter;
+import utils.FilmStreamWriter;
+import utils.ObjectListWrapper;
+import utils.PageCursor;
+import utils.RequestExecutor;
 import utils.RequestUtils;
+import utils.ResponseCache;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
- * Servlet to handle HTTP GET requests for film data, supporting JSON and XML formats.
+ * Servlet to handle HTTP GET requests for film data, supporting JSON and XML formats,
+ * and CBOR ('Accept: application/cbor'), a compact binary form whose schema is published at /schema/film.cddl.
+ * Pages are selected either with '?limit=&offset=' or, for cheap deep paging, with an
+ * opaque cursor: '?after=&limit=' starts at the beginning and each response carries the
+ * 'next' token to pass as 'after' for the following page.
+ * Offset pages above films.streamThreshold rows are streamed to the client as they are read.
+ * Listings can be filtered with '?yearFrom=&yearTo=' (inclusive), '?director=' (exact) and '?titlePrefix=', and
+ * ordered with '?sort=id|title|year', prefixed with '-' for descending; both work with offset and cursor pages.
+ * Specific films can be fetched in one round trip with '?ids=1,2,3', or by POSTing the ID list
+ * when it is too long for a URL; the response lists the IDs that were not found under 'missing'.
+ * A single film is available at '/films/{id}'.
+ * Every form takes '?fields=title,year' to read and return only those fields (the ID is always included),
+ * which keeps the large review column off the wire when a view does not show it.
+ * GET responses carry an ETag and Last-Modified; a matching If-None-Match or If-Modified-Since
+ * gets 304 Not Modified without a database query (see ConditionalGet).
+ * Pages, '?ids=' lookups and single films are kept as the bytes that were sent (see ResponseCache), so repeating
+ * a request skips the database and the serializer until a write changes what it shows.
  */
-@WebServlet("/films")
+@WebServlet(urlPatterns = {"/films", "/films/*"}, asyncSupported = true)
 public class FilmServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private final FilmDao dao = FilmDao.getInstance(); // Singleton instance of FilmDao
+    private final ResponseCache responseCache = ResponseCache.getInstance(); // Encoded responses, shared by every mapping
+    // Pages larger than this are streamed from the database rather than cached and formatted in memory
+    private static final int STREAM_THRESHOLD = AppConfig.getInt("films.streamThreshold", 500);
+    // Most films one lookup by ID may ask for
+    private static final int MAX_IDS = AppConfig.getInt("films.maxIds", 5000);
 
     /**
      * Handles GET requests to retrieve film data in JSON or XML format.
@@ -30,13 +69,45 @@ public class FilmServlet extends HttpServlet {
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
-        PrintWriter writer = response.getWriter();
+        RequestExecutor.execute(request, response, this::handleGet); // Runs off the container thread when async is enabled
+    }
+
+    private void handleGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
         RequestUtils.setAccessControlHeaders(response); // Set CORS headers for external access
+        if (responseCache.serve(request, response)) {
+            return; // Sent from the cache, which writes to the output stream, so before the writer is taken
+        }
+        PrintWriter writer = DeferredWriter.of(response); // Leaves the output stream free for CBOR bodies
 
         try {
+            String pathInfo = request.getPathInfo(); // /{id} when a single film is requested
+            if (pathInfo != null && !pathInfo.equals("/")) {
+                writeFilm(pathInfo, request, response, writer);
+                return;
+            }
+
+            Set<FilmField> fields = parseFields(request, response, writer);
+            if (fields == null) {
+                return;
+            }
+
+            String idsParam = request.getParameter("ids");
+            if (idsParam != null) {
+                // Lookup by ID: '?ids=1,2,3' returns just those films
+                writeFilmsByIds(idsParam, fields, true, request, response, writer);
+                return;
+            }
+
+            FilmQuery query = parseQuery(request, response, writer);
+            if (query == null) {
+                return;
+            }
+
             // Retrieve pagination parameters from the request
             String offsetParam = request.getParameter("offset");
             String limitParam = request.getParameter("limit");
+            String afterParam = request.getParameter("after"); // Cursor token; selects keyset pagination when present
 
             // Default values for pagination
             int offset = 0;
@@ -65,13 +136,82 @@ public class FilmServlet extends HttpServlet {
                 }
             }
 
-            // Retrieve films with pagination from the database
-            List<Film> allFilms = dao.getAllFilms(limit, offset);
             String format = request.getHeader("Accept"); // Determine the desired response format
-            String responseText = RequestUtils.formatResponse(format, allFilms); // Format the response based on the request header
+
+            if (afterParam != null) {
+                // Cursor mode: seek past the last ID of the previous page instead of skipping rows
+                if (offsetParam != null) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    writer.write("Use either offset or after, not both.");
+                    return;
+                }
+                if (limit < 1) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    writer.write("Limit must be positive in cursor mode.");
+                    return;
+                }
+                FilmQuery position;
+                try {
+                    position = PageCursor.decode(afterParam, query);
+                } catch (IllegalArgumentException e) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    writer.write("Invalid after token.");
+                    return;
+                }
+                long version = dao.getVersions().getVersion(); // Read before the films
+                if (catalogueNotModified(request, response, format, fields, version)) {
+                    return;
+                }
+
+                List<Film> films = dao.getFilms(position, limit, 0, fields);
+                // A full page may have more films after it; a short page is the last one
+                String next = films.size() == limit ? PageCursor.encode(films.get(films.size() - 1), query) : null;
+                ObjectListWrapper<Film> page = new ObjectListWrapper<>(films, next);
+                if (RequestUtils.isBinary(format)) {
+                    byte[] body = RequestUtils.encodeResponse(page, fields);
+                    sendBinary(response, format, body);
+                    responseCache.put(request, ResponseCache.CATALOGUE, version, "films", response, body);
+                    return;
+                }
+                String responseText = RequestUtils.formatResponse(format, page, fields);
+
+                response.setContentType(RequestUtils.getContentType(format));
+                writer.write(responseText);
+                responseCache.put(request, ResponseCache.CATALOGUE, version, "films", response, responseText);
+                return;
+            }
+
+            long version = dao.getVersions().getVersion(); // Read before the films
+            if (catalogueNotModified(request, response, format, fields, version)) {
+                return; // The client's copy is current; skip the query and the serializer
+            }
+
+            if (limit > STREAM_THRESHOLD) {
+                // Large pages are written row by row straight from the database instead of being built in memory
+                response.setContentType(RequestUtils.getContentType(format));
+                FilmStreamWriter filmWriter = RequestUtils.isBinary(format)
+                        ? FilmStreamWriter.open(response.getOutputStream(), fields)
+                        : FilmStreamWriter.open(format, writer, fields);
+                dao.streamFilms(query, limit, offset, fields, filmWriter::write);
+                filmWriter.finish();
+                return;
+            }
+
+            // Retrieve films with pagination from the database
+            List<Film> allFilms = dao.getFilms(query, limit, offset, fields);
+            if (RequestUtils.isBinary(format)) {
+                byte[] body = RequestUtils.encodeResponse(allFilms, fields);
+                sendBinary(response, format, body);
+                responseCache.put(request, ResponseCache.CATALOGUE, version, "films", response, body);
+                return;
+            }
+            String responseText = RequestUtils.formatResponse(format, allFilms, fields); // Format the response based on the request header
             
             response.setContentType(RequestUtils.getContentType(format)); // Set the content type of the response
             writer.write(responseText); // Write the formatted text to the response
+            responseCache.put(request, ResponseCache.CATALOGUE, version, "films", response, responseText);
+        } catch (CircuitOpenException e) {
+            RequestUtils.writeUnavailable(response, writer, e);
         } catch (SQLException e) {
             // SQL error handling: set the response status to 500 and write an error message
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -85,6 +225,260 @@ public class FilmServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Handles POST requests that look films up by ID, for ID lists too long for a query string.
+     * The body is a JSON array of IDs, or the IDs separated by commas or whitespace.
+     * Films are created through '/add-film', not here.
+     */
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        RequestExecutor.execute(request, response, this::handlePost); // Runs off the container thread when async is enabled
+    }
+
+    private void handlePost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        PrintWriter writer = DeferredWriter.of(response); // Leaves the output stream free for CBOR bodies
+        RequestUtils.setAccessControlHeaders(response); // Set CORS headers for external access
+
+        try {
+            String body = request.getReader().lines().collect(Collectors.joining("\n"));
+            Set<FilmField> fields = parseFields(request, response, writer); // From the query string; the body is read first
+            if (fields == null) {
+                return;
+            }
+            writeFilmsByIds(body, fields, false, request, response, writer);
+        } catch (CircuitOpenException e) {
+            RequestUtils.writeUnavailable(response, writer, e);
+        } catch (SQLException e) {
+            // SQL error handling: set the response status to 500 and write an error message
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            writer.write("Database error: " + e.getMessage());
+        } catch (Exception e) {
+            // General error handling: handle other exceptions that might be thrown
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            writer.write("Internal server error: " + e.getMessage());
+        } finally {
+            writer.close(); // Ensure the PrintWriter is closed in the finally block
+        }
+    }
+
+    /**
+     * Writes a single film, addressed as '/films/{id}'. Its ETag changes only when that film does.
+     */
+    private void writeFilm(String pathInfo, HttpServletRequest request, HttpServletResponse response, PrintWriter writer)
+            throws SQLException, JAXBException, IOException {
+        Set<FilmField> fields = parseFields(request, response, writer);
+        if (fields == null) {
+            return;
+        }
+        int filmId;
+        try {
+            filmId = Integer.parseInt(pathInfo.substring(1)); // Extract the ID after '/'
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writer.write("Invalid film ID format.");
+            return;
+        }
+
+        String format = request.getHeader("Accept");
+        FilmVersions versions = dao.getVersions();
+        long version = versions.getVersion(filmId); // Read before the film
+        String etag = ConditionalGet.etag(versions.getEpoch(), version, representationTag(format, fields));
+        if (ConditionalGet.notModified(request, response, etag, versions.getLastModified(filmId), "film")) {
+            return;
+        }
+
+        Film film;
+        try {
+            film = dao.getFilmById(filmId, fields);
+        } catch (SQLException e) {
+            if (e.getMessage().contains("No film found")) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                writer.write("Film not found.");
+                return;
+            }
+            throw e;
+        }
+        if (RequestUtils.isBinary(format)) {
+            byte[] body = RequestUtils.encodeFilm(film, fields);
+            sendBinary(response, format, body);
+            responseCache.put(request, filmId, version, "film", response, body);
+            return;
+        }
+        String responseText = RequestUtils.formatFilm(format, film, fields);
+        response.setContentType(RequestUtils.getContentType(format));
+        writer.write(responseText);
+        responseCache.put(request, filmId, version, "film", response, responseText);
+    }
+
+    /**
+     * Writes the films with the given IDs in the order they were asked for, followed by the IDs that have no film.
+     * Repeated IDs are returned once. All IDs are fetched together rather than one query per film.
+     * @param conditional Whether to honour If-None-Match / If-Modified-Since (GET only).
+     */
+    private void writeFilmsByIds(String idList, Set<FilmField> fields, boolean conditional, HttpServletRequest request,
+                                 HttpServletResponse response, PrintWriter writer)
+            throws SQLException, JAXBException, IOException {
+        List<Integer> ids;
+        try {
+            ids = parseIds(idList);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writer.write(e.getMessage());
+            return;
+        }
+        String format = request.getHeader("Accept");
+        long version = dao.getVersions().getVersion(); // Read before the films
+        if (conditional && catalogueNotModified(request, response, format, fields, version)) {
+            return;
+        }
+
+        Map<Integer, Film> found = dao.getFilmsByIds(ids, fields);
+        List<Film> films = new ArrayList<>(found.size());
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Film film = found.get(id);
+            if (film != null) {
+                films.add(film);
+            } else {
+                missing.add(id);
+            }
+        }
+        ObjectListWrapper<Film> result = new ObjectListWrapper<>(films);
+        result.setMissing(missing);
+
+        if (RequestUtils.isBinary(format)) {
+            byte[] body = RequestUtils.encodeResponse(result, fields);
+            sendBinary(response, format, body);
+            if (conditional) {
+                responseCache.put(request, ResponseCache.CATALOGUE, version, "films", response, body); // GET only
+            }
+            return;
+        }
+        String responseText = RequestUtils.formatResponse(format, result, fields);
+        response.setContentType(RequestUtils.getContentType(format));
+        writer.write(responseText);
+        if (conditional) {
+            responseCache.put(request, ResponseCache.CATALOGUE, version, "films", response, responseText); // GET only
+        }
+    }
+
+    /**
+     * Sends an encoded binary body through the output stream, with its length. The handler's writer is a
+     * DeferredWriter, so the response's writer has not been taken.
+     */
+    private static void sendBinary(HttpServletResponse response, String format, byte[] body) throws IOException {
+        response.setContentType(RequestUtils.getContentType(format));
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Sets the validators for a response built from the whole catalogue and answers 304 if the client's copy is current.
+     * Any write may change any page, so the catalogue version is used. The caller reads it before the films, so the
+     * ETag never claims data newer than what is sent, and stamps any cached copy of the response with the same version.
+     * @param version The catalogue version, from FilmVersions.getVersion().
+     * @return true if a 304 was set and nothing more should be written.
+     */
+    private boolean catalogueNotModified(HttpServletRequest request, HttpServletResponse response, String format,
+                                         Set<FilmField> fields, long version) {
+        FilmVersions versions = dao.getVersions();
+        String etag = ConditionalGet.etag(versions.getEpoch(), version, representationTag(format, fields));
+        return ConditionalGet.notModified(request, response, etag, versions.getLastModified(), "films");
+    }
+
+    /**
+     * The ETag part that tells representations of the same data apart: the format, plus the fields when projected.
+     */
+    private static String representationTag(String format, Set<FilmField> fields) {
+        String formatTag = ConditionalGet.formatTag(format);
+        return FilmField.isAll(fields) ? formatTag : formatTag + "-" + FilmField.join(fields, ".");
+    }
+
+    /**
+     * Reads the '?fields=' projection, answering 400 if it names something that is not a film field.
+     * @return The fields to return, every field if the parameter is absent, or null if the request was rejected.
+     */
+    private static Set<FilmField> parseFields(HttpServletRequest request, HttpServletResponse response, PrintWriter writer) {
+        try {
+            return FilmField.parse(request.getParameter("fields"));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writer.write(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the listing filters and '?sort=', answering 400 if a year is not a number or the sort is unknown.
+     * Blank parameters are ignored.
+     * @return The query, FilmQuery.ALL if none of the parameters is given, or null if the request was rejected.
+     */
+    private static FilmQuery parseQuery(HttpServletRequest request, HttpServletResponse response, PrintWriter writer) {
+        Integer yearFrom;
+        Integer yearTo;
+        try {
+            yearFrom = parseOptionalInt(request.getParameter("yearFrom"));
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writer.write("Invalid yearFrom format.");
+            return null;
+        }
+        try {
+            yearTo = parseOptionalInt(request.getParameter("yearTo"));
+        } catch (NumberFormatException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writer.write("Invalid yearTo format.");
+            return null;
+        }
+        try {
+            return FilmQuery.ALL.withYears(yearFrom, yearTo)
+                    .withDirector(blankToNull(request.getParameter("director")))
+                    .withTitlePrefix(blankToNull(request.getParameter("titlePrefix")))
+                    .sortedBy(request.getParameter("sort"));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            writer.write(e.getMessage());
+            return null;
+        }
+    }
+
+    private static Integer parseOptionalInt(String value) {
+        return value == null || value.trim().isEmpty() ? null : Integer.valueOf(value.trim());
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+
+    /**
+     * Parses a list of film IDs separated by commas or whitespace, optionally wrapped in square brackets.
+     * @return The distinct IDs in the order given.
+     * @throws IllegalArgumentException If the list is empty, too long or holds something other than integers.
+     */
+    private static List<Integer> parseIds(String idList) {
+        String trimmed = idList.trim();
+        if (trimmed.startsWith("[") && trimmed.endsWith("]")) {
+            trimmed = trimmed.substring(1, trimmed.length() - 1).trim();
+        }
+        if (trimmed.isEmpty()) {
+            throw new IllegalArgumentException("No film IDs given.");
+        }
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (String part : trimmed.split("[,\\s]+")) {
+            try {
+                ids.add(Integer.parseInt(part));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid film ID: " + part);
+            }
+            if (ids.size() > MAX_IDS) {
+                throw new IllegalArgumentException("At most " + MAX_IDS + " film IDs can be requested at once.");
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
     /**
      * Handles HTTP OPTIONS requests, commonly used in CORS pre-flight checks.
      */
@@ -0,0 +1,160 @@
+package controllers;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import dao.CircuitBreaker;
+import dao.ConnectionPool;
+import dao.FilmCache;
+import dao.FilmDao;
+import dao.FilmShards;
+import dao.LoadingCache;
+import dao.ReplicaRouter;
+import dao.WriteBehindQueue;
+import metrics.Metrics;
+import utils.ResponseCache;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Servlet exposing the application's metrics to Prometheus.
+ * Mapped to '/metrics'; answers GET with request, FilmDao and serialization latencies plus connection pool and
+ * circuit breaker (one each per shard), read replica, cache, write-behind and search index figures, in the Prometheus text format.
+ */
+@WebServlet("/metrics")
+public class MetricsServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Registers the figures that are kept by the pools, the replica router, the caches and the search index rather than by the metrics registry.
+     */
+    @Override
+    public void init() throws ServletException {
+        FilmDao dao = FilmDao.getInstance();
+
+        for (FilmShards.Shard shard : dao.getShards().getShards()) {
+            registerPool(shard.getPool());
+            registerBreaker(shard.getBreaker(), shard.getPool().getName());
+        }
+
+        ReplicaRouter router = dao.getRouter();
+        for (ReplicaRouter.Replica replica : router.getReplicas()) {
+            ConnectionPool pool = replica.getPool();
+            registerPool(pool);
+            Metrics.gauge("films_db_replica_healthy", "1 while a read replica takes reads, 0 while it is ejected.",
+                    () -> replica.isEjected() ? 0 : 1, "pool", pool.getName());
+            Metrics.counter("films_db_replica_ejections_total", "Times a read replica was ejected after failed reads.",
+                    replica::getEjectionCount, "pool", pool.getName());
+        }
+        if (!router.getReplicas().isEmpty()) {
+            Metrics.counter("films_db_reads_total", "Reads routed by FilmDao, by target.",
+                    router::getPrimaryReadCount, "target", "primary");
+            Metrics.counter("films_db_reads_total", "Reads routed by FilmDao, by target.",
+                    router::getReplicaReadCount, "target", "replica");
+            Metrics.counter("films_db_replica_failures_total", "Replica reads that failed to reach the database.",
+                    router::getFailureCount);
+        }
+
+        FilmCache cache = dao.getCache();
+        if (cache != null) {
+            registerCache("films", cache.getFilmEntries());
+            registerCache("pages", cache.getPageEntries());
+        }
+
+        ResponseCache responses = ResponseCache.getInstance();
+        if (responses.isEnabled()) {
+            Metrics.gauge("films_cache_entries", "Entries held in a read cache.", responses::size, "cache", "responses");
+            Metrics.counter("films_cache_hits_total", "Reads answered from a cache.",
+                    responses::getHitCount, "cache", "responses");
+            Metrics.counter("films_cache_misses_total", "Reads that had to load from the database.",
+                    responses::getMissCount, "cache", "responses");
+            Metrics.counter("films_cache_evictions_total", "Entries dropped to stay within the size limit.",
+                    responses::getEvictionCount, "cache", "responses");
+            Metrics.counter("films_cache_expirations_total", "Entries dropped because they outlived their TTL.",
+                    responses::getExpirationCount, "cache", "responses");
+            Metrics.gauge("films_response_cache_bytes", "Bytes held by cached response bodies, gzip copies included.",
+                    responses::getBytes);
+        }
+
+        WriteBehindQueue writeBehind = WriteBehindQueue.getInstance();
+        if (writeBehind.isEnabled()) {
+            Metrics.gauge("films_write_behind_pending", "Films with an update waiting to be written.",
+                    writeBehind::getPendingCount);
+            Metrics.counter("films_write_behind_updates_total", "Updates submitted to the write-behind queue, by outcome.",
+                    writeBehind::getAcceptedCount, "outcome", "accepted");
+            Metrics.counter("films_write_behind_updates_total", "Updates submitted to the write-behind queue, by outcome.",
+                    writeBehind::getRejectedCount, "outcome", "rejected");
+            Metrics.counter("films_write_behind_coalesced_total", "Queued updates replaced by a later one of the same film.",
+                    writeBehind::getCoalescedCount);
+            Metrics.counter("films_write_behind_flushed_total", "Queued updates written to the database.",
+                    writeBehind::getFlushedCount);
+            Metrics.counter("films_write_behind_dropped_total", "Queued updates dropped: film gone or data refused.",
+                    writeBehind::getDroppedCount);
+            Metrics.counter("films_write_behind_flush_failures_total", "Flushes that failed and were retried later.",
+                    writeBehind::getFlushFailureCount);
+        }
+
+        Metrics.gauge("films_search_index_films", "Films in the full-text search index.",
+                () -> dao.getSearchIndex().size());
+        Metrics.gauge("films_search_index_ready", "1 once the search index has been built, 0 before.",
+                () -> dao.getSearchIndex().isReady() ? 1 : 0);
+    }
+
+    /**
+     * Registers the state and counts of the circuit breaker in front of the primary or of one shard.
+     */
+    private static void registerBreaker(CircuitBreaker breaker, String poolName) {
+        Metrics.gauge("films_db_breaker_state", "A database's circuit breaker: 0 closed, 1 open, 2 half-open.",
+                () -> breaker.getState().ordinal(), "pool", poolName);
+        Metrics.counter("films_db_breaker_opened_total", "Times the circuit breaker opened.", breaker::getOpenedCount,
+                "pool", poolName);
+        Metrics.counter("films_db_breaker_rejected_total", "Calls failed by the circuit breaker without reaching the database.",
+                breaker::getRejectedCount, "pool", poolName);
+    }
+
+    private static void registerPool(ConnectionPool pool) {
+        String poolName = pool.getName();
+        Metrics.gauge("films_db_pool_connections", "Open database connections, by state.",
+                pool::getActiveCount, "pool", poolName, "state", "active");
+        Metrics.gauge("films_db_pool_connections", "Open database connections, by state.",
+                pool::getIdleCount, "pool", poolName, "state", "idle");
+        Metrics.gauge("films_db_pool_max_connections", "Largest number of connections the pool may open.",
+                pool::getMaxSize, "pool", poolName);
+        Metrics.gauge("films_db_pool_waiters", "Threads waiting to borrow a connection.",
+                pool::getWaiterCount, "pool", poolName);
+        Metrics.counter("films_db_pool_acquire_timeouts_total", "Borrows that gave up waiting for a connection.",
+                pool::getAcquireTimeoutCount, "pool", poolName);
+        Metrics.counter("films_db_pool_validation_failures_total", "Idle connections discarded as broken.",
+                pool::getValidationFailureCount, "pool", poolName);
+    }
+
+    private static void registerCache(String name, LoadingCache<?, ?> entries) {
+        Metrics.gauge("films_cache_entries", "Entries held in a read cache.", entries::size, "cache", name);
+        Metrics.counter("films_cache_hits_total", "Reads answered from a cache.", entries::getHitCount, "cache", name);
+        Metrics.counter("films_cache_misses_total", "Reads that had to load from the database.",
+                entries::getMissCount, "cache", name);
+        Metrics.counter("films_cache_evictions_total", "Entries dropped to stay within the size limit.",
+                entries::getEvictionCount, "cache", name);
+        Metrics.counter("films_cache_expirations_total", "Entries dropped because they outlived their TTL.",
+                entries::getExpirationCount, "cache", name);
+        Metrics.counter("films_cache_stale_hits_total", "Reads answered with an expired entry as the database was down.",
+                entries::getStaleHitCount, "cache", name);
+    }
+
+    /**
+     * Handles GET requests, writing every metric in the Prometheus text format.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Cache-Control", "no-store");
+        PrintWriter writer = response.getWriter();
+        Metrics.write(writer);
+        writer.close();
+    }
+}
@@ -0,0 +1,100 @@
+package controllers;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import dao.CircuitOpenException;
+import dao.FilmDao;
+import dao.FilmVersions;
+import models.Film;
+import utils.ConditionalGet;
+import utils.RequestExecutor;
+import utils.RequestUtils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Servlet for full-text film search, answered from the in-memory search index.
+ * Mapped to '/search-films'; expects '?q=' with the search words and an optional '?limit='.
+ */
+@WebServlet(urlPatterns = "/search-films", asyncSupported = true)
+public class SearchFilmServlet extends HttpServlet {
+    private static final long serialVersionUID = 1L;
+    private final FilmDao dao = FilmDao.getInstance(); // Singleton instance of FilmDao
+
+    /**
+     * Handles GET requests, returning matching films best first in the format named by the 'Accept' header.
+     */
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        RequestExecutor.execute(request, response, this::handleGet); // Runs off the container thread when async is enabled
+    }
+
+    private void handleGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        PrintWriter writer = response.getWriter();
+        RequestUtils.setAccessControlHeaders(response); // Set CORS headers for external access
+
+        try {
+            String query = request.getParameter("q");
+            if (query == null || query.trim().isEmpty()) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                writer.write("Search query 'q' is required.");
+                return;
+            }
+
+            int limit = 20; // Default number of results
+            String limitParam = request.getParameter("limit");
+            if (limitParam != null) {
+                try {
+                    limit = Integer.parseInt(limitParam);
+                } catch (NumberFormatException e) {
+                    response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                    writer.write("Invalid limit format.");
+                    return;
+                }
+            }
+
+            String format = request.getHeader("Accept"); // Determine the desired response format
+            FilmVersions versions = dao.getVersions();
+            // Results change with any write, and with the switch from the database fallback to the index
+            String etag = ConditionalGet.etag(versions.getEpoch(), versions.getVersion(),
+                    dao.getSearchIndex().isReady() ? "i" : "d", ConditionalGet.formatTag(format));
+            if (ConditionalGet.notModified(request, response, etag, versions.getLastModified(), "search")) {
+                return;
+            }
+
+            List<Film> films = dao.searchFilms(query, limit);
+            String responseText = RequestUtils.formatResponse(format, films);
+
+            response.setContentType(RequestUtils.getContentType(format));
+            writer.write(responseText);
+        } catch (CircuitOpenException e) {
+            RequestUtils.writeUnavailable(response, writer, e);
+        } catch (SQLException e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            writer.write("Database error: " + e.getMessage());
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            writer.write("Internal server error: " + e.getMessage());
+        } finally {
+            writer.close(); // Ensure the PrintWriter is closed in the finally block
+        }
+    }
+
+    /**
+     * Handles HTTP OPTIONS requests, commonly used in CORS pre-flight checks.
+     */
+    @Override
+    protected void doOptions(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        RequestUtils.setAccessControlHeaders(resp);
+        resp.setStatus(HttpServletResponse.SC_OK);
+    }
+}
@@ -8,22 +8,37 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
+import dao.CircuitOpenException;
 import dao.FilmDao;
+import dao.WriteBehindQueue;
 import models.Film;
+import models.FilmField;
+import utils.RequestExecutor;
 import utils.RequestUtils;
 
 /**
  * Servlet implementation to handle HTTP POST requests for updating film data.
+ * The film is sent as JSON, XML or CBOR, as named by the Content-Type header.
+ * With writeBehind.enabled on, the update is queued (see WriteBehindQueue) and answered with 202 Accepted, once the
+ * film is known to exist: a queued update has no later chance to tell the client there was nothing to update.
  * Mapped to '/update-film' URL pattern.
  */
-@WebServlet("/update-film")
+@WebServlet(urlPatterns = "/update-film", asyncSupported = true)
 public class UpdateFilmServlet extends HttpServlet {
     private static final long serialVersionUID = 1L;
     private FilmDao dao = FilmDao.getInstance(); // Singleton instance of FilmDao
+    private WriteBehindQueue writeBehind = WriteBehindQueue.getInstance();
+    private static final Set<FilmField> ID_ONLY = FilmField.parse("id");
 
     @Override
     protected void doPut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        RequestExecutor.execute(request, response, this::handlePut); // Runs off the container thread when async is enabled
+    }
+
+    private void handlePut(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
         PrintWriter out = response.getWriter();
         try {
             RequestUtils.setAccessControlHeaders(response); // Set CORS headers for cross-origin requests
@@ -44,10 +59,36 @@ public class UpdateFilmServlet extends HttpServlet {
                 return;
             }
 
+            if (film.getId() <= 0) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                out.write("Film ID is required.");
+                return;
+            }
+
+            if (writeBehind.isEnabled()) {
+                if (!exists(film.getId())) {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    out.write("Film not found.");
+                    return;
+                }
+                // Journalled now, written to the database with the next flush
+                writeBehind.submit(film);
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                out.write(film.getTitle() + " has been queued for update.");
+                return;
+            }
+
             // Perform the update operation
             dao.updateFilm(film);
             response.setStatus(HttpServletResponse.SC_OK);
             out.write(film.getTitle() + " has been updated successfully.");
+        } catch (RejectedExecutionException e) {
+            // Updates are arriving faster than they can be flushed
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            out.write("Too many updates waiting, try again later.");
+        } catch (CircuitOpenException e) {
+            RequestUtils.writeUnavailable(response, out, e);
         } catch (SQLException e) {
             // SQL error handling: throw a ServletException to indicate a server-side error
             throw new ServletException("SQL error occurred during film update: " + e.getMessage(), e);
@@ -56,6 +97,21 @@ public class UpdateFilmServlet extends HttpServlet {
         }
     }
     
+    /**
+     * Tells whether a film is in the database, reading only its ID (or the cached film).
+     */
+    private boolean exists(int id) throws SQLException {
+        try {
+            dao.getFilmById(id, ID_ONLY);
+            return true;
+        } catch (SQLException e) {
+            if (e.getMessage().contains("No film found")) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
     /**
      * Handles HTTP OPTIONS requests, commonly used in CORS pre-flight checks.
      */
@@ -0,0 +1,169 @@
+package dao;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import utils.AppConfig;
+
+/**
+ * Stops FilmDao calling the primary database while it is failing, so that requests fail in microseconds instead of
+ * each holding a thread and a connection until its timeout runs out.
+ *
+ * - Closed: calls go through. A call that could not reach the database or timed out (see isDatabaseFailure), or that
+ *   took longer than db.breaker.slowCallMillis, counts against it; db.breaker.failureThreshold of those in a row open
+ *   the breaker. Other SQL failures, such as a missing film or a constraint violation, show the database answering.
+ *   A call that failed outside the database (a RuntimeException, or a stream's reader failing) counts neither way.
+ * - Open: calls throw CircuitOpenException at once, for db.breaker.openMillis.
+ * - Half-open: then up to db.breaker.halfOpenCalls calls go through as probes, the rest are still turned away. A probe
+ *   that succeeds closes the breaker; one that fails opens it again; one that counts neither way leaves it half-open.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final boolean enabled;
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+
+    private volatile State state = State.CLOSED;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private long openedAt; // System.nanoTime() when the breaker last opened; guarded by this
+    private int probes; // Probe calls in flight while half-open; guarded by this
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+
+    /**
+     * Creates a closed breaker with the db.breaker.* settings.
+     */
+    public CircuitBreaker() {
+        enabled = AppConfig.getBoolean("db.breaker.enabled", true);
+        failureThreshold = Math.max(1, AppConfig.getInt("db.breaker.failureThreshold", 5));
+        slowCallNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("db.breaker.slowCallMillis", 2000));
+        openNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("db.breaker.openMillis", 5000));
+        halfOpenCalls = Math.max(1, AppConfig.getInt("db.breaker.halfOpenCalls", 1));
+    }
+
+    /**
+     * Asks to make a call. A call that is let through must be reported with record(), whatever happens to it.
+     * @return true if the call is a half-open probe.
+     * @throws CircuitOpenException If the breaker is open, or half-open with all its probes in flight.
+     */
+    boolean acquire() throws CircuitOpenException {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        synchronized (this) {
+            if (state == State.OPEN) {
+                long remaining = openedAt + openNanos - System.nanoTime();
+                if (remaining > 0) {
+                    rejected.increment();
+                    throw new CircuitOpenException(TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                }
+                state = State.HALF_OPEN;
+            }
+            if (state == State.HALF_OPEN) {
+                if (probes == halfOpenCalls) {
+                    rejected.increment();
+                    throw new CircuitOpenException(TimeUnit.NANOSECONDS.toMillis(openNanos));
+                }
+                probes++;
+                return true;
+            }
+            return false; // Closed by a probe meanwhile
+        }
+    }
+
+    /**
+     * Records how a call went.
+     * @param probe What acquire() returned for the call.
+     * @param failure What the call threw, or null if it succeeded.
+     * @param elapsedNanos How long the call took, or 0 if its length says nothing about the database, as for a
+     *        stream, which runs at the pace of its reader.
+     */
+    void record(boolean probe, Throwable failure, long elapsedNanos) {
+        if (!enabled) {
+            return;
+        }
+        boolean bad = elapsedNanos > slowCallNanos
+                || (failure instanceof SQLException && isDatabaseFailure((SQLException) failure));
+        if (!bad && failure != null && !(failure instanceof SQLException)) {
+            release(probe); // It shows nothing either way
+            return;
+        }
+        if (probe) {
+            synchronized (this) {
+                probes--;
+                if (state == State.HALF_OPEN) {
+                    if (bad) {
+                        open();
+                    } else {
+                        state = State.CLOSED;
+                    }
+                }
+            }
+            return;
+        }
+        if (!bad) {
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+        } else if (consecutiveFailures.incrementAndGet() >= failureThreshold && state == State.CLOSED) {
+            synchronized (this) {
+                if (state == State.CLOSED) {
+                    open();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a call that ended without showing whether the database works, such as one given up because something
+     * else failed: a probe's place is freed for another and the breaker is left as it was.
+     * @param probe What acquire() returned for the call.
+     */
+    void release(boolean probe) {
+        if (probe) {
+            synchronized (this) {
+                probes--;
+            }
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        consecutiveFailures.set(0); // Counted afresh once the breaker closes again
+        opened.increment();
+    }
+
+    /**
+     * Tells whether a failure means the database could not be reached or did not answer in time.
+     */
+    static boolean isDatabaseFailure(SQLException e) {
+        return e instanceof SQLTimeoutException || ReplicaRouter.isConnectionFailure(e);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** @return The number of calls turned away without reaching the database. */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /** @return The number of times the breaker has opened, from closed or half-open. */
+    public long getOpenedCount() {
+        return opened.sum();
+    }
+}
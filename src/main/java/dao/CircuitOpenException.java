@@ -0,0 +1,23 @@
+package dao;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of calling the database while FilmDao's circuit breaker is open. Nothing was sent to the database,
+ * so the call may be retried once the breaker lets calls through again.
+ */
+public class CircuitOpenException extends SQLTransientConnectionException {
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterMillis;
+
+    CircuitOpenException(long retryAfterMillis) {
+        super("The database is unavailable; calls are suspended for " + retryAfterMillis + " ms.", "08000");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /** @return How long until the breaker next lets a call through, in milliseconds. */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
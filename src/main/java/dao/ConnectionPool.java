@@ -0,0 +1,419 @@
+package dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import utils.AppConfig;
+
+/**
+ * A bounded pool of reusable JDBC connections for one database.
+ * Callers borrow a connection with getConnection() and give it back by closing it,
+ * so existing try-with-resources blocks work unchanged.
+ *
+ * Pool sizing and timeouts are read from the db.pool.* settings in AppConfig. db.connectTimeoutMillis and
+ * db.socketTimeoutMillis bound how long opening a connection, and waiting on one for data, may take; they are passed
+ * to the driver as the MySQL Connector/J connectTimeout and socketTimeout properties.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String name;
+    private final String url;
+    private final Properties connectionProperties;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long validationIntervalMillis;
+    private final int validationTimeoutSeconds;
+
+    // Idle connections, most recently returned first so hot connections are reused.
+    private final LinkedBlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    // One permit per connection that may be handed out; bounds the pool at maxSize.
+    private final Semaphore permits;
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    // Pool-level metrics.
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAccumulator maxAcquireNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder acquireTimeouts = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+
+    /**
+     * Creates a pool for the given database and starts its housekeeping thread.
+     * Connections are opened lazily; the housekeeper tops the pool up to the minimum size.
+     * @param name A short name used for the housekeeping thread and in metrics.
+     * @param url The JDBC URL of the database.
+     * @param user The database user.
+     * @param password The database password.
+     */
+    public ConnectionPool(String name, String url, String user, String password) {
+        this.name = name;
+        this.url = url;
+        this.connectionProperties = new Properties();
+        if (user != null) {
+            connectionProperties.setProperty("user", user);
+        }
+        if (password != null) {
+            connectionProperties.setProperty("password", password);
+        }
+        // Without them, a database host that stops answering hangs the thread until the OS gives up, minutes later
+        connectionProperties.setProperty("connectTimeout", AppConfig.get("db.connectTimeoutMillis", "3000"));
+        connectionProperties.setProperty("socketTimeout", AppConfig.get("db.socketTimeoutMillis", "120000"));
+
+        this.minSize = AppConfig.getInt("db.pool.minSize", 2);
+        this.maxSize = AppConfig.getInt("db.pool.maxSize", 20);
+        this.acquireTimeoutMillis = AppConfig.getLong("db.pool.acquireTimeoutMillis", 5000);
+        this.idleTimeoutMillis = AppConfig.getLong("db.pool.idleTimeoutMillis", 600000);
+        this.validationIntervalMillis = AppConfig.getLong("db.pool.validationIntervalMillis", 500);
+        this.validationTimeoutSeconds = AppConfig.getInt("db.pool.validationTimeoutSeconds", 2);
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.permits = new Semaphore(maxSize, true);
+
+        long housekeepingMillis = AppConfig.getLong("db.pool.housekeepingIntervalMillis", 30000);
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, 0, housekeepingMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting up to the configured acquire timeout for one to become free.
+     * Closing the returned connection gives it back to the pool.
+     * @return A validated connection.
+     * @throws SQLException If the pool is closed, the wait times out or a new connection cannot be opened.
+     */
+    public Connection getConnection() throws SQLException {
+        return getConnection(0);
+    }
+
+    /**
+     * Borrows a connection whose statements time out, as getConnection() does.
+     * @param queryTimeoutSeconds The query timeout set on every statement created through the connection; 0 for none.
+     * @return A validated connection.
+     * @throws SQLException If the pool is closed, the wait times out or a new connection cannot be opened.
+     */
+    public Connection getConnection(int queryTimeoutSeconds) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool '" + name + "' is closed.");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        waiters.incrementAndGet();
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+        if (!acquired) {
+            acquireTimeouts.increment();
+            throw new SQLTransientConnectionException("Timed out after " + acquireTimeoutMillis
+                    + " ms waiting for a connection from pool '" + name + "'.");
+        }
+
+        try {
+            PooledConnection pooled = takeIdleConnection();
+            if (pooled == null) {
+                pooled = openConnection();
+            }
+            activeConnections.incrementAndGet();
+            long elapsed = System.nanoTime() - start;
+            acquireCount.increment();
+            acquireNanos.add(elapsed);
+            maxAcquireNanos.accumulate(elapsed);
+            return pooled.lease(queryTimeoutSeconds);
+        } catch (SQLException | RuntimeException e) {
+            permits.release(); // The permit was never turned into a connection.
+            throw e;
+        }
+    }
+
+    /**
+     * Takes the most recently used idle connection that passes validation, discarding broken ones.
+     * @return A usable idle connection, or null if none is left.
+     */
+    private PooledConnection takeIdleConnection() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isUsable(pooled)) {
+                return pooled;
+            }
+            validationFailures.increment();
+            destroy(pooled);
+        }
+        return null;
+    }
+
+    /**
+     * Checks a connection before handing it out. Connections returned very recently
+     * skip the round trip to the server.
+     */
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsedAt < validationIntervalMillis) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a new physical connection and counts it against the pool.
+     */
+    private PooledConnection openConnection() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, connectionProperties);
+        PooledConnection pooled;
+        try {
+            pooled = new PooledConnection(connection);
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        totalConnections.incrementAndGet();
+        return pooled;
+    }
+
+    /**
+     * Returns a connection to the pool after undoing any per-lease state changes.
+     */
+    private void release(PooledConnection pooled) {
+        activeConnections.decrementAndGet();
+        try {
+            if (closed || pooled.connection.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            pooled.reset();
+            pooled.lastUsedAt = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            destroy(pooled); // A connection that cannot be reset is not safe to reuse.
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes the physical connection behind a pooled connection.
+     */
+    private void destroy(PooledConnection pooled) {
+        totalConnections.decrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // Nothing useful to do; the connection is being discarded anyway.
+        }
+    }
+
+    /**
+     * Evicts connections that have been idle too long and tops the pool up to its minimum size.
+     */
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : idle) {
+            if (totalConnections.get() <= minSize) {
+                break;
+            }
+            if (now - pooled.lastUsedAt > idleTimeoutMillis && idle.removeFirstOccurrence(pooled)) {
+                destroy(pooled);
+            }
+        }
+        while (!closed && totalConnections.get() < minSize && permits.tryAcquire()) {
+            try {
+                PooledConnection pooled = openConnection();
+                pooled.lastUsedAt = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                break; // Database unavailable; try again on the next run.
+            } finally {
+                permits.release();
+            }
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops the housekeeper.
+     * Connections still on loan are closed when they are returned.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /** @return The number of open physical connections, on loan or idle. */
+    public int getTotalCount() {
+        return totalConnections.get();
+    }
+
+    /** @return The number of connections currently on loan. */
+    public int getActiveCount() {
+        return activeConnections.get();
+    }
+
+    /** @return The number of open connections waiting in the pool. */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /** @return The number of threads currently waiting for a connection. */
+    public int getWaiterCount() {
+        return waiters.get();
+    }
+
+    /** @return The number of successful borrows since the pool was created. */
+    public long getAcquireCount() {
+        return acquireCount.sum();
+    }
+
+    /** @return The total time spent in successful borrows, in nanoseconds. */
+    public long getAcquireNanos() {
+        return acquireNanos.sum();
+    }
+
+    /** @return The slowest successful borrow, in nanoseconds. */
+    public long getMaxAcquireNanos() {
+        return maxAcquireNanos.get();
+    }
+
+    /** @return The number of borrows that gave up after the acquire timeout. */
+    public long getAcquireTimeoutCount() {
+        return acquireTimeouts.sum();
+    }
+
+    /** @return The number of idle connections discarded because they failed validation. */
+    public long getValidationFailureCount() {
+        return validationFailures.sum();
+    }
+
+    /**
+     * A physical connection owned by the pool, plus the state needed to reset it between loans.
+     */
+    private final class PooledConnection {
+        private final Connection connection;
+        private final int defaultIsolation;
+        private volatile long lastUsedAt;
+
+        PooledConnection(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.defaultIsolation = connection.getTransactionIsolation();
+        }
+
+        /**
+         * Restores the connection to the state a new borrower expects.
+         */
+        void reset() throws SQLException {
+            if (!connection.getAutoCommit()) {
+                connection.rollback(); // Discard anything the borrower left uncommitted.
+                connection.setAutoCommit(true);
+            }
+            if (connection.isReadOnly()) {
+                connection.setReadOnly(false);
+            }
+            if (connection.getTransactionIsolation() != defaultIsolation) {
+                connection.setTransactionIsolation(defaultIsolation);
+            }
+            connection.clearWarnings();
+        }
+
+        /**
+         * Wraps the connection in a proxy whose close() returns it to the pool.
+         * Each loan gets its own proxy so a stale reference cannot reach a later borrower.
+         */
+        Connection lease(int queryTimeoutSeconds) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this, queryTimeoutSeconds));
+        }
+    }
+
+    /**
+     * Proxy handler for one loan of a pooled connection.
+     */
+    private final class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private final int queryTimeoutSeconds;
+        private boolean returned;
+
+        Lease(PooledConnection pooled, int queryTimeoutSeconds) {
+            this.pooled = pooled;
+            this.queryTimeoutSeconds = queryTimeoutSeconds;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || pooled.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + name + "] " + pooled.connection;
+                default:
+                    break;
+            }
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool.");
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (queryTimeoutSeconds > 0 && result instanceof Statement) {
+                ((Statement) result).setQueryTimeout(queryTimeoutSeconds); // From createStatement, prepareStatement, prepareCall
+            }
+            return result;
+        }
+    }
+}
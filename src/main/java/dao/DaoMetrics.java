@@ -0,0 +1,52 @@
+package dao;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import utils.AppConfig;
+
+/**
+ * Timers and an error count for one FilmDao method, exported as
+ * films_dao_duration_seconds{method, phase} and films_dao_errors_total{method}, and the method's statement timeout.
+ *
+ * Phases: total is the whole call as the caller sees it, cache hits included; connect is borrowing a pooled
+ * connection; execute is running the statement up to the first row; map is reading rows into Film objects.
+ * The last three are only recorded when the call reaches the database.
+ */
+final class DaoMetrics {
+
+    private static final String DURATION = "films_dao_duration_seconds";
+    private static final String DURATION_HELP = "Time spent in FilmDao methods, by phase.";
+
+    final LatencyHistogram total;
+    final LatencyHistogram connect;
+    final LatencyHistogram execute;
+    final LatencyHistogram map;
+    final Counter errors;
+    // Seconds each statement may run before the driver cancels it: db.queryTimeoutSeconds.<method>, else the default
+    final int queryTimeoutSeconds;
+    // Whether a slow call counts against the circuit breaker: not for batches and streams, whose length varies
+    final boolean timed;
+
+    private DaoMetrics(String method, String defaultKey, int defaultSeconds, boolean timed) {
+        total = Metrics.histogram(DURATION, DURATION_HELP, "method", method, "phase", "total");
+        connect = Metrics.histogram(DURATION, DURATION_HELP, "method", method, "phase", "connect");
+        execute = Metrics.histogram(DURATION, DURATION_HELP, "method", method, "phase", "execute");
+        map = Metrics.histogram(DURATION, DURATION_HELP, "method", method, "phase", "map");
+        errors = Metrics.counter("films_dao_errors_total", "FilmDao calls that threw.", "method", method);
+        queryTimeoutSeconds = AppConfig.getInt("db.queryTimeoutSeconds." + method,
+                AppConfig.getInt(defaultKey, defaultSeconds));
+        this.timed = timed;
+    }
+
+    static DaoMetrics of(String method) {
+        return new DaoMetrics(method, "db.queryTimeoutSeconds", 5, true);
+    }
+
+    /**
+     * For a method that runs batches or streams rows, with the longer db.queryTimeoutSeconds.bulk by default.
+     */
+    static DaoMetrics bulk(String method) {
+        return new DaoMetrics(method, "db.queryTimeoutSeconds.bulk", 60, false);
+    }
+}
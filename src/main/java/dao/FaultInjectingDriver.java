@@ -0,0 +1,186 @@
+package dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import utils.AppConfig;
+
+/**
+ * A JDBC driver that wraps another one and makes the database slow or unreachable on demand, to try out the
+ * timeouts and the circuit breaker locally. Prefix the database URL with "jdbc:faulty:", e.g.
+ * db.url=jdbc:faulty:jdbc:h2:mem:films;MODE=MySQL;DB_CLOSE_DELAY=-1;NON_KEYWORDS=YEAR, and FilmDao registers it.
+ *
+ * Faults, read from db.faults.* when the driver is registered and changeable at runtime through the setters:
+ * - connectDelayMillis: opening a connection takes this long. Past the connectTimeout property, it fails once that
+ *   has passed, as connecting to a host that does not answer does.
+ * - queryDelayMillis: every statement stalls this long before it runs. Past the statement's query timeout, it fails
+ *   with SQLTimeoutException once that has passed, as the driver cancelling a stalled query does.
+ * - failurePercent: the share of connects, statements and validations that fail at once with a communications error.
+ */
+public final class FaultInjectingDriver implements Driver {
+
+    public static final String PREFIX = "jdbc:faulty:";
+
+    private static volatile long connectDelayMillis = AppConfig.getLong("db.faults.connectDelayMillis", 0);
+    private static volatile long queryDelayMillis = AppConfig.getLong("db.faults.queryDelayMillis", 0);
+    private static volatile int failurePercent = AppConfig.getInt("db.faults.failurePercent", 0);
+    private static boolean registered; // Guarded by FaultInjectingDriver.class
+
+    private FaultInjectingDriver() {
+    }
+
+    /**
+     * Registers the driver with DriverManager, once.
+     * @throws SQLException If DriverManager refuses it.
+     */
+    public static synchronized void register() throws SQLException {
+        if (!registered) {
+            DriverManager.registerDriver(new FaultInjectingDriver());
+            registered = true;
+        }
+    }
+
+    public static void setConnectDelayMillis(long millis) {
+        connectDelayMillis = millis;
+    }
+
+    public static void setQueryDelayMillis(long millis) {
+        queryDelayMillis = millis;
+    }
+
+    public static void setFailurePercent(int percent) {
+        failurePercent = percent;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIX);
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null; // DriverManager asks every driver in turn
+        }
+        failSometimes();
+        String timeout = info.getProperty("connectTimeout", "0");
+        long limit = timeout.isEmpty() ? 0 : Long.parseLong(timeout);
+        stall(connectDelayMillis, limit, () -> new SQLNonTransientConnectionException(
+                "Connect timed out after " + timeout + " ms (injected).", "08001"));
+        Connection connection = DriverManager.getConnection(url.substring(PREFIX.length()), info);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new Faulty(connection));
+    }
+
+    /**
+     * Fails with a communications error, failurePercent times in a hundred.
+     */
+    private static void failSometimes() throws SQLException {
+        if (failurePercent > 0 && ThreadLocalRandom.current().nextInt(100) < failurePercent) {
+            throw new SQLNonTransientConnectionException("Communications link failure (injected).", "08S01");
+        }
+    }
+
+    /**
+     * Sleeps for a delay, or only until a limit and then throws.
+     * @param limitMillis The limit; 0 for none.
+     */
+    private static void stall(long delayMillis, long limitMillis, Timeout timeout) throws SQLException {
+        if (delayMillis <= 0) {
+            return;
+        }
+        boolean timesOut = limitMillis > 0 && delayMillis > limitMillis;
+        try {
+            Thread.sleep(timesOut ? limitMillis : delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted during an injected delay.", e);
+        }
+        if (timesOut) {
+            throw timeout.exception();
+        }
+    }
+
+    private interface Timeout {
+        SQLException exception();
+    }
+
+    /**
+     * Proxy handler for a connection, or a statement, of the wrapped driver. Statements created through a faulty
+     * connection are faulty too; their execute methods are delayed or failed.
+     */
+    private static final class Faulty implements InvocationHandler {
+        private final Object target;
+
+        Faulty(Object target) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (target instanceof Statement && name.startsWith("execute")) {
+                failSometimes();
+                int seconds = ((Statement) target).getQueryTimeout();
+                stall(queryDelayMillis, seconds * 1000L, () -> new SQLTimeoutException(
+                        "Statement cancelled after its " + seconds + " s timeout (injected).", "HY008"));
+            } else if ("isValid".equals(name)) {
+                try {
+                    failSometimes();
+                } catch (SQLException e) {
+                    return false;
+                }
+            }
+            Object result;
+            try {
+                result = method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            Class<?> type = method.getReturnType();
+            if (target instanceof Connection && Statement.class.isAssignableFrom(type)) {
+                return Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new Faulty(result));
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+}
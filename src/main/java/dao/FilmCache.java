@@ -0,0 +1,182 @@
+package dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import models.Film;
+import models.FilmField;
+import utils.AppConfig;
+
+/**
+ * In-process read-through cache for FilmDao: one cache of single films keyed by ID and one of
+ * list pages keyed by how the page was requested. Registered as a FilmChangeListener so every
+ * write through FilmDao drops exactly the entries it can have changed.
+ *
+ * Sizes and time-to-live come from the cache.* settings in AppConfig. While the database cannot be reached, or
+ * FilmDao's circuit breaker is open, expired films and pages are served for up to cache.staleIfErrorMillis more.
+ */
+public class FilmCache implements FilmChangeListener {
+
+    private final LoadingCache<Integer, Film> films;
+    private final LoadingCache<PageKey, ArrayList<Film>> pages;
+
+    public FilmCache() {
+        long staleMillis = AppConfig.getLong("cache.staleIfErrorMillis", 300000);
+        films = new LoadingCache<>(AppConfig.getInt("cache.films.maxSize", 10000),
+                AppConfig.getLong("cache.films.ttlMillis", 60000), staleMillis, CircuitBreaker::isDatabaseFailure);
+        pages = new LoadingCache<>(AppConfig.getInt("cache.pages.maxSize", 1000),
+                AppConfig.getLong("cache.pages.ttlMillis", 10000), staleMillis, CircuitBreaker::isDatabaseFailure);
+    }
+
+    /**
+     * Returns a film by ID, loading it on a miss.
+     * @return A copy of the cached film, so callers may modify it freely.
+     */
+    public Film getFilm(int id, LoadingCache.Loader<Integer, Film> loader) throws SQLException {
+        return new Film(films.get(id, loader));
+    }
+
+    /**
+     * Returns the films with the given IDs, loading all the missing ones together.
+     * @return Copies of the films found, keyed by ID; IDs with no film are absent.
+     */
+    public Map<Integer, Film> getFilms(Collection<Integer> ids, LoadingCache.BulkLoader<Integer, Film> loader) throws SQLException {
+        Map<Integer, Film> copies = new HashMap<>();
+        for (Map.Entry<Integer, Film> e : films.getAll(ids, loader).entrySet()) {
+            copies.put(e.getKey(), new Film(e.getValue()));
+        }
+        return copies;
+    }
+
+    /**
+     * Returns a page of films, loading it on a miss.
+     * The list is a fresh copy but its films are shared with the cache and must not be modified.
+     */
+    public ArrayList<Film> getPage(PageKey key, LoadingCache.Loader<PageKey, ArrayList<Film>> loader) throws SQLException {
+        return new ArrayList<>(pages.get(key, loader));
+    }
+
+    public LoadingCache<Integer, Film> getFilmEntries() {
+        return films;
+    }
+
+    public LoadingCache<PageKey, ArrayList<Film>> getPageEntries() {
+        return pages;
+    }
+
+    /**
+     * A new film can land on any offset page, but only on the cursor page whose ID range covers it.
+     */
+    @Override
+    public void filmInserted(Film film) {
+        int id = film.getId();
+        pages.invalidateIf((key, page) -> !key.isCursor() || key.covers(id, page, true));
+    }
+
+    /**
+     * Updating a film changes only the pages that contain it.
+     */
+    @Override
+    public void filmUpdated(Film film) {
+        int id = film.getId();
+        films.invalidate(id);
+        pages.invalidateIf((key, page) -> key.covers(id, page, false));
+    }
+
+    /**
+     * Deleting a film shifts every later offset page, but only changes the cursor page that held it.
+     */
+    @Override
+    public void filmDeleted(int id) {
+        films.invalidate(id);
+        pages.invalidateIf((key, page) -> !key.isCursor() || key.covers(id, page, false));
+    }
+
+    /**
+     * Identifies a cached page: either LIMIT/OFFSET or keyset (films after an ID), and the fields it was read with.
+     * A projected page holds only those fields, so it is cached apart from the whole-film page.
+     */
+    public static final class PageKey {
+        private final boolean cursor;
+        private final int limit;
+        private final int position; // Offset for offset pages, last seen ID for cursor pages.
+        private final Set<FilmField> fields;
+
+        private PageKey(boolean cursor, int limit, int position, Set<FilmField> fields) {
+            this.cursor = cursor;
+            this.limit = limit;
+            this.position = position;
+            this.fields = fields;
+        }
+
+        public static PageKey offset(int limit, int offset) {
+            return offset(limit, offset, FilmField.ALL);
+        }
+
+        public static PageKey offset(int limit, int offset, Set<FilmField> fields) {
+            return new PageKey(false, limit, offset, fields);
+        }
+
+        public static PageKey after(int afterId, int limit) {
+            return after(afterId, limit, FilmField.ALL);
+        }
+
+        public static PageKey after(int afterId, int limit, Set<FilmField> fields) {
+            return new PageKey(true, limit, afterId, fields);
+        }
+
+        public boolean isCursor() {
+            return cursor;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * Tells whether a film ID belongs on this page.
+         * @param id The film ID.
+         * @param page The cached contents of this page.
+         * @param isNew True if the film has just been inserted, so it is not in the cached contents yet.
+         */
+        boolean covers(int id, ArrayList<Film> page, boolean isNew) {
+            if (!cursor || !isNew) {
+                for (Film film : page) {
+                    if (film.getId() == id) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            // A new ID joins a cursor page if it falls inside its range, or after a short (last) page.
+            return id > position && (page.size() < limit || id < page.get(page.size() - 1).getId());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PageKey)) {
+                return false;
+            }
+            PageKey other = (PageKey) o;
+            return cursor == other.cursor && limit == other.limit && position == other.position
+                    && fields.equals(other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(cursor, limit, position, fields);
+        }
+    }
+}
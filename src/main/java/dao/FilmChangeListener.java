@@ -0,0 +1,25 @@
+package dao;
+
+import models.Film;
+
+/**
+ * Receives a callback after each successful write made through FilmDao.
+ * Listeners are called on the writing thread, after the change has been committed, so they must be quick.
+ */
+public interface FilmChangeListener {
+
+    /**
+     * Called after a film has been inserted. The film carries its generated ID.
+     */
+    void filmInserted(Film film);
+
+    /**
+     * Called after a film has been updated with the given values.
+     */
+    void filmUpdated(Film film);
+
+    /**
+     * Called after the film with the given ID has been deleted.
+     */
+    void filmDeleted(int id);
+}
@@ -1,30 +1,86 @@
 package dao;
 
+import java.io.IOException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import models.Film;
+import models.FilmField;
+import models.FilmQuery;
+import utils.AppConfig;
 
 /**
  * Singleton Data Access Object for managing Film entities in the database.
  */
 public class FilmDao {
 
-    private static final String DATABASE_URL = "jdbc:mysql://mudfoot.doc.stu.mmu.ac.uk:6306/ajibolaa";
-    private static final String DATABASE_USER = "ajibolaa";
-    private static final String DATABASE_PASSWORD = "berThpol5";
+    private final FilmShards shards; // The database at db.url, or the db.shards.urls shards; each has a pool and a breaker.
+    private final ReplicaRouter router; // Sends reads to the read replicas, if any are configured.
+    private final FilmCache cache; // Read-through cache in front of getFilmById and paged reads; null when disabled.
+    private final List<FilmChangeListener> listeners = new CopyOnWriteArrayList<>(); // Notified after each write.
+    private final FilmSearchIndex searchIndex = new FilmSearchIndex(); // In-memory full-text index over title, director and stars.
+    private final FilmVersions versions = new FilmVersions(); // Change counters behind HTTP ETags.
+
+    // SQLState for a statement that found no row to change.
+    private static final String NO_DATA = "02000";
+
+    // Per-method timers, error counts and statement timeouts; the timers and counts are exported at /metrics.
+    private static final DaoMetrics GET_FILM_BY_ID = DaoMetrics.of("getFilmById");
+    private static final DaoMetrics GET_ALL_FILMS = DaoMetrics.of("getAllFilms");
+    private static final DaoMetrics STREAM_FILMS = DaoMetrics.bulk("streamFilms");
+    private static final DaoMetrics EXPORT_FILMS = DaoMetrics.bulk("exportFilms");
+    private static final DaoMetrics GET_FILMS_AFTER = DaoMetrics.of("getFilmsAfter");
+    private static final DaoMetrics GET_FILMS_BY_IDS = DaoMetrics.of("getFilmsByIds");
+    private static final DaoMetrics GET_FILMS = DaoMetrics.of("getFilms");
+    private static final DaoMetrics INSERT_FILM = DaoMetrics.of("insertFilm");
+    private static final DaoMetrics INSERT_FILMS = DaoMetrics.bulk("insertFilms");
+    private static final DaoMetrics UPDATE_FILM = DaoMetrics.of("updateFilm");
+    private static final DaoMetrics UPDATE_FILMS = DaoMetrics.bulk("updateFilms");
+    private static final DaoMetrics DELETE_FILM = DaoMetrics.of("deleteFilm");
+    private static final DaoMetrics SEARCH_FILMS = DaoMetrics.of("searchFilms");
+    private static final DaoMetrics SEARCH_FILM = DaoMetrics.of("searchFilm");
 
     // Private constructor to prevent instantiation outside of this class.
     private FilmDao() {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver"); // Ensures that the MySQL driver is loaded.
+            Class.forName(AppConfig.get("db.driver", "com.mysql.cj.jdbc.Driver")); // Ensures that the JDBC driver is loaded.
         } catch (ClassNotFoundException e) {
             throw new RuntimeException("Driver not found", e);
         }
+        if (AppConfig.get("db.url", "").startsWith(FaultInjectingDriver.PREFIX)
+                || AppConfig.get("db.shards.urls", "").contains(FaultInjectingDriver.PREFIX)
+                || AppConfig.get("db.replicas.urls", "").contains(FaultInjectingDriver.PREFIX)) {
+            try {
+                FaultInjectingDriver.register(); // For trying out timeouts and the circuit breaker locally
+            } catch (SQLException e) {
+                throw new RuntimeException("Could not register the fault-injecting driver", e);
+            }
+        }
+        shards = new FilmShards();
+        router = new ReplicaRouter();
+        listeners.add(router); // First, so reads stay off the replicas before the cache can reload what a write changed.
+        if (AppConfig.getBoolean("cache.enabled", true)) {
+            cache = new FilmCache();
+            listeners.add(cache); // Writes through this DAO invalidate the affected cache entries.
+        } else {
+            cache = null;
+        }
+        listeners.add(searchIndex); // Keeps the search index in step with every write.
+        listeners.add(versions); // Last, so a new version is only visible once the cache has dropped the old data.
     }
 
     /**
@@ -43,12 +99,139 @@ public class FilmDao {
     }
 
     /**
-     * Creates and returns a connection to the database.
-     * @return a new Connection object.
-     * @throws SQLException If a connection error occurs.
+     * Borrows a connection whose statements time out after the calling method's db.queryTimeoutSeconds.
+     * Closing it returns it to the pool. Connections to a shard go through its circuit breaker first, as
+     * FilmShards.Shard.call does.
+     * @param metrics The calling method's timers; the wait is recorded as its connect phase.
+     */
+    private static Connection getConnection(DaoMetrics metrics, ConnectionPool from) throws SQLException {
+        long start = System.nanoTime();
+        Connection conn = from.getConnection(metrics.queryTimeoutSeconds);
+        metrics.connect.recordSince(start);
+        return conn;
+    }
+
+    /**
+     * Work done on one connection: a read on whichever database the router picks, or a write on a shard.
+     */
+    interface Query<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Runs a read on a replica chosen by the router, or on the shard. If the replica cannot be reached,
+     * the failure counts towards ejecting it and the read runs again on the shard. Replicas have no circuit
+     * breaker of their own: ejection keeps reads off the ones that are down. With shards there are no replicas,
+     * so reads go straight to the shard.
+     * @param shard The shard holding the rows; the primary without sharding.
+     * @param metrics The calling method's timers.
+     * @param query The read; it may run twice, so it must not have side effects.
+     * @return What the query returns.
+     * @throws SQLException If the query fails for any other reason, or fails on the primary.
+     */
+    private <T> T read(FilmShards.Shard shard, DaoMetrics metrics, Query<T> query) throws SQLException {
+        ReplicaRouter.Replica replica = router.chooseReplica();
+        if (replica != null) {
+            try (Connection conn = getConnection(metrics, replica.getPool())) {
+                T result = query.run(conn);
+                replica.succeeded();
+                return result;
+            } catch (SQLException e) {
+                if (!ReplicaRouter.isConnectionFailure(e)) {
+                    throw e;
+                }
+                router.failed(replica);
+            }
+        }
+        return shard.call(metrics, query);
+    }
+
+    /**
+     * The read cache to use for the current request: none when its reads are pinned to the primary,
+     * since this node's cache may predate a write the client made through another node.
+     */
+    private FilmCache readCache() {
+        return ReplicaRouter.isPinnedToPrimary() ? null : cache;
+    }
+
+    /**
+     * Exposes the connection pool for monitoring.
+     * @return the pool of the primary, or of the first shard.
+     */
+    public ConnectionPool getConnectionPool() {
+        return shards.first().getPool();
+    }
+
+    /**
+     * Exposes the shards for monitoring.
+     * @return the shards, of which there is one, the primary, unless db.shards.urls is set.
+     */
+    public FilmShards getShards() {
+        return shards;
+    }
+
+    /**
+     * Exposes the replica router for monitoring.
+     * @return the router, which has no replicas unless db.replicas.urls is set.
+     */
+    public ReplicaRouter getRouter() {
+        return router;
+    }
+
+    /**
+     * Exposes the circuit breaker in front of the primary for monitoring; each shard has its own.
+     * @return the breaker of the primary, or of the first shard, which never opens if db.breaker.enabled is false.
+     */
+    public CircuitBreaker getBreaker() {
+        return shards.first().getBreaker();
+    }
+
+    /**
+     * Exposes the read cache for monitoring.
+     * @return the cache, or null if caching is disabled.
+     */
+    public FilmCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Registers a listener to be told about every successful insert, update and delete.
+     * @param listener The listener to add.
+     */
+    public void addChangeListener(FilmChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Exposes the search index for monitoring.
+     * @return the full-text search index.
+     */
+    public FilmSearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Exposes the change counters used to validate cached HTTP responses.
+     * @return the version tracker for the catalogue and each film.
      */
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(DATABASE_URL, DATABASE_USER, DATABASE_PASSWORD);
+    public FilmVersions getVersions() {
+        return versions;
+    }
+
+    /**
+     * Reloads the full-text search index from the database. Called once at startup.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void rebuildSearchIndex() throws SQLException {
+        searchIndex.rebuild(this);
+    }
+
+    /**
+     * Releases the database connections held by this DAO. Called when the application shuts down.
+     */
+    public void shutdown() {
+        router.close();
+        shards.close();
     }
 
     /**
@@ -68,6 +251,44 @@ public class FilmDao {
         );
     }
 
+    /**
+     * Extracts the given fields of a Film from the ResultSet; the others are left unset.
+     * @param rs The ResultSet object, selected with columns(fields).
+     * @param fields The fields to read.
+     * @return a Film object.
+     * @throws SQLException If an error occurs reading from the ResultSet.
+     */
+    private Film extractFilmFromResultSet(ResultSet rs, Set<FilmField> fields) throws SQLException {
+        if (FilmField.isAll(fields)) {
+            return extractFilmFromResultSet(rs);
+        }
+        Film film = new Film();
+        film.setId(rs.getInt("id"));
+        if (fields.contains(FilmField.TITLE)) {
+            film.setTitle(rs.getString("title"));
+        }
+        if (fields.contains(FilmField.YEAR)) {
+            film.setYear(rs.getInt("year"));
+        }
+        if (fields.contains(FilmField.DIRECTOR)) {
+            film.setDirector(rs.getString("director"));
+        }
+        if (fields.contains(FilmField.STARS)) {
+            film.setStars(rs.getString("stars"));
+        }
+        if (fields.contains(FilmField.REVIEW)) {
+            film.setReview(rs.getString("review"));
+        }
+        return film;
+    }
+
+    /**
+     * Builds the select list for a projection, so columns nobody asked for (above all the review) are never read.
+     */
+    private static String columns(Set<FilmField> fields) {
+        return FilmField.isAll(fields) ? "*" : FilmField.join(fields, ", ");
+    }
+
     /**
      * Retrieves a single film from the database by its ID.
      * @param id The ID of the film to retrieve.
@@ -75,18 +296,58 @@ public class FilmDao {
      * @throws SQLException If a database access error occurs or no film is found.
      */
     public Film getFilmById(int id) throws SQLException {
-        String sql = "SELECT * FROM films WHERE id = ?;";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return extractFilmFromResultSet(rs);
-                } else {
-                    throw new SQLException("No film found with ID: " + id);
+        return getFilmById(id, FilmField.ALL);
+    }
+
+    /**
+     * Retrieves the given fields of a single film by its ID.
+     * Films are cached whole, so with the cache on the whole film is returned and the caller writes only the fields it wants.
+     * @param id The ID of the film to retrieve.
+     * @param fields The fields to read; the ID is always read.
+     * @return A Film object with at least the requested fields set.
+     * @throws SQLException If a database access error occurs or no film is found.
+     */
+    public Film getFilmById(int id, Set<FilmField> fields) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            FilmCache cache = readCache();
+            return cache != null ? cache.getFilm(id, this::loadFilmById) : loadFilmById(id, fields);
+        } catch (SQLException | RuntimeException e) {
+            GET_FILM_BY_ID.errors.increment();
+            throw e;
+        } finally {
+            GET_FILM_BY_ID.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads a single film from the database, bypassing the cache.
+     */
+    private Film loadFilmById(int id) throws SQLException {
+        return loadFilmById(id, FilmField.ALL);
+    }
+
+    /**
+     * Reads the given fields of a single film from the database, bypassing the cache.
+     */
+    private Film loadFilmById(int id, Set<FilmField> fields) throws SQLException {
+        String sql = "SELECT " + columns(fields) + " FROM films WHERE id = ?;";
+        return read(shards.owner(id), GET_FILM_BY_ID, conn -> {
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, id);
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    start = GET_FILM_BY_ID.execute.recordSince(start);
+                    if (rs.next()) {
+                        Film film = extractFilmFromResultSet(rs, fields);
+                        GET_FILM_BY_ID.map.recordSince(start);
+                        return film;
+                    } else {
+                        throw new SQLException("No film found with ID: " + id);
+                    }
                 }
             }
-        }
+        });
     }
 
     /**
@@ -97,25 +358,799 @@ public class FilmDao {
      * @throws SQLException If a database access error occurs.
      */
     public ArrayList<Film> getAllFilms(Integer limit, Integer offset) throws SQLException {
-        ArrayList<Film> allFilms = new ArrayList<>();
-        StringBuilder sql = new StringBuilder("SELECT * FROM films");
+        return getAllFilms(limit, offset, FilmField.ALL);
+    }
+
+    /**
+     * Retrieves the given fields of films from the database with optional pagination support.
+     * @param limit The maximum number of films to retrieve (optional).
+     * @param offset The offset from where to start retrieving films (optional).
+     * @param fields The fields to read; the ID is always read.
+     * @return An ArrayList of Film objects with only the requested fields set.
+     * @throws SQLException If a database access error occurs.
+     */
+    public ArrayList<Film> getAllFilms(Integer limit, Integer offset, Set<FilmField> fields) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            FilmCache cache = readCache();
+            if (cache != null && limit != null && offset != null) {
+                return cache.getPage(FilmCache.PageKey.offset(limit, offset, fields), key -> loadAllFilms(limit, offset, fields));
+            }
+            return loadAllFilms(limit, offset, fields); // The unpaginated catalogue is never cached.
+        } catch (SQLException | RuntimeException e) {
+            GET_ALL_FILMS.errors.increment();
+            throw e;
+        } finally {
+            GET_ALL_FILMS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads films from the database, bypassing the cache.
+     */
+    private ArrayList<Film> loadAllFilms(Integer limit, Integer offset, Set<FilmField> fields) throws SQLException {
+        return loadFilms(GET_ALL_FILMS, FilmQuery.ALL, fields, limit, offset);
+    }
+
+    /**
+     * Retrieves a page of the films a query selects, in its order: by offset, or after the film the query starts
+     * after (keyset pagination, which seeks on the sort column's index, so deep pages cost the same as the first).
+     * A query without filters in plain ID order is answered by getAllFilms or getFilmsAfter, and so from the cache;
+     * filtered and sorted pages always read the database.
+     * @param query The filters, order and, for keyset pages, position.
+     * @param limit The maximum number of films to retrieve.
+     * @param offset The number of films to skip; must be 0 for keyset pages.
+     * @param fields The fields to read; the ID, and the sort column for keyset pages, are always read.
+     * @return An ArrayList of Film objects in the query's order.
+     * @throws SQLException If a database access error occurs.
+     */
+    public ArrayList<Film> getFilms(FilmQuery query, int limit, int offset, Set<FilmField> fields) throws SQLException {
+        if (query.isPlain()) {
+            return query.isAfter() ? getFilmsAfter(query.getAfterId(), limit, fields) : getAllFilms(limit, offset, fields);
+        }
+        long start = System.nanoTime();
+        try {
+            return loadFilms(GET_FILMS, query, withSortKey(query, fields), limit, offset);
+        } catch (SQLException | RuntimeException e) {
+            GET_FILMS.errors.increment();
+            throw e;
+        } finally {
+            GET_FILMS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Asks the database how it would run a listing query, to check which index it uses. Always runs on the primary,
+     * or on the first shard, whose schema every shard shares.
+     * @return The plan, one line per row of EXPLAIN output, each as "column=value" pairs.
+     * @throws SQLException If a database access error occurs.
+     */
+    public String explain(FilmQuery query, int limit, int offset) throws SQLException {
+        Select select = select(query, withSortKey(query, FilmField.ALL), limit, offset);
+        return shards.first().call(GET_FILMS, conn -> {
+            StringBuilder plan = new StringBuilder();
+            try (PreparedStatement pstmt = conn.prepareStatement("EXPLAIN " + select.sql)) {
+                select.bind(pstmt);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    int columns = rs.getMetaData().getColumnCount();
+                    while (rs.next()) {
+                        for (int i = 1; i <= columns; i++) {
+                            plan.append(i > 1 ? ", " : "").append(rs.getMetaData().getColumnLabel(i)).append('=').append(rs.getString(i));
+                        }
+                        plan.append('\n');
+                    }
+                }
+            }
+            return plan.toString();
+        });
+    }
+
+    /**
+     * Clears the fields of a film that were read but not asked for, leaving it as extractFilmFromResultSet would.
+     */
+    private static void project(Film film, Set<FilmField> fields) {
+        if (!fields.contains(FilmField.TITLE)) {
+            film.setTitle(null);
+        }
+        if (!fields.contains(FilmField.YEAR)) {
+            film.setYear(0);
+        }
+        if (!fields.contains(FilmField.DIRECTOR)) {
+            film.setDirector(null);
+        }
+        if (!fields.contains(FilmField.STARS)) {
+            film.setStars(null);
+        }
+        if (!fields.contains(FilmField.REVIEW)) {
+            film.setReview(null);
+        }
+    }
+
+    /**
+     * Adds the sort column to a projection, since the next page's token is built from the last film's key.
+     */
+    private static Set<FilmField> withSortKey(FilmQuery query, Set<FilmField> fields) {
+        FilmField key = FilmField.valueOf(query.getSort().name());
+        if (fields.contains(key)) {
+            return fields;
+        }
+        EnumSet<FilmField> read = EnumSet.copyOf(fields);
+        read.add(key);
+        return FilmField.isAll(read) ? FilmField.ALL : read;
+    }
+
+    /**
+     * Reads a page of a listing into a list. With shards, each shard reads the first offset + limit films of the
+     * listing in parallel, since any one of them may hold the whole page, and the parts are merged in the query's
+     * order. Past the first page, the shards read only the ID and sort key of those films, and the page's films
+     * are then read whole by ID from their owners; a deep offset still costs every shard the keys before it, which
+     * keyset pages avoid. The listing fails if any shard fails.
+     * @param limit The maximum number of films to read (optional).
+     * @param offset The number of films to skip (optional).
+     */
+    private ArrayList<Film> loadFilms(DaoMetrics metrics, FilmQuery query, Set<FilmField> fields, Integer limit,
+                                      Integer offset) throws SQLException {
+        if (!shards.isSharded()) {
+            return loadFilms(shards.first(), metrics, select(query, fields, limit, offset), fields);
+        }
+        boolean paged = limit != null && offset != null;
+        boolean keysFirst = paged && offset > 0;
+        Set<FilmField> read = keysFirst ? withSortKey(query, EnumSet.of(FilmField.ID)) : fields;
+        boolean titleKey = query.getSort() == FilmQuery.Sort.TITLE;
+        Select select = select(query, read, paged ? (int) Math.min((long) offset + limit, Integer.MAX_VALUE) : null,
+                paged ? 0 : null, titleKey);
+        Map<FilmShards.Shard, FilmShards.Part> parts = shards.forEach(shards.getShards(),
+                shard -> loadPart(shard, metrics, select, read, titleKey));
+        ArrayList<Film> films = merge(metrics, query, parts.values(), paged ? offset : 0, paged ? limit : null);
+        if (!keysFirst) {
+            return films;
+        }
+        List<Integer> ids = new ArrayList<>(films.size());
+        for (Film film : films) {
+            ids.add(film.getId());
+        }
+        Map<Integer, Film> found = loadFilmsByIds(metrics, ids, fields);
+        ArrayList<Film> page = new ArrayList<>(films.size());
+        for (Integer id : ids) {
+            Film film = found.get(id);
+            if (film != null) {
+                page.add(film); // Unless deleted in between
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Merges the shards' parts of a listing in the query's order, skipping offset films and keeping at most limit.
+     * @param limit The most films to keep, or null for all.
+     */
+    private static ArrayList<Film> merge(DaoMetrics metrics, FilmQuery query, Collection<FilmShards.Part> parts,
+                                         int offset, Integer limit) throws SQLException {
+        long start = System.nanoTime();
+        FilmShards.Merge merge = FilmShards.Merge.of(query, parts);
+        ArrayList<Film> films = new ArrayList<>(limit != null ? limit : 16);
+        int skip = offset;
+        Film film;
+        while ((limit == null || films.size() < limit) && (film = merge.next()) != null) {
+            if (skip > 0) {
+                skip--;
+            } else {
+                films.add(film);
+            }
+        }
+        metrics.map.recordSince(start);
+        return films;
+    }
+
+    /**
+     * Runs a listing query on one shard and reads every row into a list.
+     */
+    private ArrayList<Film> loadFilms(FilmShards.Shard shard, DaoMetrics metrics, Select select, Set<FilmField> fields)
+            throws SQLException {
+        return read(shard, metrics, conn -> {
+            ArrayList<Film> films = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(select.sql)) {
+                select.bind(pstmt);
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    start = metrics.execute.recordSince(start);
+                    while (rs.next()) {
+                        films.add(extractFilmFromResultSet(rs, fields));
+                    }
+                    metrics.map.recordSince(start);
+                }
+            }
+            return films;
+        });
+    }
+
+    /**
+     * Runs a listing query on one shard and reads every row into its part of the listing, with each title's sort key
+     * if asked for.
+     */
+    private FilmShards.Part loadPart(FilmShards.Shard shard, DaoMetrics metrics, Select select, Set<FilmField> fields,
+                                     boolean titleKey) throws SQLException {
+        return read(shard, metrics, conn -> {
+            FilmShards.Part part = new FilmShards.Part();
+            try (PreparedStatement pstmt = conn.prepareStatement(select.sql)) {
+                select.bind(pstmt);
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    start = metrics.execute.recordSince(start);
+                    while (rs.next()) {
+                        part.films.add(extractFilmFromResultSet(rs, fields));
+                        if (titleKey) {
+                            part.keys.add(rs.getBytes("title_key"));
+                        }
+                    }
+                    metrics.map.recordSince(start);
+                }
+            }
+            return part;
+        });
+    }
+
+    /**
+     * A listing query and the values for its placeholders, in order.
+     */
+    private static final class Select {
+        final String sql;
+        final List<Object> params;
+
+        Select(String sql, List<Object> params) {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        void bind(PreparedStatement pstmt) throws SQLException {
+            for (int i = 0; i < params.size(); i++) {
+                pstmt.setObject(i + 1, params.get(i));
+            }
+        }
+    }
+
+    /**
+     * Builds the SQL for a listing. Filters and order are written so that MySQL can answer them from the indexes in
+     * db/migrations/001_film_listing_indexes.sql: comparisons on bare columns, the title prefix as a LIKE with a
+     * fixed start (a range on the title index), and the keyset position as a range on the sort column. Every order
+     * ends with the ID, as every index there does, so rows come back in index order without a sort.
+     */
+    private static Select select(FilmQuery query, Set<FilmField> fields, Integer limit, Integer offset) {
+        return select(query, fields, limit, offset, false);
+    }
+
+    /**
+     * Builds the SQL for a listing, as above, that also reads each title's sort key under the column's collation as
+     * title_key, for merging shards' listings ordered by title in exactly the order each shard sorts them (see
+     * FilmShards.Merge). The column compares PAD SPACE, ignoring trailing spaces, so the key leaves them out too.
+     * @param titleKey true to read the sort key.
+     */
+    private static Select select(FilmQuery query, Set<FilmField> fields, Integer limit, Integer offset,
+                                 boolean titleKey) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(columns(fields));
+        if (titleKey) {
+            sql.append(", WEIGHT_STRING(TRIM(TRAILING ' ' FROM title)) AS title_key");
+        }
+        sql.append(" FROM films");
+        List<Object> params = new ArrayList<>();
+        List<String> conditions = new ArrayList<>();
+        if (query.getYearFrom() != null) {
+            conditions.add("year >= ?");
+            params.add(query.getYearFrom());
+        }
+        if (query.getYearTo() != null) {
+            conditions.add("year <= ?");
+            params.add(query.getYearTo());
+        }
+        if (query.getDirector() != null) {
+            conditions.add("director = ?");
+            params.add(query.getDirector());
+        }
+        if (query.getTitlePrefix() != null) {
+            conditions.add("title LIKE ? ESCAPE '!'");
+            params.add(query.getTitlePrefix().replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%");
+        }
+        String after = query.isDescending() ? " < ?" : " > ?";
+        if (query.isAfter()) {
+            if (query.getSort() == FilmQuery.Sort.ID) {
+                conditions.add("id" + after);
+            } else {
+                // The leading bound is redundant, but gives every optimizer a plain range to seek on
+                String column = query.getSort().getName();
+                conditions.add(column + (query.isDescending() ? " <= ?" : " >= ?"));
+                conditions.add("(" + column + after + " OR (" + column + " = ? AND id" + after + "))");
+                params.add(query.getAfterKey());
+                params.add(query.getAfterKey());
+                params.add(query.getAfterKey());
+            }
+            params.add(query.getAfterId());
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+
+        String direction = query.isDescending() ? " DESC" : "";
+        sql.append(" ORDER BY ");
+        if (query.getSort() != FilmQuery.Sort.ID) {
+            sql.append(query.getSort().getName()).append(direction).append(", ");
+        }
+        sql.append("id").append(direction);
         if (limit != null && offset != null) {
-            sql.append(" LIMIT ? OFFSET ?");
+            sql.append(" LIMIT ?");
+            params.add(limit);
+            if (offset > 0) {
+                sql.append(" OFFSET ?");
+                params.add(offset);
+            }
         }
+        return new Select(sql.toString(), params);
+    }
+
+    /**
+     * Streams films from the database to a visitor, one row at a time, without building a list.
+     * The query uses a forward-only streaming result set (see db.streamFetchSize), so memory use is
+     * constant however many rows are read. The connection stays checked out until the visitor has seen every row.
+     * Results are not cached.
+     * @param limit The maximum number of films to read (optional).
+     * @param offset The offset from where to start reading films (optional).
+     * @param visitor Receives each film in turn.
+     * @throws SQLException If a database access error occurs.
+     * @throws IOException If the visitor fails.
+     */
+    public void streamFilms(Integer limit, Integer offset, FilmVisitor visitor) throws SQLException, IOException {
+        streamFilms(limit, offset, FilmField.ALL, visitor);
+    }
 
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
-            if (limit != null && offset != null) {
-                pstmt.setInt(1, limit);
-                pstmt.setInt(2, offset);
+    /**
+     * Streams the given fields of films from the database to a visitor, one row at a time, as streamFilms does.
+     * @param limit The maximum number of films to read (optional).
+     * @param offset The offset from where to start reading films (optional).
+     * @param fields The fields to read; the ID is always read.
+     * @param visitor Receives each film in turn.
+     * @throws SQLException If a database access error occurs.
+     * @throws IOException If the visitor fails.
+     */
+    public void streamFilms(Integer limit, Integer offset, Set<FilmField> fields, FilmVisitor visitor)
+            throws SQLException, IOException {
+        streamFilms(FilmQuery.ALL, limit, offset, fields, visitor);
+    }
+
+    /**
+     * Streams the films a query selects, in its order, as streamFilms does.
+     * @param query The filters and order.
+     * @param limit The maximum number of films to read (optional).
+     * @param offset The offset from where to start reading films (optional).
+     * @param fields The fields to read; the ID is always read.
+     * @param visitor Receives each film in turn.
+     * @throws SQLException If a database access error occurs.
+     * @throws IOException If the visitor fails.
+     */
+    public void streamFilms(FilmQuery query, Integer limit, Integer offset, Set<FilmField> fields, FilmVisitor visitor)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            streamAllFilms(STREAM_FILMS, query, fields, limit, offset, false, visitor);
+        } catch (SQLException | IOException | RuntimeException e) {
+            STREAM_FILMS.errors.increment();
+            throw e;
+        } finally {
+            STREAM_FILMS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Streams the given fields of every film, in ID order, from one consistent snapshot of the table, for a full
+     * export. Rows are streamed as streamFilms does, so memory use stays constant whatever the table size, and the
+     * query runs in a read-only REPEATABLE READ transaction, so an export that takes minutes reflects a single
+     * moment: writes committed meanwhile are either wholly in it or not at all. On MySQL the snapshot holds back
+     * undo purging for as long as the export runs, one more reason it prefers a replica, as other reads do.
+     * With shards, each shard's rows come from a snapshot of its own, taken as the export starts: a batch write
+     * that spans shards and commits meanwhile may be in the export on some shards and not on others.
+     * @param fields The fields to read; the ID is always read.
+     * @param visitor Receives each film in turn.
+     * @throws SQLException If a database access error occurs.
+     * @throws IOException If the visitor fails.
+     */
+    public void exportFilms(Set<FilmField> fields, FilmVisitor visitor) throws SQLException, IOException {
+        long start = System.nanoTime();
+        try {
+            streamAllFilms(EXPORT_FILMS, FilmQuery.ALL, fields, null, null, true, visitor);
+        } catch (SQLException | IOException | RuntimeException e) {
+            EXPORT_FILMS.errors.increment();
+            throw e;
+        } finally {
+            EXPORT_FILMS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Runs a streaming query on a replica or the primary. A replica that cannot be reached is left for the primary,
+     * as read() does, but only before the first film has gone to the visitor. With shards, see streamMerged.
+     * @param limit The maximum number of films to read (optional).
+     * @param offset The number of films to skip (optional).
+     * @param snapshot true to run the query in a read-only REPEATABLE READ transaction.
+     */
+    private void streamAllFilms(DaoMetrics metrics, FilmQuery query, Set<FilmField> fields, Integer limit,
+                                Integer offset, boolean snapshot, FilmVisitor visitor)
+            throws SQLException, IOException {
+        if (shards.isSharded()) {
+            streamMerged(metrics, query, fields, limit, offset, snapshot, visitor);
+            return;
+        }
+        Select select = select(query, fields, limit, offset);
+        ReplicaRouter.Replica replica = router.chooseReplica();
+        if (replica != null) {
+            int[] visited = {0};
+            try (Connection conn = getConnection(metrics, replica.getPool())) {
+                streamAllFilms(conn, metrics, select, fields, snapshot, film -> {
+                    visited[0]++;
+                    visitor.visit(film);
+                });
+                replica.succeeded();
+                return;
+            } catch (SQLException e) {
+                if (!ReplicaRouter.isConnectionFailure(e)) {
+                    throw e;
+                }
+                router.failed(replica);
+                if (visited[0] > 0) {
+                    throw e; // Films already written cannot be taken back
+                }
+            }
+        }
+        FilmShards.Shard primary = shards.first();
+        boolean probe = primary.breaker.acquire(); // As Shard.call does, but a stream may also throw IOException
+        Throwable failure = null;
+        try (Connection conn = getConnection(metrics, primary.pool)) {
+            streamAllFilms(conn, metrics, select, fields, snapshot, visitor);
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            primary.breaker.record(probe, failure, 0);
+        }
+    }
+
+    /**
+     * Streams a listing from every shard at once, merged in the query's order on the calling thread. Each shard
+     * streams its first offset + limit rows, as loadFilms reads them, and holds one connection until the visitor has
+     * seen every film; only one row per shard is held in memory. The sort key is read for the merge even when not
+     * asked for, and cleared again before the visitor sees the film.
+     */
+    private void streamMerged(DaoMetrics metrics, FilmQuery query, Set<FilmField> fields, Integer limit,
+                              Integer offset, boolean snapshot, FilmVisitor visitor) throws SQLException, IOException {
+        boolean paged = limit != null && offset != null;
+        Set<FilmField> read = withSortKey(query, fields);
+        boolean titleKey = query.getSort() == FilmQuery.Sort.TITLE;
+        Select select = select(query, read, paged ? (int) Math.min((long) offset + limit, Integer.MAX_VALUE) : null,
+                paged ? 0 : null, titleKey);
+        List<ShardCursor> cursors = new ArrayList<>();
+        try {
+            for (FilmShards.Shard shard : shards.getShards()) {
+                ShardCursor cursor = new ShardCursor(shard);
+                cursors.add(cursor);
+                cursor.open(metrics, select, read, titleKey, snapshot);
+            }
+            FilmShards.Merge merge = new FilmShards.Merge(query, cursors);
+            long start = System.nanoTime();
+            int skip = paged ? offset : 0;
+            int left = paged ? limit : Integer.MAX_VALUE;
+            Film film;
+            while (left > 0 && (film = merge.next()) != null) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    if (read != fields) {
+                        project(film, fields);
+                    }
+                    visitor.visit(film);
+                    left--;
+                }
+            }
+            metrics.map.recordSince(start);
+            for (ShardCursor cursor : cursors) {
+                cursor.finish(snapshot);
+            }
+        } finally {
+            for (ShardCursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * One shard's part of a merged stream: its connection, statement and rows. Tells the shard's circuit breaker
+     * how its part went when closed, so a failure on one shard counts against that shard alone.
+     */
+    private final class ShardCursor implements FilmShards.Rows {
+        private final FilmShards.Shard shard;
+        private boolean acquired;
+        private boolean probe;
+        private Connection conn;
+        private PreparedStatement pstmt;
+        private ResultSet rs;
+        private Set<FilmField> fields;
+        private boolean titleKey;
+        private byte[] key;
+        private SQLException failure;
+        private boolean finished;
+
+        ShardCursor(FilmShards.Shard shard) {
+            this.shard = shard;
+        }
+
+        /**
+         * Runs the query on the shard, as streamAllFilms does on a single database.
+         */
+        void open(DaoMetrics metrics, Select select, Set<FilmField> fields, boolean titleKey, boolean snapshot)
+                throws SQLException {
+            probe = shard.breaker.acquire();
+            acquired = true;
+            this.fields = fields;
+            this.titleKey = titleKey;
+            try {
+                conn = getConnection(metrics, shard.pool);
+                if (snapshot) {
+                    conn.setReadOnly(true);
+                    conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                    conn.setAutoCommit(false);
+                }
+                pstmt = conn.prepareStatement(select.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                pstmt.setFetchSize(AppConfig.getInt("db.streamFetchSize", Integer.MIN_VALUE));
+                select.bind(pstmt);
+                long start = System.nanoTime();
+                rs = pstmt.executeQuery();
+                metrics.execute.recordSince(start);
+            } catch (SQLException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public Film next() throws SQLException {
+            try {
+                if (!rs.next()) {
+                    return null;
+                }
+                key = titleKey ? rs.getBytes("title_key") : null;
+                return extractFilmFromResultSet(rs, fields);
+            } catch (SQLException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        /**
+         * Ends the shard's snapshot, if any, once every film has been read.
+         */
+        void finish(boolean snapshot) throws SQLException {
+            if (snapshot) {
+                try {
+                    conn.commit(); // Nothing was written
+                } catch (SQLException e) {
+                    failure = e;
+                    throw e;
+                }
             }
+            finished = true;
+        }
+
+        /**
+         * Releases the statement and the connection, which the pool resets, and reports to the breaker. A part given
+         * up because the visitor or another shard failed counts neither way.
+         */
+        void close() {
+            try {
+                if (pstmt != null) {
+                    pstmt.close(); // Closes the result set too
+                }
+            } catch (SQLException e) {
+                // The part has been read or abandoned; nothing is lost.
+            }
+            try {
+                if (conn != null) {
+                    conn.close();
+                }
+            } catch (SQLException e) {
+                // As above; the pool discards a connection it cannot reset.
+            } finally {
+                if (acquired && (failure != null || finished)) {
+                    shard.breaker.record(probe, failure, 0);
+                } else if (acquired) {
+                    shard.breaker.release(probe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the streaming query on a connection. Its map phase includes the time the visitor takes to write each film.
+     * The pool restores the connection's transaction settings when it is returned.
+     */
+    private void streamAllFilms(Connection conn, DaoMetrics metrics, Select select, Set<FilmField> fields,
+                                boolean snapshot, FilmVisitor visitor) throws SQLException, IOException {
+        if (snapshot) {
+            conn.setReadOnly(true); // Lets InnoDB skip assigning a transaction ID; must be set between transactions
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            conn.setAutoCommit(false);
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(select.sql,
+                     ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // MySQL Connector/J only streams rows instead of buffering the whole result when the fetch size is Integer.MIN_VALUE.
+            pstmt.setFetchSize(AppConfig.getInt("db.streamFetchSize", Integer.MIN_VALUE));
+            select.bind(pstmt);
+            long start = System.nanoTime();
             try (ResultSet rs = pstmt.executeQuery()) {
+                start = metrics.execute.recordSince(start);
                 while (rs.next()) {
-                    allFilms.add(extractFilmFromResultSet(rs));
+                    visitor.visit(extractFilmFromResultSet(rs, fields));
                 }
+                metrics.map.recordSince(start);
             }
         }
-        return allFilms;
+        if (snapshot) {
+            conn.commit(); // Ends the snapshot; nothing was written
+        }
+    }
+
+    /**
+     * Retrieves the page of films that follows a given ID, in ID order (keyset pagination).
+     * Unlike LIMIT/OFFSET this seeks directly on the primary key, so deep pages cost the same as the first.
+     * @param afterId The ID of the last film on the previous page, or 0 to start from the beginning.
+     * @param limit The maximum number of films to retrieve.
+     * @return An ArrayList of Film objects ordered by ID.
+     * @throws SQLException If a database access error occurs.
+     */
+    public ArrayList<Film> getFilmsAfter(int afterId, int limit) throws SQLException {
+        return getFilmsAfter(afterId, limit, FilmField.ALL);
+    }
+
+    /**
+     * Retrieves the given fields of the page of films that follows a given ID, in ID order (keyset pagination).
+     * @param afterId The ID of the last film on the previous page, or 0 to start from the beginning.
+     * @param limit The maximum number of films to retrieve.
+     * @param fields The fields to read; the ID is always read.
+     * @return An ArrayList of Film objects ordered by ID, with only the requested fields set.
+     * @throws SQLException If a database access error occurs.
+     */
+    public ArrayList<Film> getFilmsAfter(int afterId, int limit, Set<FilmField> fields) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            FilmCache cache = readCache();
+            if (cache != null) {
+                return cache.getPage(FilmCache.PageKey.after(afterId, limit, fields), key -> loadFilmsAfter(afterId, limit, fields));
+            }
+            return loadFilmsAfter(afterId, limit, fields);
+        } catch (SQLException | RuntimeException e) {
+            GET_FILMS_AFTER.errors.increment();
+            throw e;
+        } finally {
+            GET_FILMS_AFTER.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads a keyset page from the database, bypassing the cache.
+     */
+    private ArrayList<Film> loadFilmsAfter(int afterId, int limit, Set<FilmField> fields) throws SQLException {
+        if (shards.isSharded()) {
+            return loadFilms(GET_FILMS_AFTER, FilmQuery.ALL.after(afterId, null), fields, limit, 0);
+        }
+        String sql = "SELECT " + columns(fields) + " FROM films WHERE id > ? ORDER BY id LIMIT ?;";
+        return read(shards.first(), GET_FILMS_AFTER, conn -> {
+            ArrayList<Film> films = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setInt(1, afterId);
+                pstmt.setInt(2, limit);
+                long start = System.nanoTime();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    start = GET_FILMS_AFTER.execute.recordSince(start);
+                    while (rs.next()) {
+                        films.add(extractFilmFromResultSet(rs, fields));
+                    }
+                    GET_FILMS_AFTER.map.recordSince(start);
+                }
+            }
+            return films;
+        });
+    }
+
+    /**
+     * Retrieves many films by ID at once, from the cache where possible and otherwise with
+     * 'WHERE id IN (...)' queries of at most db.inChunkSize IDs each.
+     * @param ids The IDs of the films to retrieve.
+     * @return The films found, keyed by ID; IDs with no film are absent.
+     * @throws SQLException If a database access error occurs.
+     */
+    public Map<Integer, Film> getFilmsByIds(Collection<Integer> ids) throws SQLException {
+        return getFilmsByIds(ids, FilmField.ALL);
+    }
+
+    /**
+     * Retrieves the given fields of many films by ID at once.
+     * Films are cached whole, so with the cache on whole films are returned and the caller writes only the fields it wants.
+     * @param ids The IDs of the films to retrieve.
+     * @param fields The fields to read; the ID is always read.
+     * @return The films found, keyed by ID, with at least the requested fields set; IDs with no film are absent.
+     * @throws SQLException If a database access error occurs.
+     */
+    public Map<Integer, Film> getFilmsByIds(Collection<Integer> ids, Set<FilmField> fields) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            FilmCache cache = readCache();
+            return cache != null ? cache.getFilms(ids, this::loadFilmsByIds)
+                    : loadFilmsByIds(GET_FILMS_BY_IDS, ids, fields);
+        } catch (SQLException | RuntimeException e) {
+            GET_FILMS_BY_IDS.errors.increment();
+            throw e;
+        } finally {
+            GET_FILMS_BY_IDS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Reads films by ID from the database in chunks, bypassing the cache.
+     */
+    private Map<Integer, Film> loadFilmsByIds(Collection<Integer> ids) throws SQLException {
+        return loadFilmsByIds(GET_FILMS_BY_IDS, ids, FilmField.ALL);
+    }
+
+    /**
+     * Reads the given fields of films by ID from the database in chunks, bypassing the cache.
+     * With shards, each shard is asked for the IDs it owns, in parallel.
+     * @param metrics The calling method's timers.
+     */
+    private Map<Integer, Film> loadFilmsByIds(DaoMetrics metrics, Collection<Integer> ids, Set<FilmField> fields)
+            throws SQLException {
+        if (!shards.isSharded()) {
+            return loadFilmsByIds(metrics, shards.first(), new ArrayList<>(ids), fields);
+        }
+        Map<FilmShards.Shard, List<Integer>> owned = new LinkedHashMap<>();
+        for (Integer id : ids) {
+            owned.computeIfAbsent(shards.owner(id), shard -> new ArrayList<>()).add(id);
+        }
+        Map<Integer, Film> films = new HashMap<>();
+        for (Map<Integer, Film> part : shards.forEach(owned.keySet(),
+                shard -> loadFilmsByIds(metrics, shard, owned.get(shard), fields)).values()) {
+            films.putAll(part);
+        }
+        return films;
+    }
+
+    /**
+     * Reads the given fields of films by ID from one shard in chunks.
+     */
+    private Map<Integer, Film> loadFilmsByIds(DaoMetrics metrics, FilmShards.Shard shard, List<Integer> pending,
+                                              Set<FilmField> fields) throws SQLException {
+        int chunkSize = AppConfig.getInt("db.inChunkSize", 500);
+        return read(shard, metrics, conn -> {
+            Map<Integer, Film> films = new HashMap<>();
+            for (int from = 0; from < pending.size(); from += chunkSize) {
+                List<Integer> chunk = pending.subList(from, Math.min(from + chunkSize, pending.size()));
+                String sql = "SELECT " + columns(fields) + " FROM films WHERE id IN (" + String.join(",", Collections.nCopies(chunk.size(), "?")) + ");";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    for (int i = 0; i < chunk.size(); i++) {
+                        pstmt.setInt(i + 1, chunk.get(i));
+                    }
+                    long start = System.nanoTime();
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        start = metrics.execute.recordSince(start); // Once per chunk
+                        while (rs.next()) {
+                            Film film = extractFilmFromResultSet(rs, fields);
+                            films.put(film.getId(), film);
+                        }
+                        metrics.map.recordSince(start);
+                    }
+                }
+            }
+            return films;
+        });
     }
 
     /**
@@ -128,52 +1163,373 @@ public class FilmDao {
     }
     
     /**
-     * Inserts a new film into the database.
+     * Inserts a new film into the database, setting its ID. With shards, the ID is taken from this node's block of
+     * global IDs (see FilmShards) and the film goes to the shard that owns it; otherwise the database generates it.
      * @param film The Film object to insert.
      * @throws SQLException If a database access error occurs or no ID is obtained.
      */
     public void insertFilm(Film film) throws SQLException {
-        String sql = "INSERT INTO films (title, year, director, stars, review) VALUES (?, ?, ?, ?, ?);";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
-            pstmt.setString(1, film.getTitle());
-            pstmt.setInt(2, film.getYear());
-            pstmt.setString(3, film.getDirector());
-            pstmt.setString(4, film.getStars());
-            pstmt.setString(5, film.getReview());
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                throw new SQLException("Creating film failed, no rows affected.");
-            }
-            try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
-                if (generatedKeys.next()) {
-                    film.setId(generatedKeys.getInt(1));
+        insertFilm(film, false);
+    }
+
+    /**
+     * Inserts a film, with shards under the ID it already has if idAssigned, so that a retry of a film whose first
+     * insert may have been committed fails with a duplicate key instead of storing the film twice.
+     */
+    private void insertFilm(Film film, boolean idAssigned) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            router.written(); // No replica reads start while the write is in flight
+            if (shards.isSharded()) {
+                if (!idAssigned) {
+                    shards.assignIds(Collections.singletonList(film));
+                }
+                shards.owner(film.getId()).call(INSERT_FILM, conn -> {
+                    try (PreparedStatement pstmt = conn.prepareStatement(INSERT_WITH_ID)) {
+                        bindInsert(pstmt, film, true);
+                        long executeStart = System.nanoTime();
+                        pstmt.executeUpdate();
+                        INSERT_FILM.execute.recordSince(executeStart);
+                    }
+                    return null;
+                });
+                for (FilmChangeListener listener : listeners) {
+                    listener.filmInserted(film);
+                }
+                return;
+            }
+            String sql = "INSERT INTO films (title, year, director, stars, review) VALUES (?, ?, ?, ?, ?);";
+            shards.first().call(INSERT_FILM, conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    bindInsert(pstmt, film, false);
+                    long executeStart = System.nanoTime();
+                    int affectedRows = pstmt.executeUpdate();
+                    INSERT_FILM.execute.recordSince(executeStart);
+                    if (affectedRows == 0) {
+                        throw new SQLException("Creating film failed, no rows affected.");
+                    }
+                    try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                        if (generatedKeys.next()) {
+                            film.setId(generatedKeys.getInt(1));
+                        } else {
+                            throw new SQLException("Creating film failed, no ID obtained.");
+                        }
+                    }
+                }
+                return null;
+            });
+            for (FilmChangeListener listener : listeners) {
+                listener.filmInserted(film);
+            }
+        } catch (SQLException | RuntimeException e) {
+            INSERT_FILM.errors.increment();
+            throw e;
+        } finally {
+            INSERT_FILM.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Inserts several films in one transaction using JDBC batching, setting each film's generated ID.
+     * If the batch is rejected (e.g. one row violates a constraint), it is rolled back and the films are
+     * inserted one at a time instead, so one bad film does not cost its neighbours.
+     * With shards, the films get global IDs first and each shard's films are inserted in a transaction of their own,
+     * all shards at once. A shard whose batch is rejected leaves its films to be inserted one at a time under the
+     * same IDs, after the films committed on the other shards have been announced to the listeners; a shard that
+     * fails otherwise fails the call once they have been.
+     * @param films The films to insert.
+     * @return One entry per film, in order: null if the film was inserted, otherwise the reason it was not.
+     * @throws SQLException If a database access error occurs other than a rejected row.
+     */
+    public List<String> insertFilms(List<Film> films) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            router.written(); // No replica reads start while the write is in flight
+            boolean sharded = shards.isSharded();
+            if (sharded) {
+                shards.assignIds(films); // Each film's ID decides its shard
+            }
+            Map<FilmShards.Shard, List<Integer>> groups = shards.byOwner(films);
+            Map<FilmShards.Shard, SQLException> failures = new ConcurrentHashMap<>();
+            Map<FilmShards.Shard, Boolean> batched = shards.forEach(groups.keySet(), shard -> {
+                List<Film> group = pick(films, groups.get(shard));
+                try {
+                    return shard.call(INSERT_FILMS, conn -> insertBatch(conn, group, sharded));
+                } catch (SQLException e) {
+                    if (!sharded) {
+                        throw e;
+                    }
+                    if (!isRowError(e)) {
+                        failures.put(shard, e); // Perhaps committed after all; thrown once the others are announced
+                    }
+                    return false;
+                }
+            });
+
+            List<String> errors = new ArrayList<>(Collections.nCopies(films.size(), null));
+            for (Map.Entry<FilmShards.Shard, List<Integer>> group : groups.entrySet()) {
+                if (batched.get(group.getKey())) {
+                    for (int i : group.getValue()) {
+                        for (FilmChangeListener listener : listeners) {
+                            listener.filmInserted(films.get(i));
+                        }
+                    }
+                }
+            }
+            SQLException failure = null;
+            for (FilmShards.Shard shard : groups.keySet()) {
+                SQLException e = failures.get(shard);
+                if (e == null) {
+                    continue;
+                } else if (failure == null) {
+                    failure = e;
                 } else {
-                    throw new SQLException("Creating film failed, no ID obtained.");
+                    failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            for (Map.Entry<FilmShards.Shard, List<Integer>> group : groups.entrySet()) {
+                if (batched.get(group.getKey())) {
+                    continue;
+                }
+                for (int i : group.getValue()) {
+                    try {
+                        insertFilm(films.get(i), true); // The rejected batch was rolled back, so with shards each keeps its ID
+                    } catch (SQLException e) {
+                        if (!isRowError(e)) {
+                            throw e;
+                        }
+                        errors.set(i, e.getMessage());
+                    }
                 }
             }
+            return errors;
+        } catch (SQLException | RuntimeException e) {
+            INSERT_FILMS.errors.increment();
+            throw e;
+        } finally {
+            INSERT_FILMS.total.recordSince(start);
+        }
+    }
+
+    // Inserts a film under the ID it was given, as films are with shards.
+    private static final String INSERT_WITH_ID =
+            "INSERT INTO films (title, year, director, stars, review, id) VALUES (?, ?, ?, ?, ?, ?);";
+
+    /**
+     * Sets an insert's parameters from a film.
+     * @param withId true to set the ID too, last, for INSERT_WITH_ID.
+     */
+    private static void bindInsert(PreparedStatement pstmt, Film film, boolean withId) throws SQLException {
+        pstmt.setString(1, film.getTitle());
+        pstmt.setInt(2, film.getYear());
+        pstmt.setString(3, film.getDirector());
+        pstmt.setString(4, film.getStars());
+        pstmt.setString(5, film.getReview());
+        if (withId) {
+            pstmt.setInt(6, film.getId());
         }
     }
 
+    /**
+     * Inserts films in one JDBC batch and transaction, setting their generated IDs unless they already have theirs.
+     * @return true if the batch was committed; false if it was rejected and rolled back.
+     */
+    private static boolean insertBatch(Connection conn, List<Film> films, boolean withIds) throws SQLException {
+        conn.setAutoCommit(false);
+        String sql = withIds ? INSERT_WITH_ID
+                : "INSERT INTO films (title, year, director, stars, review) VALUES (?, ?, ?, ?, ?);";
+        try (PreparedStatement pstmt = withIds ? conn.prepareStatement(sql)
+                : conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            for (Film film : films) {
+                bindInsert(pstmt, film, withIds);
+                pstmt.addBatch();
+            }
+            long executeStart = System.nanoTime();
+            pstmt.executeBatch();
+            if (!withIds) {
+                try (ResultSet generatedKeys = pstmt.getGeneratedKeys()) {
+                    for (Film film : films) {
+                        if (!generatedKeys.next()) {
+                            throw new SQLException("Creating films failed, fewer IDs obtained than films inserted.");
+                        }
+                        film.setId(generatedKeys.getInt(1));
+                    }
+                }
+            }
+            conn.commit();
+            INSERT_FILMS.execute.recordSince(executeStart); // The batch, its keys and the commit
+            return true;
+        } catch (BatchUpdateException e) {
+            conn.rollback(); // Falls through to one-by-one inserts.
+            return false;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The films at the given positions, in that order.
+     */
+    private static List<Film> pick(List<Film> films, List<Integer> positions) {
+        if (positions.size() == films.size()) {
+            return films; // Everything, in order, as byOwner gives it without shards
+        }
+        List<Film> picked = new ArrayList<>(positions.size());
+        for (int i : positions) {
+            picked.add(films.get(i));
+        }
+        return picked;
+    }
+
+    /**
+     * Tells whether an exception was caused by the data in one row (SQLState class 22: data exception,
+     * or 23: integrity constraint violation) rather than by the connection or the statement.
+     */
+    private static boolean isRowError(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23"));
+    }
+
     /**
      * Updates an existing film in the database.
      * @param film The Film object to update.
      * @throws SQLException If a database access error occurs or the update fails.
      */
     public void updateFilm(Film film) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            router.written(); // No replica reads start while the write is in flight
+            String sql = "UPDATE films SET title = ?, year = ?, director = ?, stars = ?, review = ? WHERE id = ?;";
+            shards.owner(film.getId()).call(UPDATE_FILM, conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, film.getTitle());
+                    pstmt.setInt(2, film.getYear());
+                    pstmt.setString(3, film.getDirector());
+                    pstmt.setString(4, film.getStars());
+                    pstmt.setString(5, film.getReview());
+                    pstmt.setInt(6, film.getId());
+                    long executeStart = System.nanoTime();
+                    int affectedRows = pstmt.executeUpdate();
+                    UPDATE_FILM.execute.recordSince(executeStart);
+                    if (affectedRows == 0) {
+                        throw new SQLException("Updating film failed, no rows affected.", NO_DATA);
+                    }
+                }
+                return null;
+            });
+            for (FilmChangeListener listener : listeners) {
+                listener.filmUpdated(film);
+            }
+        } catch (SQLException | RuntimeException e) {
+            UPDATE_FILM.errors.increment();
+            throw e;
+        } finally {
+            UPDATE_FILM.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Updates several films in one transaction using JDBC batching. Films whose row no longer exists are skipped.
+     * If the batch is rejected, it is rolled back and the films are updated one at a time instead, as insertFilms does.
+     * With shards, each shard's films are updated in a transaction of their own, all shards at once, as insertFilms
+     * inserts them.
+     * @param films The films to update, each with its ID.
+     * @return One entry per film, in order: null if the film was updated, otherwise the reason it was not.
+     * @throws SQLException If a database access error occurs other than a rejected or missing row.
+     */
+    public List<String> updateFilms(List<Film> films) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            router.written(); // No replica reads start while the write is in flight
+            boolean sharded = shards.isSharded();
+            Map<FilmShards.Shard, List<Integer>> groups = shards.byOwner(films);
+            Map<FilmShards.Shard, int[]> counts = shards.forEach(groups.keySet(), shard -> {
+                List<Film> group = pick(films, groups.get(shard));
+                try {
+                    return shard.call(UPDATE_FILMS, conn -> updateBatch(conn, group));
+                } catch (SQLException e) {
+                    if (!sharded) {
+                        throw e;
+                    }
+                    return null; // Retried film by film below, which reports the failure if it persists
+                }
+            });
+
+            List<String> errors = new ArrayList<>(Collections.nCopies(films.size(), null));
+            for (Map.Entry<FilmShards.Shard, List<Integer>> group : groups.entrySet()) {
+                int[] updated = counts.get(group.getKey());
+                if (updated == null) {
+                    continue;
+                }
+                List<Integer> positions = group.getValue();
+                for (int j = 0; j < positions.size(); j++) {
+                    int i = positions.get(j);
+                    if (updated[j] == 0) {
+                        errors.set(i, "Updating film failed, no rows affected.");
+                        continue;
+                    }
+                    // Statement.SUCCESS_NO_INFO counts as updated
+                    for (FilmChangeListener listener : listeners) {
+                        listener.filmUpdated(films.get(i));
+                    }
+                }
+            }
+            for (Map.Entry<FilmShards.Shard, List<Integer>> group : groups.entrySet()) {
+                if (counts.get(group.getKey()) != null) {
+                    continue;
+                }
+                for (int i : group.getValue()) {
+                    try {
+                        updateFilm(films.get(i));
+                    } catch (SQLException e) {
+                        if (!isRowError(e) && !NO_DATA.equals(e.getSQLState())) {
+                            throw e;
+                        }
+                        errors.set(i, e.getMessage());
+                    }
+                }
+            }
+            return errors;
+        } catch (SQLException | RuntimeException e) {
+            UPDATE_FILMS.errors.increment();
+            throw e;
+        } finally {
+            UPDATE_FILMS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Updates films in one JDBC batch and transaction.
+     * @return The update count of each film, or null if the batch was rejected and rolled back.
+     */
+    private static int[] updateBatch(Connection conn, List<Film> films) throws SQLException {
+        conn.setAutoCommit(false);
         String sql = "UPDATE films SET title = ?, year = ?, director = ?, stars = ?, review = ? WHERE id = ?;";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, film.getTitle());
-            pstmt.setInt(2, film.getYear());
-            pstmt.setString(3, film.getDirector());
-            pstmt.setString(4, film.getStars());
-            pstmt.setString(5, film.getReview());
-            pstmt.setInt(6, film.getId());
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                throw new SQLException("Updating film failed, no rows affected.");
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Film film : films) {
+                pstmt.setString(1, film.getTitle());
+                pstmt.setInt(2, film.getYear());
+                pstmt.setString(3, film.getDirector());
+                pstmt.setString(4, film.getStars());
+                pstmt.setString(5, film.getReview());
+                pstmt.setInt(6, film.getId());
+                pstmt.addBatch();
             }
+            long executeStart = System.nanoTime();
+            int[] updated = pstmt.executeBatch();
+            conn.commit();
+            UPDATE_FILMS.execute.recordSince(executeStart); // The batch and the commit
+            return updated;
+        } catch (BatchUpdateException e) {
+            conn.rollback(); // Falls through to one-by-one updates.
+            return null;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
         }
     }
 
@@ -183,40 +1539,115 @@ public class FilmDao {
      * @throws SQLException If a database access error occurs or the deletion fails.
      */
     public void deleteFilm(int id) throws SQLException {
-        String sql = "DELETE FROM films WHERE id = ?;";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                throw new SQLException("Deleting film failed, no rows affected.");
+        long start = System.nanoTime();
+        try {
+            router.written(); // No replica reads start while the write is in flight
+            String sql = "DELETE FROM films WHERE id = ?;";
+            shards.owner(id).call(DELETE_FILM, conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setInt(1, id);
+                    long executeStart = System.nanoTime();
+                    int affectedRows = pstmt.executeUpdate();
+                    DELETE_FILM.execute.recordSince(executeStart);
+                    if (affectedRows == 0) {
+                        throw new SQLException("Deleting film failed, no rows affected.");
+                    }
+                }
+                return null;
+            });
+            for (FilmChangeListener listener : listeners) {
+                listener.filmDeleted(id);
             }
+        } catch (SQLException | RuntimeException e) {
+            DELETE_FILM.errors.increment();
+            throw e;
+        } finally {
+            DELETE_FILM.total.recordSince(start);
         }
     }
 
     /**
-     * Searches for films based on a search string that matches title, director, or stars.
+     * Full-text search over title, director and stars, answered from the in-memory index, with the matches then
+     * read whole by ID (from the cache where possible). Each word of the query must match a word in the film, in full
+     * or as a prefix; results are ranked by relevance.
+     * Until the index has finished its first build, falls back to the substring match of searchFilm.
+     * @param query The words to search for.
+     * @param limit The maximum number of films to return.
+     * @return An ArrayList of matching Film objects, best matches first.
+     * @throws SQLException If reading the matches, or the fallback query, fails.
+     */
+    public ArrayList<Film> searchFilms(String query, int limit) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (searchIndex.isReady()) {
+                ArrayList<Integer> ids = searchIndex.search(query, limit);
+                Map<Integer, Film> found = getFilmsByIds(ids);
+                ArrayList<Film> results = new ArrayList<>(ids.size());
+                for (Integer id : ids) {
+                    Film film = found.get(id);
+                    if (film != null) {
+                        results.add(film); // Unless deleted in between
+                    }
+                }
+                return results;
+            }
+            ArrayList<Film> results = searchFilm(query);
+            return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+        } catch (SQLException | RuntimeException e) {
+            SEARCH_FILMS.errors.increment();
+            throw e;
+        } finally {
+            SEARCH_FILMS.total.recordSince(start);
+        }
+    }
+
+    /**
+     * Searches for films based on a search string that matches title, director, or stars, in ID order.
+     * With shards, every shard is searched in parallel and the matches merged.
      * @param searchStr The string to search for.
      * @return An ArrayList of Film objects that match the search criteria.
      * @throws SQLException If a database access error occurs.
      */
     public ArrayList<Film> searchFilm(String searchStr) throws SQLException {
-        ArrayList<Film> searchResults = new ArrayList<>();
-        String sql = "SELECT * FROM films WHERE LOWER(title) LIKE LOWER(?) OR LOWER(director) LIKE LOWER(?) OR LOWER(stars) LIKE LOWER(?);";
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+        long start = System.nanoTime();
+        try {
+            String sql = "SELECT * FROM films WHERE LOWER(title) LIKE LOWER(?) OR LOWER(director) LIKE LOWER(?) OR LOWER(stars) LIKE LOWER(?) ORDER BY id;";
+            Query<ArrayList<Film>> search = conn -> {
+                ArrayList<Film> searchResults = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
-            String searchWithWildcards = "%" + searchStr + "%";
-            pstmt.setString(1, searchWithWildcards);
-            pstmt.setString(2, searchWithWildcards);
-            pstmt.setString(3, searchWithWildcards);
+                    String searchWithWildcards = "%" + searchStr + "%";
+                    pstmt.setString(1, searchWithWildcards);
+                    pstmt.setString(2, searchWithWildcards);
+                    pstmt.setString(3, searchWithWildcards);
 
-            try (ResultSet rs = pstmt.executeQuery()) {
-                while (rs.next()) {
-                    searchResults.add(extractFilmFromResultSet(rs));
+                    long phaseStart = System.nanoTime();
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        phaseStart = SEARCH_FILM.execute.recordSince(phaseStart);
+                        while (rs.next()) {
+                            searchResults.add(extractFilmFromResultSet(rs));
+                        }
+                        SEARCH_FILM.map.recordSince(phaseStart);
+                    }
                 }
+                return searchResults;
+            };
+            if (!shards.isSharded()) {
+                return read(shards.first(), SEARCH_FILM, search);
+            }
+            Map<FilmShards.Shard, ArrayList<Film>> parts = shards.forEach(shards.getShards(),
+                    shard -> read(shard, SEARCH_FILM, search));
+            ArrayList<Film> searchResults = new ArrayList<>();
+            FilmShards.Merge merge = FilmShards.Merge.ofLists(FilmQuery.ALL, parts.values());
+            for (Film film = merge.next(); film != null; film = merge.next()) {
+                searchResults.add(film);
             }
+            return searchResults;
+        } catch (SQLException | RuntimeException e) {
+            SEARCH_FILM.errors.increment();
+            throw e;
+        } finally {
+            SEARCH_FILM.total.recordSince(start);
         }
-        return searchResults;
     }
 }
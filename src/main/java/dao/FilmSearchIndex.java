@@ -0,0 +1,553 @@
+package dao;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import models.Film;
+import models.FilmField;
+import utils.AppConfig;
+
+/**
+ * In-memory inverted index over film titles, directors and stars.
+ * Text is split into lower-cased, accent-free tokens; every query token must match a film token exactly
+ * or as a prefix (see search.minPrefixLength). Films are ranked by where their matches occur (title above director above stars),
+ * with exact token matches counting double.
+ *
+ * The index is filled from the database by rebuild() and kept current as a FilmChangeListener. It keeps only the
+ * fields it searches (FIELDS) of each film, never the review, so its size does not grow with the catalogue's text;
+ * search() returns the IDs of the matches, and FilmDao.searchFilms loads the films themselves.
+ */
+public class FilmSearchIndex implements FilmChangeListener {
+
+    /** The fields the index reads and keeps. */
+    static final Set<FilmField> FIELDS = FilmField.parse("title,director,stars");
+
+    // Field flags recorded per posting.
+    private static final int IN_TITLE = 4;
+    private static final int IN_DIRECTOR = 2;
+    private static final int IN_STARS = 1;
+    // Relevance earned by a token match in each field.
+    private static final int TITLE_WEIGHT = 3;
+    private static final int DIRECTOR_WEIGHT = 2;
+    private static final int STARS_WEIGHT = 1;
+    // Shorter query tokens only match whole tokens; a one-letter prefix would match most of the catalogue.
+    private static final int MIN_PREFIX_LENGTH = AppConfig.getInt("search.minPrefixLength", 2);
+    // Rough cost of re-tokenizing one film, in posting-list steps; decides when to verify candidates directly.
+    private static final int VERIFY_COST = 200;
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Postings postings = new Postings(); // Guarded by lock.
+    private List<Runnable> changesDuringRebuild; // Non-null while a rebuild is running; guarded by lock.
+    private volatile boolean ready;
+
+    /**
+     * Replaces the index contents with every film in the database.
+     * The index keeps answering queries from its previous contents while this runs, and writes that
+     * happen during the rebuild are replayed onto the new contents before they go live.
+     * @param dao The DAO to read films from.
+     * @throws SQLException If reading the catalogue fails.
+     */
+    public void rebuild(FilmDao dao) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            changesDuringRebuild = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Postings rebuilt = new Postings();
+        boolean complete = false;
+        try {
+            dao.streamFilms(null, null, FIELDS, rebuilt::add);
+            complete = true;
+        } catch (IOException e) {
+            throw new IllegalStateException("Indexing visitor cannot fail", e);
+        } finally {
+            lock.writeLock().lock();
+            try {
+                List<Runnable> pending = changesDuringRebuild;
+                changesDuringRebuild = null;
+                if (complete) {
+                    postings = rebuilt;
+                    for (Runnable change : pending) {
+                        change.run();
+                    }
+                    ready = true;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @return True once the index has been built from the database at least once.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return The number of films in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return postings.films.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the films matching every token of a query, best matches first.
+     * @param query Free text, e.g. "nolan dark".
+     * @param limit The maximum number of films to return.
+     * @return The IDs of the matching films, ordered by relevance and then by ID.
+     */
+    public ArrayList<Integer> search(String query, int limit) {
+        Set<String> queryTokens = new LinkedHashSet<>(tokenize(query));
+        ArrayList<Integer> results = new ArrayList<>();
+        if (queryTokens.isEmpty() || limit < 1) {
+            return results;
+        }
+
+        lock.readLock().lock();
+        try {
+            // Start with the most selective token so later tokens only score the surviving candidates.
+            List<String> ordered = new ArrayList<>(queryTokens);
+            Map<String, Long> estimates = new HashMap<>();
+            for (String token : ordered) {
+                estimates.put(token, postings.estimate(token));
+            }
+            ordered.sort(Comparator.comparing(estimates::get));
+
+            IntScores scores = null;
+            for (String token : ordered) {
+                scores = postings.match(token, scores);
+                if (scores.size() == 0) {
+                    return results; // A token with no match rules every film out.
+                }
+            }
+
+            // Keep only the best 'limit' films. Each is packed as score (high bits) and inverted ID (low bits),
+            // so a larger number is a better match and equal scores favour the lower ID.
+            PriorityQueue<Long> best = new PriorityQueue<>();
+            for (int slot = 0; slot < scores.capacity(); slot++) {
+                if (!scores.isUsed(slot)) {
+                    continue;
+                }
+                long ranked = ((long) scores.valueAt(slot) << 32) | (Integer.MAX_VALUE - scores.keyAt(slot));
+                if (best.size() < limit) {
+                    best.add(ranked);
+                } else if (ranked > best.peek()) {
+                    best.poll();
+                    best.add(ranked);
+                }
+            }
+            while (!best.isEmpty()) {
+                results.add(Integer.MAX_VALUE - (int) (best.poll() & 0xFFFFFFFFL));
+            }
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void filmInserted(Film film) {
+        Film copy = indexed(film);
+        apply(() -> postings.add(copy));
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        Film copy = indexed(film);
+        apply(() -> postings.add(copy));
+    }
+
+    /**
+     * Copies the ID and the indexed fields of a film, as rebuild() reads them.
+     */
+    private static Film indexed(Film film) {
+        Film copy = new Film();
+        copy.setId(film.getId());
+        copy.setTitle(film.getTitle());
+        copy.setDirector(film.getDirector());
+        copy.setStars(film.getStars());
+        return copy;
+    }
+
+    @Override
+    public void filmDeleted(int id) {
+        apply(() -> postings.remove(id));
+    }
+
+    /**
+     * Applies a change now, and again after the running rebuild (if any) so it is not lost.
+     */
+    private void apply(Runnable change) {
+        lock.writeLock().lock();
+        try {
+            change.run();
+            if (changesDuringRebuild != null) {
+                changesDuringRebuild.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Splits text into lower-case tokens of letters and digits, with accents removed.
+     * @param text The text to split; may be null.
+     * @return The tokens in order of appearance.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String folded = isAscii(text) ? text.toLowerCase(Locale.ROOT)
+                : DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean tokenChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            } else if (!tokenChar && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return True if the text has no characters that accent folding could change.
+     */
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects the tokens of a film with flags for the fields they occur in.
+     */
+    private static Map<String, Integer> fieldsByToken(Film film) {
+        Map<String, Integer> fields = new HashMap<>();
+        for (String token : tokenize(film.getTitle())) {
+            fields.merge(token, IN_TITLE, (a, b) -> a | b);
+        }
+        for (String token : tokenize(film.getDirector())) {
+            fields.merge(token, IN_DIRECTOR, (a, b) -> a | b);
+        }
+        for (String token : tokenize(film.getStars())) {
+            fields.merge(token, IN_STARS, (a, b) -> a | b);
+        }
+        return fields;
+    }
+
+    /**
+     * Turns a set of field flags into a score; a token in several fields earns each field's weight.
+     */
+    private static int fieldScore(int fields) {
+        int score = 0;
+        if ((fields & IN_TITLE) != 0) {
+            score += TITLE_WEIGHT;
+        }
+        if ((fields & IN_DIRECTOR) != 0) {
+            score += DIRECTOR_WEIGHT;
+        }
+        if ((fields & IN_STARS) != 0) {
+            score += STARS_WEIGHT;
+        }
+        return score;
+    }
+
+    /**
+     * The index data: token to posting list, kept sorted by token for prefix lookups, plus the indexed fields of
+     * each film, from which its postings are recomputed when it changes.
+     */
+    private static final class Postings {
+        private final TreeMap<String, PostingList> byToken = new TreeMap<>();
+        private final Map<Integer, Film> films = new HashMap<>();
+
+        /**
+         * Indexes a film, replacing any earlier version of it.
+         */
+        void add(Film film) {
+            remove(film.getId());
+            for (Map.Entry<String, Integer> e : fieldsByToken(film).entrySet()) {
+                byToken.computeIfAbsent(e.getKey(), k -> new PostingList()).add(film.getId(), fieldScore(e.getValue()));
+            }
+            films.put(film.getId(), film);
+        }
+
+        /**
+         * Removes a film and all its postings. The tokens to remove are recomputed from the stored film.
+         */
+        void remove(int id) {
+            Film old = films.remove(id);
+            if (old == null) {
+                return;
+            }
+            for (String token : fieldsByToken(old).keySet()) {
+                PostingList list = byToken.get(token);
+                list.remove(id);
+                if (list.size == 0) {
+                    byToken.remove(token);
+                }
+            }
+        }
+
+        /**
+         * @return The posting lists of every indexed token starting with the given query token.
+         */
+        SortedMap<String, PostingList> terms(String token) {
+            if (token.length() < MIN_PREFIX_LENGTH) {
+                return byToken.subMap(token, true, token, true); // Too short to be a useful prefix; match exactly.
+            }
+            return byToken.subMap(token, true, token + Character.MAX_VALUE, false);
+        }
+
+        /**
+         * Counts the postings a query token would visit; used to evaluate the most selective token first.
+         */
+        long estimate(String token) {
+            long total = 0;
+            for (PostingList list : terms(token).values()) {
+                total += list.size;
+            }
+            return total;
+        }
+
+        /**
+         * Scores the films matching one query token.
+         * @param token The query token, matched exactly or as a prefix.
+         * @param candidates Scores from the previous query tokens, or null for the first token.
+         *                   Only these films are considered, and their scores are carried forward.
+         * @return Accumulated scores of the films matching this and all previous tokens.
+         */
+        IntScores match(String token, IntScores candidates) {
+            SortedMap<String, PostingList> terms = terms(token);
+            long walkCost = estimate(token);
+            IntScores scores = new IntScores(candidates != null ? candidates.size() : (int) Math.min(walkCost, 1 << 20));
+            if (candidates != null && (long) candidates.size() * VERIFY_COST < Math.min(walkCost, (long) candidates.size() * terms.size())) {
+                // Very few candidates against a broad prefix: re-check each candidate's own text instead.
+                for (int slot = 0; slot < candidates.capacity(); slot++) {
+                    if (candidates.isUsed(slot)) {
+                        int id = candidates.keyAt(slot);
+                        int score = scoreFilm(films.get(id), token);
+                        if (score > 0) {
+                            scores.max(id, score + candidates.valueAt(slot));
+                        }
+                    }
+                }
+                return scores;
+            }
+            boolean probe = candidates != null && (long) candidates.size() * terms.size() < walkCost;
+            for (Map.Entry<String, PostingList> term : terms.entrySet()) {
+                int multiplier = term.getKey().length() == token.length() ? 2 : 1; // Exact matches count double.
+                PostingList list = term.getValue();
+                if (probe) {
+                    // Few candidates left: look each one up instead of walking a long posting list.
+                    for (int slot = 0; slot < candidates.capacity(); slot++) {
+                        if (candidates.isUsed(slot)) {
+                            int score = list.score(candidates.keyAt(slot));
+                            if (score > 0) {
+                                scores.max(candidates.keyAt(slot), score * multiplier);
+                            }
+                        }
+                    }
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    int id = list.ids[i];
+                    if (candidates == null || candidates.get(id) >= 0) {
+                        scores.max(id, list.scores[i] * multiplier);
+                    }
+                }
+            }
+            if (candidates != null) {
+                for (int slot = 0; slot < scores.capacity(); slot++) {
+                    if (scores.isUsed(slot)) {
+                        scores.max(scores.keyAt(slot), scores.valueAt(slot) + candidates.get(scores.keyAt(slot)));
+                    }
+                }
+            }
+            return scores;
+        }
+    }
+
+    /**
+     * Scores one film against one query token by tokenizing the film's fields, the same way postings are scored.
+     * @return The film's score for the token, or 0 if it does not match.
+     */
+    private static int scoreFilm(Film film, String token) {
+        int best = 0;
+        for (Map.Entry<String, Integer> e : fieldsByToken(film).entrySet()) {
+            String filmToken = e.getKey();
+            boolean exact = filmToken.equals(token);
+            if (exact || (token.length() >= MIN_PREFIX_LENGTH && filmToken.startsWith(token))) {
+                best = Math.max(best, fieldScore(e.getValue()) * (exact ? 2 : 1));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The films containing one token, as parallel arrays sorted by film ID.
+     * Kept as primitives because a large catalogue has tens of millions of postings.
+     */
+    private static final class PostingList {
+        private int[] ids = new int[2];
+        private byte[] scores = new byte[2];
+        private int size;
+
+        void add(int id, int score) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                scores[pos] = (byte) score;
+                return;
+            }
+            pos = -pos - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(scores, pos, scores, pos + 1, size - pos);
+            ids[pos] = id;
+            scores[pos] = (byte) score;
+            size++;
+        }
+
+        void remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            System.arraycopy(scores, pos + 1, scores, pos, size - pos - 1);
+            size--;
+        }
+
+        /**
+         * @return The score of a film for this token, or 0 if the film does not contain it.
+         */
+        int score(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            return pos >= 0 ? scores[pos] : 0;
+        }
+    }
+
+    /**
+     * Film ID to score map on primitive arrays (open addressing), used while scoring a query.
+     * Avoids boxing when a broad prefix matches hundreds of thousands of films.
+     */
+    private static final class IntScores {
+        private int[] keys;
+        private int[] values; // Scores are positive; 0 marks an empty slot.
+        private int size;
+
+        IntScores(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2) - 1) << 1;
+            keys = new int[capacity];
+            values = new int[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        boolean isUsed(int slot) {
+            return values[slot] != 0;
+        }
+
+        int keyAt(int slot) {
+            return keys[slot];
+        }
+
+        int valueAt(int slot) {
+            return values[slot];
+        }
+
+        /**
+         * @return The score for a film, or -1 if it has none.
+         */
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; values[slot] != 0; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Stores a score for a film, keeping the higher one if it already has a score.
+         */
+        void max(int key, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (values[slot] != 0) {
+                if (keys[slot] == key) {
+                    values[slot] = Math.max(values[slot], value);
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldValues[slot] != 0) {
+                    max(oldKeys[slot], oldValues[slot]);
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9; // Spread sequential IDs across the table.
+            return h ^ (h >>> 16);
+        }
+    }
+}
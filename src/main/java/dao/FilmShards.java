@@ -0,0 +1,489 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import models.Film;
+import models.FilmQuery;
+import utils.AppConfig;
+
+/**
+ * The databases that hold the films table. Normally that is the one at db.url. With db.shards.urls set, the table is
+ * split across the databases listed there (shards), each holding the films whose ID modulo the number of shards is
+ * its position in the list, counting from 0. The assignment is fixed: changing the number of shards means moving
+ * rows between them first.
+ *
+ * - Lookups, updates and deletes by ID go to the one shard that owns the film.
+ * - New films get IDs from a counter in the film_ids table on the first shard (db/migrations/002_film_ids.sql),
+ *   reserved db.shards.idBlockSize at a time, so IDs are unique across shards and nodes without a round trip per
+ *   insert. IDs from different nodes' blocks interleave, and a block's unused IDs are lost when a node stops.
+ * - Listings and searches run on every shard in parallel (forEach) and are merged in the query's order (Merge).
+ * - Batch writes run as one transaction per shard; they commit or roll back independently of one another.
+ *
+ * Each shard has its own ConnectionPool with the db.pool.* settings and its own CircuitBreaker. Sharding and read
+ * replicas are not combined: setting both db.shards.urls and db.replicas.urls is rejected at startup.
+ */
+public class FilmShards implements AutoCloseable {
+
+    private static final DaoMetrics RESERVE_IDS = DaoMetrics.of("reserveFilmIds");
+
+    private final List<Shard> shards;
+    private final ExecutorService executor; // Runs the other shards' part of a fan-out; null with a single shard
+    private final int idBlockSize;
+    private long nextId; // The next ID to give out from the reserved block; guarded by this
+    private long idLimit; // The first ID past the reserved block; guarded by this
+    private boolean idsSeeded; // Whether a block has been reserved since startup; guarded by this
+
+    /**
+     * Creates a shard for each URL in db.shards.urls, or a single one for db.url if it is empty.
+     * @throws IllegalStateException If read replicas are configured as well.
+     */
+    FilmShards() {
+        String user = AppConfig.get("db.shards.user", AppConfig.get("db.user", null));
+        String password = AppConfig.get("db.shards.password", AppConfig.get("db.password", null));
+        List<Shard> list = new ArrayList<>();
+        for (String url : AppConfig.get("db.shards.urls", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                int index = list.size();
+                list.add(new Shard(index, new ConnectionPool("shard-" + index, url.trim(), user, password)));
+            }
+        }
+        if (list.isEmpty()) {
+            list.add(new Shard(0, new ConnectionPool("primary", AppConfig.require("db.url"),
+                    AppConfig.get("db.user", null), AppConfig.get("db.password", null))));
+        } else if (!AppConfig.get("db.replicas.urls", "").trim().isEmpty()) {
+            for (Shard shard : list) {
+                shard.pool.close();
+            }
+            throw new IllegalStateException("db.shards.urls and db.replicas.urls cannot both be set.");
+        }
+        shards = Collections.unmodifiableList(list);
+        idBlockSize = Math.max(1, AppConfig.getInt("db.shards.idBlockSize", 100));
+
+        if (shards.size() == 1) {
+            executor = null;
+        } else {
+            // Enough for every other shard's pool to be in use at once; more would only wait for a connection
+            int threads = AppConfig.getInt("db.shards.threads",
+                    (shards.size() - 1) * AppConfig.getInt("db.pool.maxSize", 20));
+            AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+                Thread thread = new Thread(runnable, "film-shards-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return true if the films are split across more than one database.
+     */
+    public boolean isSharded() {
+        return shards.size() > 1;
+    }
+
+    public List<Shard> getShards() {
+        return shards;
+    }
+
+    /**
+     * @return The first shard: the only one without sharding, and the one that holds the ID counter.
+     */
+    Shard first() {
+        return shards.get(0);
+    }
+
+    /**
+     * @return The shard that holds, or will hold, the film with the given ID.
+     */
+    Shard owner(int id) {
+        return shards.get(Math.floorMod(id, shards.size()));
+    }
+
+    /**
+     * Groups films by the shard that owns them.
+     * @param films Films with their IDs set; without sharding, any IDs.
+     * @return The positions in films of each shard's films, in shard order; shards with none are left out.
+     */
+    Map<Shard, List<Integer>> byOwner(List<Film> films) {
+        Map<Shard, List<Integer>> groups = new LinkedHashMap<>();
+        if (!isSharded()) {
+            List<Integer> all = new ArrayList<>(films.size());
+            for (int i = 0; i < films.size(); i++) {
+                all.add(i);
+            }
+            if (!all.isEmpty()) {
+                groups.put(first(), all);
+            }
+            return groups;
+        }
+        for (Shard shard : shards) {
+            groups.put(shard, new ArrayList<>());
+        }
+        for (int i = 0; i < films.size(); i++) {
+            groups.get(owner(films.get(i).getId())).add(i);
+        }
+        groups.values().removeIf(List::isEmpty);
+        return groups;
+    }
+
+    /**
+     * Work done against one shard.
+     */
+    interface Task<T> {
+        T run(Shard shard) throws SQLException;
+    }
+
+    /**
+     * Runs a task against several shards at once: the first on the calling thread, the others on the shard threads.
+     * Waits for every one to finish, so no task is still using a connection when this returns or throws.
+     * @param targets The shards to run on.
+     * @param task The work; it must be safe to run on several threads.
+     * @return Each shard's result, in the order of targets.
+     * @throws SQLException The first failure, if any task failed; the other results are then discarded. A task's
+     *         unchecked exception is rethrown in preference.
+     */
+    <T> Map<Shard, T> forEach(Collection<Shard> targets, Task<T> task) throws SQLException {
+        Map<Shard, T> results = new LinkedHashMap<>();
+        if (targets.size() <= 1 || executor == null) {
+            for (Shard shard : targets) {
+                results.put(shard, task.run(shard));
+            }
+            return results;
+        }
+        Iterator<Shard> it = targets.iterator();
+        Shard local = it.next();
+        Map<Shard, Future<T>> futures = new LinkedHashMap<>();
+        while (it.hasNext()) {
+            Shard shard = it.next();
+            futures.put(shard, executor.submit(() -> task.run(shard)));
+        }
+
+        SQLException failure = null;
+        RuntimeException unchecked = null;
+        try {
+            results.put(local, task.run(local));
+        } catch (SQLException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            unchecked = e;
+        }
+        for (Map.Entry<Shard, Future<T>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    if (unchecked == null) {
+                        unchecked = (RuntimeException) cause;
+                    }
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                } else if (failure == null) {
+                    failure = (SQLException) cause; // Task.run throws nothing else
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            } catch (InterruptedException e) {
+                for (Future<T> future : futures.values()) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for the shards.", e);
+            }
+        }
+        if (unchecked != null) {
+            throw unchecked;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    /**
+     * Gives each film a new ID, unique across every shard and node, from this node's reserved block.
+     * @param films The films, whose IDs are overwritten.
+     * @throws SQLException If a new block cannot be reserved; some films may have been given IDs by then.
+     */
+    synchronized void assignIds(List<Film> films) throws SQLException {
+        for (int i = 0; i < films.size(); i++) {
+            if (nextId == idLimit) {
+                reserveIds(Math.max(idBlockSize, films.size() - i)); // A large batch takes one block of its own size
+            }
+            films.get(i).setId((int) nextId++);
+        }
+    }
+
+    /**
+     * Moves the counter in film_ids on by count in a transaction of its own, and takes the IDs it passed over.
+     * The first reservation after startup also moves the counter past every film already stored, e.g. ones copied
+     * in from a single database before it was split.
+     */
+    private void reserveIds(int count) throws SQLException {
+        long floor = 1;
+        if (!idsSeeded) {
+            Map<Shard, Long> largest = forEach(shards, shard -> shard.call(RESERVE_IDS, conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT MAX(id) FROM films;");
+                     ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : 0L;
+                }
+            }));
+            for (long id : largest.values()) {
+                floor = Math.max(floor, id + 1);
+            }
+        }
+        long seed = floor;
+        long start = first().call(RESERVE_IDS, conn -> {
+            conn.setAutoCommit(false);
+            try {
+                long next;
+                long executeStart = System.nanoTime();
+                try (PreparedStatement pstmt = conn.prepareStatement("SELECT next_id FROM film_ids FOR UPDATE;");
+                     ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("The film_ids table is empty; apply db/migrations/002_film_ids.sql "
+                                + "to the first shard.");
+                    }
+                    next = Math.max(rs.getLong(1), seed);
+                }
+                if (next + count - 1 > Integer.MAX_VALUE) {
+                    throw new SQLException("Film IDs are exhausted: the next block would pass "
+                            + Integer.MAX_VALUE + ".");
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement("UPDATE film_ids SET next_id = ?;")) {
+                    pstmt.setLong(1, next + count);
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+                RESERVE_IDS.execute.recordSince(executeStart);
+                return next;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        });
+        idsSeeded = true;
+        nextId = start;
+        idLimit = start + count;
+    }
+
+    /**
+     * Stops the shard threads and closes the shard pools.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (Shard shard : shards) {
+            shard.pool.close();
+        }
+    }
+
+    /**
+     * One database holding part of the films table: its pool and circuit breaker.
+     */
+    public static final class Shard {
+        final int index;
+        final ConnectionPool pool;
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        Shard(int index, ConnectionPool pool) {
+            this.index = index;
+            this.pool = pool;
+        }
+
+        /**
+         * Runs work on the shard through its circuit breaker: at once fails with CircuitOpenException while the
+         * breaker is open, and otherwise tells it how the work went.
+         * @param metrics The calling method's timers; the wait for a connection is recorded as its connect phase.
+         * @param query The work.
+         * @return What the query returns.
+         * @throws SQLException If the breaker is open or the query fails.
+         */
+        <T> T call(DaoMetrics metrics, FilmDao.Query<T> query) throws SQLException {
+            boolean probe = breaker.acquire();
+            long start = System.nanoTime();
+            Throwable failure = null;
+            try (Connection conn = pool.getConnection(metrics.queryTimeoutSeconds)) {
+                metrics.connect.recordSince(start);
+                return query.run(conn);
+            } catch (Throwable e) {
+                failure = e;
+                throw e;
+            } finally {
+                breaker.record(probe, failure, metrics.timed ? System.nanoTime() - start : 0);
+            }
+        }
+
+        /** @return The shard's position in db.shards.urls, from 0; 0 without sharding. */
+        public int getIndex() {
+            return index;
+        }
+
+        public ConnectionPool getPool() {
+            return pool;
+        }
+
+        public CircuitBreaker getBreaker() {
+            return breaker;
+        }
+    }
+
+    /**
+     * Rows read one at a time, in order.
+     */
+    interface Rows {
+        /** @return The next film, or null once there are no more. */
+        Film next() throws SQLException;
+
+        /**
+         * @return The sort key of the title of the film next() last returned, as the shard's collation orders it, or
+         *         null if it was not read (see FilmDao.select).
+         */
+        default byte[] key() {
+            return null;
+        }
+    }
+
+    /**
+     * One shard's part of a listing, read into memory, with the title sort keys when it is ordered by title.
+     */
+    static final class Part {
+        final ArrayList<Film> films = new ArrayList<>();
+        final ArrayList<byte[]> keys = new ArrayList<>(); // In step with films, or empty if not read
+
+        Rows rows() {
+            return new Rows() {
+                private int next;
+
+                @Override
+                public Film next() {
+                    return next < films.size() ? films.get(next++) : null;
+                }
+
+                @Override
+                public byte[] key() {
+                    return keys.isEmpty() ? null : keys.get(next - 1);
+                }
+            };
+        }
+    }
+
+    /**
+     * Merges rows that each shard returns in the same order into one sequence in that order (a k-way merge),
+     * holding one row per shard at a time, so merged streams use no more memory than the shards' own.
+     */
+    static final class Merge implements Rows {
+        private final PriorityQueue<Head> heads;
+        private byte[] key;
+
+        Merge(FilmQuery query, List<? extends Rows> parts) throws SQLException {
+            heads = new PriorityQueue<>(Math.max(1, parts.size()), order(query));
+            for (Rows part : parts) {
+                Film film = part.next();
+                if (film != null) {
+                    heads.add(new Head(film, part));
+                }
+            }
+        }
+
+        /**
+         * Merges parts already in order.
+         */
+        static Merge of(FilmQuery query, Collection<Part> parts) throws SQLException {
+            List<Rows> rows = new ArrayList<>(parts.size());
+            for (Part part : parts) {
+                rows.add(part.rows());
+            }
+            return new Merge(query, rows);
+        }
+
+        /**
+         * Merges lists already in order, read without title sort keys, so not for listings ordered by title.
+         */
+        static Merge ofLists(FilmQuery query, Collection<? extends List<Film>> lists) throws SQLException {
+            List<Rows> parts = new ArrayList<>(lists.size());
+            for (List<Film> list : lists) {
+                Iterator<Film> it = list.iterator();
+                parts.add(() -> it.hasNext() ? it.next() : null);
+            }
+            return new Merge(query, parts);
+        }
+
+        /**
+         * The order a listing's films come back in: the query's sort key, then the ID, as FilmDao's SQL orders them.
+         * Titles are compared by the sort keys the shards computed for them, byte by byte, rather than in Java: no
+         * Java comparison reproduces the column's collation (case, accents, spaces and punctuation), and a merge
+         * that disagreed with the shards' ORDER BY would make a keyset page that starts after the last merged title
+         * skip or repeat films. NULL comes first, as MySQL sorts it.
+         */
+        private static Comparator<Head> order(FilmQuery query) {
+            Comparator<Head> byId = Comparator.comparingInt(head -> head.film.getId());
+            Comparator<Head> order;
+            switch (query.getSort()) {
+                case TITLE:
+                    order = Comparator.comparing((Head head) -> head.key,
+                            Comparator.nullsFirst(Arrays::compareUnsigned)).thenComparing(byId);
+                    break;
+                case YEAR:
+                    order = Comparator.comparingInt((Head head) -> head.film.getYear()).thenComparing(byId);
+                    break;
+                default:
+                    order = byId;
+            }
+            return query.isDescending() ? order.reversed() : order;
+        }
+
+        @Override
+        public Film next() throws SQLException {
+            Head head = heads.poll();
+            if (head == null) {
+                return null;
+            }
+            Film film = head.film;
+            key = head.key;
+            head.film = head.rows.next();
+            if (head.film != null) {
+                head.key = head.rows.key();
+                heads.add(head);
+            }
+            return film;
+        }
+
+        @Override
+        public byte[] key() {
+            return key;
+        }
+
+        private static final class Head {
+            Film film;
+            byte[] key;
+            final Rows rows;
+
+            Head(Film film, Rows rows) {
+                this.film = film;
+                this.key = rows.key();
+                this.rows = rows;
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import models.Film;
+
+/**
+ * Version counters for the film catalogue, used to build ETags and Last-Modified headers without querying the database.
+ * The catalogue version goes up on every write through FilmDao; each film also remembers the catalogue version and
+ * time of its own last change. Films untouched since startup share version 0 and the startup time.
+ *
+ * Versions live in memory, so each run gets a new epoch that must be part of any validator built from them,
+ * and writes made outside this application (another instance or a direct SQL update) are not seen.
+ *
+ * FilmDao registers this listener after the cache, so by the time a new version can be read the cache no longer
+ * holds data older than it. Callers must read the version before reading the data it describes.
+ */
+public class FilmVersions implements FilmChangeListener {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final long startedAt = System.currentTimeMillis();
+    private final ConcurrentMap<Integer, Stamp> films = new ConcurrentHashMap<>();
+    private volatile Stamp catalogue = new Stamp(0, startedAt);
+
+    /**
+     * @return A token that differs between runs of the application.
+     */
+    public String getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return The number of writes made to the catalogue since startup.
+     */
+    public long getVersion() {
+        return catalogue.version;
+    }
+
+    /**
+     * @return The time of the last write to the catalogue in milliseconds, or the startup time.
+     */
+    public long getLastModified() {
+        return catalogue.modifiedAt;
+    }
+
+    /**
+     * @return The catalogue version at which the given film last changed, or 0 if it has not changed since startup.
+     */
+    public long getVersion(int id) {
+        Stamp stamp = films.get(id);
+        return stamp != null ? stamp.version : 0;
+    }
+
+    /**
+     * @return The time the given film last changed in milliseconds, or the startup time.
+     */
+    public long getLastModified(int id) {
+        Stamp stamp = films.get(id);
+        return stamp != null ? stamp.modifiedAt : startedAt;
+    }
+
+    @Override
+    public void filmInserted(Film film) {
+        changed(film.getId());
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        changed(film.getId());
+    }
+
+    @Override
+    public void filmDeleted(int id) {
+        changed(id); // Kept, so a re-used ID never falls back to version 0.
+    }
+
+    /**
+     * Moves the catalogue to a new version and stamps the changed film with it.
+     */
+    private synchronized void changed(int id) {
+        Stamp stamp = new Stamp(catalogue.version + 1, System.currentTimeMillis());
+        films.put(id, stamp);
+        catalogue = stamp; // Published last, so a reader seeing this version also sees the film's stamp.
+    }
+
+    /**
+     * A version together with the time it was reached.
+     */
+    private static final class Stamp {
+        final long version;
+        final long modifiedAt;
+
+        Stamp(long version, long modifiedAt) {
+            this.version = version;
+            this.modifiedAt = modifiedAt;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package dao;
+
+import java.io.IOException;
+
+import models.Film;
+
+/**
+ * Receives films one at a time as they are read from a streaming query,
+ * so callers can process result sets of any size without holding them in memory.
+ */
+public interface FilmVisitor {
+
+    /**
+     * Called once for each row, in result set order.
+     * @param film The film read from the current row. It is not retained by the DAO.
+     * @throws IOException If the visitor cannot consume the film, e.g. because the client went away.
+     */
+    void visit(Film film) throws IOException;
+}
@@ -0,0 +1,362 @@
+package dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A bounded, thread-safe read-through cache with a time-to-live.
+ * Concurrent misses on the same key share a single load (single flight), so a cold key
+ * causes one database query no matter how many threads ask for it at once.
+ * When the cache is full the oldest entries are evicted first.
+ * Optionally, an entry that has expired is still served for a while if reloading it fails in a given way, e.g.
+ * because the database is down: stale data then beats an error.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class LoadingCache<K, V> {
+
+    /**
+     * Loads the value for a key on a cache miss.
+     */
+    public interface Loader<K, V> {
+        V load(K key) throws SQLException;
+    }
+
+    /**
+     * Loads the values for many keys at once on cache misses.
+     * Keys with no value are left out of the returned map.
+     */
+    public interface BulkLoader<K, V> {
+        Map<K, V> loadAll(Collection<K> keys) throws SQLException;
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final Predicate<SQLException> serveStaleOn;
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    // Entries in insertion order, used to pick eviction victims. May hold nodes for entries already removed.
+    private final ConcurrentLinkedQueue<Node<K, V>> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedNodes = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+
+    /**
+     * @param maxSize The maximum number of entries kept.
+     * @param ttlMillis How long an entry stays valid after it was loaded.
+     */
+    public LoadingCache(int maxSize, long ttlMillis) {
+        this(maxSize, ttlMillis, 0, e -> false);
+    }
+
+    /**
+     * @param maxSize The maximum number of entries kept.
+     * @param ttlMillis How long an entry stays valid after it was loaded.
+     * @param staleMillis How long after expiring an entry may still be served by get() when reloading it fails.
+     * @param serveStaleOn Tells which load failures the stale entry is served for; others are thrown as usual.
+     */
+    public LoadingCache(int maxSize, long ttlMillis, long staleMillis, Predicate<SQLException> serveStaleOn) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.staleNanos = staleMillis * 1_000_000L;
+        this.serveStaleOn = serveStaleOn;
+    }
+
+    /**
+     * Returns the cached value for a key, loading it if it is missing or expired.
+     * If another thread is already loading the key, waits for that load instead of starting a new one.
+     * Failed loads are not cached; every thread waiting on them receives the same exception, or the expired value
+     * if the failure is one to serve it for. A stale value stays expired, so the next call tries to load it again.
+     * @param key The key to look up.
+     * @param loader Loads the value on a miss.
+     * @return The cached or freshly loaded value.
+     * @throws SQLException If the load fails.
+     */
+    public V get(K key, Loader<K, V> loader) throws SQLException {
+        Entry<V> stale = null; // The expired entry, while it may still be served
+        while (true) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                long now = System.nanoTime();
+                if (!entry.isExpired(now)) {
+                    hits.increment();
+                    return entry.await();
+                }
+                if (entries.remove(key, entry)) {
+                    if (!entry.stale) {
+                        expirations.increment();
+                    }
+                    if (entry.isLoaded() && now - entry.expiresAt < staleNanos) {
+                        stale = entry;
+                    }
+                }
+                continue;
+            }
+
+            Entry<V> created = new Entry<>();
+            if (entries.putIfAbsent(key, created) != null) {
+                continue; // Another thread started loading this key; wait for its entry instead.
+            }
+            misses.increment();
+            try {
+                V value = loader.load(key);
+                created.complete(value, System.nanoTime() + ttlNanos);
+            } catch (SQLException | RuntimeException e) {
+                if (stale != null && e instanceof SQLException && serveStaleOn.test((SQLException) e)) {
+                    staleHits.increment();
+                    created.stale = true;
+                    created.complete(stale.value, stale.expiresAt); // Waiting threads get the stale value too
+                    track(key, created);
+                    return stale.value;
+                }
+                entries.remove(key, created);
+                created.fail(e);
+                throw e;
+            }
+            track(key, created);
+            return created.value;
+        }
+    }
+
+    /**
+     * Returns the cached values for many keys, loading all the missing or expired ones with a single call to the loader.
+     * Keys another thread is already loading are waited for rather than loaded again, as in get().
+     * Keys the loader has no value for are not cached and are absent from the result.
+     * @param keys The keys to look up; duplicates are looked up once.
+     * @param loader Loads the values of the keys missing from the cache.
+     * @return The values found, keyed by key.
+     * @throws SQLException If the load fails.
+     */
+    public Map<K, V> getAll(Collection<K> keys, BulkLoader<K, V> loader) throws SQLException {
+        Map<K, Entry<V>> found = new HashMap<>(); // Entries loaded, or being loaded, by someone else
+        Map<K, Entry<V>> claimed = new LinkedHashMap<>(); // Entries this call must load
+        for (K key : keys) {
+            while (!found.containsKey(key) && !claimed.containsKey(key)) {
+                Entry<V> entry = entries.get(key);
+                if (entry != null) {
+                    if (!entry.isExpired(System.nanoTime())) {
+                        hits.increment();
+                        found.put(key, entry);
+                    } else if (entries.remove(key, entry)) {
+                        expirations.increment();
+                    }
+                    continue;
+                }
+                Entry<V> created = new Entry<>();
+                if (entries.putIfAbsent(key, created) == null) {
+                    misses.increment();
+                    claimed.put(key, created);
+                }
+            }
+        }
+
+        Map<K, V> values = new HashMap<>();
+        if (!claimed.isEmpty()) {
+            Map<K, V> loaded;
+            try {
+                loaded = loader.loadAll(claimed.keySet());
+            } catch (SQLException | RuntimeException e) {
+                for (Map.Entry<K, Entry<V>> c : claimed.entrySet()) {
+                    entries.remove(c.getKey(), c.getValue());
+                    c.getValue().fail(e);
+                }
+                throw e;
+            }
+            long expiresAt = System.nanoTime() + ttlNanos;
+            for (Map.Entry<K, Entry<V>> c : claimed.entrySet()) {
+                V value = loaded.get(c.getKey());
+                if (value == null) {
+                    // Nothing to cache; anyone waiting on this key gets a failure, as a single-key loader would give them.
+                    entries.remove(c.getKey(), c.getValue());
+                    c.getValue().fail(new SQLException("No value found for key: " + c.getKey()));
+                    continue;
+                }
+                c.getValue().complete(value, expiresAt);
+                track(c.getKey(), c.getValue());
+                values.put(c.getKey(), value);
+            }
+        }
+
+        List<K> failed = new ArrayList<>();
+        for (Map.Entry<K, Entry<V>> f : found.entrySet()) {
+            try {
+                values.put(f.getKey(), f.getValue().await());
+            } catch (SQLException | RuntimeException e) {
+                failed.add(f.getKey()); // Another caller's load failed; its error may not apply to us.
+            }
+        }
+        if (!failed.isEmpty()) {
+            values.putAll(loader.loadAll(failed)); // Loaded directly, without caching, to keep this path simple.
+        }
+        return values;
+    }
+
+    /**
+     * Records a newly loaded entry for eviction and evicts the oldest entries while over capacity.
+     */
+    private void track(K key, Entry<V> entry) {
+        insertionOrder.add(new Node<>(key, entry));
+        int queued = queuedNodes.incrementAndGet();
+        while (entries.size() > maxSize) {
+            Node<K, V> oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            queuedNodes.decrementAndGet();
+            if (entries.remove(oldest.key, oldest.entry)) {
+                evictions.increment();
+            }
+        }
+        if (queued > 2 * maxSize) {
+            purgeStaleNodes(); // Invalidations leave nodes behind; keep the queue proportional to the cache.
+        }
+    }
+
+    /**
+     * Drops queue nodes whose entries have already been invalidated, expired or replaced.
+     */
+    private void purgeStaleNodes() {
+        for (Iterator<Node<K, V>> it = insertionOrder.iterator(); it.hasNext();) {
+            Node<K, V> node = it.next();
+            if (entries.get(node.key) != node.entry) {
+                it.remove();
+                queuedNodes.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes the entry for a key. A load already in progress for the key is not stored.
+     */
+    public void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Removes the loaded entries matching a condition on key and value.
+     * Entries still loading are removed too, since their value may predate the change being invalidated.
+     * @param condition Returns true for entries that must go.
+     */
+    public void invalidateIf(BiPredicate<K, V> condition) {
+        for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+            Entry<V> entry = e.getValue();
+            if (!entry.isLoaded() || condition.test(e.getKey(), entry.value)) {
+                entries.remove(e.getKey(), entry);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return The number of entries removed to stay within the size bound. */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /** @return The number of entries dropped because their time-to-live had passed. */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /** @return The number of get() calls answered with an expired value because reloading it failed. */
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    /**
+     * A cache slot: either still loading or holding a loaded value with its expiry time.
+     */
+    private static final class Entry<V> {
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private volatile V value;
+        private volatile Exception failure;
+        private volatile long expiresAt;
+        private volatile boolean stale; // Holds an expired value served after a failed reload
+
+        void complete(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            loaded.countDown();
+        }
+
+        void fail(Exception failure) {
+            this.failure = failure;
+            loaded.countDown();
+        }
+
+        boolean isLoaded() {
+            return loaded.getCount() == 0 && failure == null;
+        }
+
+        boolean isExpired(long now) {
+            return loaded.getCount() == 0 && now - expiresAt >= 0; // Never expires while loading.
+        }
+
+        V await() throws SQLException {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a cached value.", e);
+            }
+            if (failure instanceof SQLException) {
+                throw (SQLException) failure;
+            }
+            if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Insertion-order record pointing at the exact entry it was created for.
+     */
+    private static final class Node<K, V> {
+        private final K key;
+        private final Entry<V> entry;
+
+        Node(K key, Entry<V> entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import models.Film;
+import utils.AppConfig;
+
+/**
+ * Chooses where FilmDao reads run: on one of the read replicas listed in db.replicas.urls, or on the primary.
+ * Writes always go to the primary, through FilmDao's own pool.
+ *
+ * Reads are spread over the healthy replicas, each going to the one with the fewest connections on loan; the search
+ * starts at a rotating position, so idle replicas take turns. A replica that fails db.replicas.failureThreshold reads
+ * in a row with a connection error is ejected, and its reads go elsewhere until a background probe, every
+ * db.replicas.probeIntervalMillis, finds it answering again. A read that fails to reach a replica is run again on
+ * the primary, and with no healthy replica left, reads go to the primary.
+ *
+ * Replicas lag behind the primary, so for db.replicas.readYourWritesMillis after a write:
+ * - every read on this node goes to the primary. The read caches and ETag versions are bumped the moment the
+ *   write commits, and a replica read made in that window could store pre-write data under the new version.
+ * - reads for the client that made the write go to the primary on any node, and skip this node's caches,
+ *   while the request thread is pinned with pinToPrimary (see utils.ReadYourWrites).
+ */
+public class ReplicaRouter implements FilmChangeListener, AutoCloseable {
+
+    // Reads on this thread must see the latest writes: set for requests from a client that has just written.
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private final List<Replica> replicas;
+    private final long readYourWritesMillis;
+    private final int failureThreshold;
+    private final ScheduledExecutorService prober; // Null without replicas
+    private final AtomicInteger nextStart = new AtomicInteger();
+    private volatile long lastWriteAt; // System.nanoTime() of the latest write on this node
+
+    private final LongAdder primaryReads = new LongAdder();
+    private final LongAdder replicaReads = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /**
+     * Creates a router over the replicas in db.replicas.urls, if any, and starts probing them.
+     * Each replica gets its own ConnectionPool with the db.pool.* settings.
+     */
+    public ReplicaRouter() {
+        readYourWritesMillis = AppConfig.getLong("db.replicas.readYourWritesMillis", 2000);
+        failureThreshold = AppConfig.getInt("db.replicas.failureThreshold", 3);
+        lastWriteAt = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis);
+
+        String user = AppConfig.get("db.replicas.user", AppConfig.get("db.user", null));
+        String password = AppConfig.get("db.replicas.password", AppConfig.get("db.password", null));
+        List<Replica> list = new ArrayList<>();
+        for (String url : AppConfig.get("db.replicas.urls", "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                list.add(new Replica(new ConnectionPool("replica-" + (list.size() + 1), url.trim(), user, password)));
+            }
+        }
+        replicas = Collections.unmodifiableList(list);
+
+        if (replicas.isEmpty()) {
+            prober = null;
+        } else {
+            prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-prober");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = AppConfig.getLong("db.replicas.probeIntervalMillis", 2000);
+            prober.scheduleWithFixedDelay(this::probe, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Pins the current thread's reads to the primary, or releases it. Callers must release in a finally block,
+     * since request threads are reused.
+     */
+    public static void pinToPrimary(boolean pinned) {
+        if (pinned) {
+            PINNED.set(Boolean.TRUE);
+        } else {
+            PINNED.remove();
+        }
+    }
+
+    /**
+     * @return true if the current thread's reads must see the latest writes, so they skip replicas and caches.
+     */
+    public static boolean isPinnedToPrimary() {
+        return PINNED.get() != null;
+    }
+
+    /**
+     * Picks the replica for the next read.
+     * @return A healthy replica, or null if the read should go to the primary.
+     */
+    Replica chooseReplica() {
+        if (replicas.isEmpty() || isPinnedToPrimary()
+                || System.nanoTime() - lastWriteAt < TimeUnit.MILLISECONDS.toNanos(readYourWritesMillis)) {
+            primaryReads.increment();
+            return null;
+        }
+        int size = replicas.size();
+        int start = Math.floorMod(nextStart.getAndIncrement(), size);
+        Replica best = null;
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (!replica.ejected && (best == null || replica.pool.getActiveCount() < best.pool.getActiveCount())) {
+                best = replica;
+            }
+        }
+        if (best == null) {
+            primaryReads.increment(); // Every replica is ejected
+            return null;
+        }
+        replicaReads.increment();
+        return best;
+    }
+
+    /**
+     * Records a replica read that failed with a connection error. FilmDao runs the read again on the primary
+     * unless rows have already been streamed to the caller.
+     */
+    void failed(Replica replica) {
+        failures.increment();
+        if (replica.consecutiveFailures.incrementAndGet() >= failureThreshold && !replica.ejected) {
+            replica.ejected = true;
+            replica.ejections.increment();
+        }
+    }
+
+    /**
+     * Tells whether a failure means the database could not be reached, rather than that the statement was wrong.
+     * Only these count towards ejecting a replica, and only these are retried on the primary.
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientConnectionException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException || (state != null && state.startsWith("08"));
+    }
+
+    /**
+     * Checks each ejected replica and lets it take reads again once it answers.
+     */
+    private void probe() {
+        for (Replica replica : replicas) {
+            if (!replica.ejected) {
+                continue;
+            }
+            try (Connection conn = replica.pool.getConnection()) {
+                if (conn.isValid(AppConfig.getInt("db.pool.validationTimeoutSeconds", 2))) {
+                    replica.consecutiveFailures.set(0);
+                    replica.ejected = false;
+                }
+            } catch (SQLException e) {
+                // Still down; try again on the next run.
+            }
+        }
+    }
+
+    /**
+     * Opens the read-your-writes window for this node. FilmDao calls it as a write starts, so no replica read
+     * begins while the write is in flight, and the listener methods call it again once the write has committed.
+     */
+    void written() {
+        lastWriteAt = System.nanoTime();
+    }
+
+    @Override
+    public void filmInserted(Film film) {
+        written();
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        written();
+    }
+
+    @Override
+    public void filmDeleted(int id) {
+        written();
+    }
+
+    /**
+     * Stops probing and closes the replica pools.
+     */
+    @Override
+    public void close() {
+        if (prober != null) {
+            prober.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.pool.close();
+        }
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /** @return How long reads stay on the primary after a write, in milliseconds. */
+    public long getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    /** @return The number of reads routed to the primary. */
+    public long getPrimaryReadCount() {
+        return primaryReads.sum();
+    }
+
+    /** @return The number of reads routed to a replica, including ones that then failed over to the primary. */
+    public long getReplicaReadCount() {
+        return replicaReads.sum();
+    }
+
+    /** @return The number of replica reads that failed with a connection error. */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    /**
+     * One read replica: its pool and health.
+     */
+    public static final class Replica {
+        final ConnectionPool pool;
+        final AtomicInteger consecutiveFailures = new AtomicInteger();
+        volatile boolean ejected;
+        private final LongAdder ejections = new LongAdder();
+
+        Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        /**
+         * Records a read that reached the replica, which clears its run of failures.
+         */
+        void succeeded() {
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+        }
+
+        public ConnectionPool getPool() {
+            return pool;
+        }
+
+        /** @return true while the replica is ejected and takes no reads. */
+        public boolean isEjected() {
+            return ejected;
+        }
+
+        /** @return The number of times the replica has been ejected. */
+        public long getEjectionCount() {
+            return ejections.sum();
+        }
+    }
+}
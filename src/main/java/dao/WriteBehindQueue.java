@@ -0,0 +1,533 @@
+package dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import models.Film;
+import models.FilmField;
+import utils.AppConfig;
+import utils.FilmCbor;
+
+/**
+ * Write-behind for film updates. Instead of an UPDATE per request, submitted films wait here, keyed by ID so that
+ * a later update of the same film replaces the earlier one (last write wins), and are written by
+ * FilmDao.updateFilms in batches of writeBehind.batchSize, one transaction each. A flush runs every
+ * writeBehind.flushIntervalMillis, and as soon as batchSize films are waiting.
+ *
+ * Every update is appended to a journal in writeBehind.journalDir, and synced to disk (writeBehind.fsync) before
+ * submit returns, so an update that has been acknowledged survives a crash: the journal is replayed when the queue
+ * starts. Callers that arrive while the same sync is in progress share it. The journal is a series of segment files;
+ * a flush starts a new one, and deletes the old ones once everything they hold is in the database.
+ * Each record is a 4-byte length, a CRC-32 of the body, and the film in CBOR (see FilmCbor); a torn record at the
+ * end of a segment, from a crash mid-write, was never acknowledged and is ignored.
+ *
+ * At most writeBehind.maxPending films wait at once. When that many are waiting, an update of another film waits up
+ * to writeBehind.offerTimeoutMillis for a flush to make room and is then rejected.
+ *
+ * Readers see an update once it has been flushed. Updates whose film has since been deleted, or whose data the
+ * database refuses, are dropped, counted and logged; a flush that fails for any other reason keeps its films for the
+ * next one. UpdateFilmServlet checks that a film exists before queueing its update, so only a film deleted while its
+ * update waits is dropped for being missing.
+ */
+public final class WriteBehindQueue implements AutoCloseable {
+
+    private static final Logger LOG = Logger.getLogger(WriteBehindQueue.class.getName());
+    private static final String SEGMENT_PREFIX = "films-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int HEADER_BYTES = 8; // Length and CRC-32
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024; // Larger lengths can only come from a torn write
+
+    private final FilmDao dao;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxPending;
+    private final long offerTimeoutNanos;
+    private final boolean fsync;
+    private final Path dir;
+    private final ScheduledExecutorService flusher; // Null when disabled
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private volatile boolean failing; // The last flush failed: retry on the timer, not on every submit
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private LinkedHashMap<Integer, Film> pending = new LinkedHashMap<>(); // Guarded by lock
+    private int flushing; // Films taken by the running flush and not yet written; guarded by lock
+    private Segment segment; // The segment being appended to; guarded by lock
+    private final List<Segment> sealed = new ArrayList<>(); // Older segments not yet known to be flushed; guarded by lock
+    private boolean closed; // Guarded by lock
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+
+    private WriteBehindQueue(FilmDao dao) {
+        this.dao = dao;
+        enabled = AppConfig.getBoolean("writeBehind.enabled", false);
+        batchSize = Math.max(1, AppConfig.getInt("writeBehind.batchSize", 500));
+        maxPending = Math.max(batchSize, AppConfig.getInt("writeBehind.maxPending", 10000));
+        offerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(AppConfig.getLong("writeBehind.offerTimeoutMillis", 100));
+        fsync = AppConfig.getBoolean("writeBehind.fsync", true);
+        String journalDir = AppConfig.get("writeBehind.journalDir", "");
+        dir = journalDir.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir"), "films-write-behind") : Paths.get(journalDir);
+        if (!enabled) {
+            flusher = null;
+            return;
+        }
+
+        try {
+            Files.createDirectories(dir);
+            long last = 0;
+            for (Path path : existingSegments()) {
+                Segment old = new Segment(path, sequenceOf(path), null);
+                replay(old);
+                sealed.add(old);
+                last = old.sequence;
+            }
+            segment = Segment.create(dir, last + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open the write-behind journal in " + dir, e);
+        }
+
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "film-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = AppConfig.getLong("writeBehind.flushIntervalMillis", 1000);
+        // The first run writes anything replayed from the journal straight away
+        flusher.scheduleWithFixedDelay(this::flushQuietly, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Holds the single queue, which replays the journal when first used.
+     */
+    private static class SingletonHolder {
+        private static final WriteBehindQueue INSTANCE = new WriteBehindQueue(FilmDao.getInstance());
+    }
+
+    public static WriteBehindQueue getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * @return true if updates should be submitted here rather than made with FilmDao.updateFilm.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queues an update, replacing any update of the same film still waiting, and returns once it is in the journal.
+     * @param film The film as it should be stored, with its ID. It must not be changed afterwards.
+     * @throws RejectedExecutionException If the queue stayed full for writeBehind.offerTimeoutMillis, or is closed.
+     * @throws IOException If the journal cannot be written. The update may still be applied.
+     */
+    public void submit(Film film) throws IOException {
+        byte[] body = FilmCbor.encode(film, FilmField.ALL);
+        Segment appendedTo;
+        long end;
+        int waiting;
+        lock.lock();
+        try {
+            long nanos = offerTimeoutNanos;
+            while (!closed && pending.size() + flushing >= maxPending && !pending.containsKey(film.getId())) {
+                if (nanos <= 0) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Too many film updates waiting to be written");
+                }
+                requestFlush();
+                try {
+                    nanos = notFull.awaitNanos(nanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.increment();
+                    throw new RejectedExecutionException("Interrupted while waiting for room", e);
+                }
+            }
+            if (closed) {
+                rejected.increment();
+                throw new RejectedExecutionException("The write-behind queue has been closed");
+            }
+            // Appended under the lock, so the journal holds updates of a film in the order they replace each other
+            appendedTo = segment;
+            end = appendedTo.append(body);
+            if (pending.put(film.getId(), film) != null) {
+                coalesced.increment();
+            }
+            accepted.increment();
+            waiting = pending.size();
+        } finally {
+            lock.unlock();
+        }
+        if (waiting >= batchSize) {
+            requestFlush();
+        }
+        if (fsync) {
+            appendedTo.sync(end);
+        }
+    }
+
+    private void requestFlush() {
+        if (!failing && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                flushRequested.set(false); // Shutting down; close() makes the last flush
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException | IOException | RuntimeException e) {
+            // Counted by flush; the films stay queued and the next run tries again.
+        }
+    }
+
+    /**
+     * Writes every waiting update to the database. Runs on the flusher thread, and from close().
+     */
+    private void flush() throws SQLException, IOException {
+        flushRequested.set(false);
+        LinkedHashMap<Integer, Film> batch;
+        List<Segment> covered;
+        lock.lock();
+        try {
+            if (pending.isEmpty()) {
+                return;
+            }
+            // Later updates go to a new segment; the ones up to here can go once the batch is in
+            if (segment.size() > 0) {
+                Segment next = Segment.create(dir, segment.sequence + 1);
+                try {
+                    segment.seal();
+                } catch (IOException e) {
+                    next.seal();
+                    Files.deleteIfExists(next.path);
+                    throw e;
+                }
+                sealed.add(segment);
+                segment = next;
+            }
+            covered = new ArrayList<>(sealed);
+            batch = pending;
+            pending = new LinkedHashMap<>();
+            flushing = batch.size(); // Still counts against maxPending until written
+        } finally {
+            lock.unlock();
+        }
+
+        List<Film> films = new ArrayList<>(batch.values());
+        films.sort(Comparator.comparingInt(Film::getId)); // Rows locked in the same order by every flush
+        for (int from = 0; from < films.size(); from += batchSize) {
+            List<Film> chunk = films.subList(from, Math.min(films.size(), from + batchSize));
+            List<String> errors;
+            try {
+                errors = dao.updateFilms(chunk);
+            } catch (SQLException | RuntimeException e) {
+                failing = true;
+                flushFailures.increment();
+                requeue(films.subList(from, films.size()));
+                throw e;
+            }
+            written(chunk.size());
+            for (int i = 0; i < errors.size(); i++) {
+                if (errors.get(i) == null) {
+                    flushed.increment();
+                } else {
+                    dropped.increment();
+                    // The client was answered 202 long ago; this is the only trace of the lost update
+                    LOG.warning("Dropped the queued update of film " + chunk.get(i).getId() + ": " + errors.get(i));
+                }
+            }
+        }
+
+        failing = false;
+        lock.lock();
+        try {
+            for (Segment done : covered) {
+                Files.deleteIfExists(done.path);
+                sealed.remove(done);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Makes room for the films of a chunk that has been written.
+     */
+    private void written(int films) {
+        lock.lock();
+        try {
+            flushing -= films;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts back updates a failed flush did not write, unless a newer update of the same film has arrived since.
+     * Their segments stay on disk until a later flush has written them.
+     */
+    private void requeue(List<Film> films) {
+        lock.lock();
+        try {
+            LinkedHashMap<Integer, Film> merged = new LinkedHashMap<>();
+            for (Film film : films) {
+                merged.put(film.getId(), film);
+            }
+            merged.putAll(pending);
+            pending = merged;
+            flushing = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops taking updates and writes the ones waiting. Whatever cannot be written stays in the journal for the
+     * next start. Called when the application shuts down.
+     */
+    @Override
+    public void close() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.submit(() -> {
+                flush();
+                return null;
+            }).get(30, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // Left in the journal
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flusher.shutdownNow();
+        lock.lock();
+        try {
+            segment.seal();
+            if (segment.size() == 0) {
+                Files.deleteIfExists(segment.path);
+            }
+        } catch (IOException e) {
+            // Replayed, and found empty, on the next start
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Path> existingSegments() throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                paths.add(path);
+            }
+        }
+        paths.sort(Comparator.comparingLong(WriteBehindQueue::sequenceOf));
+        return paths;
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Loads the updates in a segment left by an earlier run into the queue, later records replacing earlier ones.
+     */
+    private void replay(Segment old) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(old.path))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] body;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_BYTES) {
+                        return;
+                    }
+                    body = in.readNBytes(length);
+                    if (body.length < length) {
+                        return;
+                    }
+                    crc.reset();
+                    crc.update(body);
+                    if ((int) crc.getValue() != checksum) {
+                        return;
+                    }
+                } catch (EOFException e) {
+                    return;
+                }
+                try (InputStream record = new ByteArrayInputStream(body)) {
+                    Film film = FilmCbor.decodeFilm(record);
+                    if (film != null) {
+                        pending.put(film.getId(), film);
+                    }
+                }
+            }
+        }
+    }
+
+    /** @return The number of films waiting to be written. */
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return The number of updates accepted, coalesced ones included. */
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    /** @return The number of updates that replaced one of the same film still waiting. */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /** @return The number of updates turned away because the queue was full. */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /** @return The number of films written to the database. */
+    public long getFlushedCount() {
+        return flushed.sum();
+    }
+
+    /** @return The number of updates dropped because their film was gone or the database refused the data. */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /** @return The number of flushes that failed and were left for the next one. */
+    public long getFlushFailureCount() {
+        return flushFailures.sum();
+    }
+
+    /**
+     * One journal file.
+     */
+    private static final class Segment {
+        final Path path;
+        final long sequence;
+        private final FileChannel channel; // Null for segments replayed from an earlier run
+        private volatile long written; // Bytes appended; guarded by the queue's lock
+        private long synced; // Bytes known to be on disk; guarded by this
+
+        private Segment(Path path, long sequence, FileChannel channel) {
+            this.path = path;
+            this.sequence = sequence;
+            this.channel = channel;
+        }
+
+        static Segment create(Path dir, long sequence) throws IOException {
+            Path path = dir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+            return new Segment(path, sequence,
+                    FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE));
+        }
+
+        long size() {
+            return written;
+        }
+
+        /**
+         * Appends a record. Called with the queue's lock held.
+         * @return The segment's size after the record, to pass to sync.
+         */
+        long append(byte[] body) throws IOException {
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+            record.putInt(body.length).putInt((int) crc.getValue()).put(body).flip();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException e) {
+                // Cut off the partial record, so later records are not stranded behind it when replayed
+                try {
+                    channel.truncate(written);
+                    channel.position(written);
+                } catch (IOException ignored) {
+                    e.addSuppressed(ignored);
+                }
+                throw e;
+            }
+            written += record.limit();
+            return written;
+        }
+
+        /**
+         * Makes sure the segment is on disk up to the given size. One sync covers every record appended before it
+         * started, so callers waiting here behind another usually find their record already synced.
+         */
+        synchronized void sync(long end) throws IOException {
+            if (synced >= end) {
+                return;
+            }
+            long target = written;
+            channel.force(false);
+            synced = target;
+        }
+
+        /**
+         * Syncs and closes the segment once nothing more will be appended to it.
+         */
+        synchronized void seal() throws IOException {
+            if (channel != null && channel.isOpen()) {
+                channel.force(false);
+                synced = written;
+                channel.close();
+            }
+        }
+    }
+}
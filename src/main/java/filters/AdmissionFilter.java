@@ -0,0 +1,197 @@
+package filters;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import metrics.Counter;
+import metrics.Metrics;
+import utils.AppConfig;
+import utils.RequestUtils;
+
+/**
+ * Admission control in front of the film servlets, so that one client looping on a request cannot use up the
+ * database connections everyone else needs. Reads (GET, HEAD) and writes (everything else) have separate budgets:
+ *
+ * - a per-client rate limit (see RateLimiter): admission.{read,write}.rate requests a second, with bursts of up to
+ *   admission.{read,write}.burst. Requests over it get 429 with a Retry-After of when the next would be admitted.
+ * - a bulkhead across all clients (see Bulkhead): at most admission.{read,write}.maxConcurrent requests run at once,
+ *   and admission.{read,write}.queueSize more may wait up to admission.queueTimeoutMillis for a turn. Requests
+ *   beyond that get 503 with Retry-After: 1. An asynchronous request keeps its slot until it completes.
+ *
+ * The change stream and the export are rate limited but take no bulkhead slot: they are long-lived and have limits
+ * of their own. /metrics and CORS preflight requests are not limited at all.
+ *
+ * Clients are told apart by address. Behind a proxy or load balancer, set admission.clientHeader to the header it
+ * sets, e.g. X-Forwarded-For, whose last entry is then used; only do so if every request comes through it, since
+ * clients can send the header themselves. Settings: admission.enabled, admission.maxClients (the most clients
+ * tracked at once), and those above.
+ * Rejections are exported as films_admission_rejected_total{kind, reason}.
+ */
+@WebFilter(filterName = "AdmissionFilter", urlPatterns = "/*", asyncSupported = true)
+public class AdmissionFilter implements Filter {
+
+    private boolean enabled;
+    private String clientHeader;
+    private Budget reads;
+    private Budget writes;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        enabled = AppConfig.getBoolean("admission.enabled", true);
+        String header = AppConfig.get("admission.clientHeader", "").trim();
+        clientHeader = header.isEmpty() ? null : header;
+        if (enabled) {
+            reads = new Budget("read", 100, 200, 14, 50);
+            writes = new Budget("write", 10, 20, 6, 20); // With reads, db.pool.maxSize: a flood of reads leaves writes theirs
+        }
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        String path = httpRequest.getServletPath();
+        String method = httpRequest.getMethod();
+        if (!enabled || "/metrics".equals(path) || "OPTIONS".equals(method)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Budget budget = "GET".equals(method) || "HEAD".equals(method) ? reads : writes;
+        long wait = budget.limiter.acquire(clientKey(httpRequest), System.nanoTime());
+        if (wait > 0) {
+            budget.rateLimited.increment();
+            reject(httpResponse, 429, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(wait + 999_999_999)),
+                    "Too many requests, try again later.");
+            return;
+        }
+        if ("/films/changes".equals(path) || "/films/export".equals(path)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        Bulkhead.Outcome outcome = budget.bulkhead.enter();
+        if (outcome != Bulkhead.Outcome.ADMITTED) {
+            (outcome == Bulkhead.Outcome.QUEUE_FULL ? budget.queueFull : budget.queueTimeout).increment();
+            reject(httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, 1, "Server busy, try again later.");
+            return;
+        }
+        boolean async = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new Release(budget.bulkhead)); // Freed when the response completes
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                budget.bulkhead.exit();
+            }
+        }
+    }
+
+    /**
+     * Identifies the client a request counts against.
+     */
+    private String clientKey(HttpServletRequest request) {
+        if (clientHeader != null) {
+            String value = request.getHeader(clientHeader);
+            if (value != null) {
+                String last = value.substring(value.lastIndexOf(',') + 1).trim(); // Added by the nearest proxy
+                if (!last.isEmpty()) {
+                    return last;
+                }
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    private static void reject(HttpServletResponse response, int status, long retryAfterSeconds, String message)
+            throws IOException {
+        RequestUtils.setAccessControlHeaders(response); // So browser clients can read the status
+        response.setStatus(status);
+        response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+        PrintWriter writer = response.getWriter();
+        writer.write(message);
+        writer.close();
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * The rate limiter, bulkhead and rejection counters for reads or for writes.
+     */
+    private static final class Budget {
+        final RateLimiter limiter;
+        final Bulkhead bulkhead;
+        final Counter rateLimited;
+        final Counter queueFull;
+        final Counter queueTimeout;
+
+        Budget(String kind, int rate, int burst, int maxConcurrent, int queueSize) {
+            String prefix = "admission." + kind + ".";
+            limiter = new RateLimiter(AppConfig.getInt(prefix + "rate", rate), AppConfig.getInt(prefix + "burst", burst),
+                    AppConfig.getInt("admission.maxClients", 100000));
+            bulkhead = new Bulkhead(AppConfig.getInt(prefix + "maxConcurrent", maxConcurrent),
+                    AppConfig.getInt(prefix + "queueSize", queueSize), AppConfig.getLong("admission.queueTimeoutMillis", 100));
+
+            String help = "Requests turned away by admission control.";
+            rateLimited = Metrics.counter("films_admission_rejected_total", help, "kind", kind, "reason", "rate_limited");
+            queueFull = Metrics.counter("films_admission_rejected_total", help, "kind", kind, "reason", "queue_full");
+            queueTimeout = Metrics.counter("films_admission_rejected_total", help, "kind", kind, "reason", "queue_timeout");
+            Metrics.gauge("films_admission_in_flight", "Requests holding a bulkhead slot.", bulkhead::inFlight, "kind", kind);
+            Metrics.gauge("films_admission_queued", "Requests waiting for a bulkhead slot.", bulkhead::queued, "kind", kind);
+            Metrics.gauge("films_admission_clients", "Clients with a rate limit bucket of their own.", limiter::size,
+                    "kind", kind);
+        }
+    }
+
+    /**
+     * Gives an asynchronous request's slot back once its response is complete, however it ended.
+     */
+    private static final class Release implements AsyncListener {
+        private final Bulkhead bulkhead;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Release(Bulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            if (done.compareAndSet(false, true)) {
+                bulkhead.exit();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this); // Listeners are dropped if the request is made async again
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package filters;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps how many requests of one kind run at once, with a short queue in front: a request that finds every slot
+ * taken waits up to a timeout for one, but only so many may wait, and the rest are turned away at once. Load beyond
+ * what the database can serve is shed in milliseconds instead of piling up in the connection pool.
+ */
+final class Bulkhead {
+
+    /** What became of a request that asked for a slot. */
+    enum Outcome {
+        ADMITTED,
+        QUEUE_FULL, // Every slot was taken and the queue was full
+        TIMED_OUT // Waited in the queue without a slot coming free
+    }
+
+    private final int maxConcurrent;
+    private final int queueSize;
+    private final long queueTimeoutNanos;
+    private final Semaphore slots;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param maxConcurrent The most requests running at once.
+     * @param queueSize The most requests waiting for a slot.
+     * @param queueTimeoutMillis How long a request waits for a slot.
+     */
+    Bulkhead(int maxConcurrent, int queueSize, long queueTimeoutMillis) {
+        this.maxConcurrent = maxConcurrent;
+        this.queueSize = queueSize;
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.slots = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * Takes a slot, waiting for one if need be. A request that is admitted must call exit() when it is done.
+     */
+    Outcome enter() {
+        if (slots.tryAcquire()) {
+            return Outcome.ADMITTED;
+        }
+        if (waiting.incrementAndGet() > queueSize) {
+            waiting.decrementAndGet();
+            return Outcome.QUEUE_FULL;
+        }
+        try {
+            return slots.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS) ? Outcome.ADMITTED : Outcome.TIMED_OUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.TIMED_OUT;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    void exit() {
+        slots.release();
+    }
+
+    /** @return The number of requests holding a slot. */
+    int inFlight() {
+        return maxConcurrent - slots.availablePermits();
+    }
+
+    /** @return The number of requests waiting for a slot. */
+    int queued() {
+        return waiting.get();
+    }
+}
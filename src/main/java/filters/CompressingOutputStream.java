@@ -0,0 +1,224 @@
+package filters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+
+import utils.FilmCbor;
+import utils.FilmStreamWriter;
+
+/**
+ * Response body stream that holds back the first bytes of a response until it knows whether compression pays off.
+ * A body that ends within the threshold is sent as is, with a Content-Length. A longer one is compressed as it is
+ * written, so streamed responses stay streamed, unless its content type is not worth compressing.
+ */
+final class CompressingOutputStream extends ServletOutputStream {
+
+    // Fixed gzip member header: magic, deflate method, no flags, no mtime, no extra flags, unknown OS.
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final HttpServletResponse response;
+    private final String encoding; // "gzip" or "deflate"
+    private final DeflaterPool pool;
+    private final byte[] pending; // Body bytes held back until the threshold is reached
+    private int pendingCount;
+
+    private OutputStream out; // The real response stream, once the body is known to be large
+    private Deflater deflater; // Set while compressing
+    private CRC32 crc; // Checksum of the uncompressed body, for the gzip trailer
+    private byte[] chunk;
+    private boolean closed;
+
+    /**
+     * @param response The real response.
+     * @param encoding The negotiated content coding, "gzip" or "deflate".
+     * @param pool Deflaters producing raw deflate data for gzip, or zlib data for deflate.
+     * @param threshold Bodies up to this many bytes are sent uncompressed.
+     */
+    CompressingOutputStream(HttpServletResponse response, String encoding, DeflaterPool pool, int threshold) {
+        this.response = response;
+        this.encoding = encoding;
+        this.pool = pool;
+        this.pending = new byte[threshold];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (out == null) {
+            if (pendingCount + len <= pending.length) {
+                System.arraycopy(b, off, pending, pendingCount, len);
+                pendingCount += len;
+                return;
+            }
+            start();
+        }
+        if (deflater != null) {
+            compress(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Decides how a body larger than the threshold is sent, and sends what was held back.
+     */
+    private void start() throws IOException {
+        if (isCompressible()) {
+            response.setHeader("Content-Encoding", encoding);
+            String etag = response.getHeader("ETag");
+            if (etag != null && etag.startsWith("\"")) {
+                // The compressed bytes differ from the identity ones, so the validator can no longer be strong
+                response.setHeader("ETag", "W/" + etag);
+            }
+            out = response.getOutputStream();
+            deflater = pool.borrow();
+            chunk = new byte[8192];
+            if (encoding.equals("gzip")) {
+                crc = new CRC32();
+                out.write(GZIP_HEADER);
+            }
+            compress(pending, 0, pendingCount);
+        } else {
+            out = response.getOutputStream();
+            out.write(pending, 0, pendingCount);
+        }
+        pendingCount = 0;
+    }
+
+    /**
+     * Only text-like bodies that no one else has encoded are worth compressing.
+     */
+    private boolean isCompressible() {
+        if (response.getHeader("Content-Encoding") != null) {
+            return false;
+        }
+        String type = response.getContentType();
+        return type == null || type.startsWith("text/") || type.startsWith("application/json")
+                || type.startsWith(FilmStreamWriter.NDJSON) || type.startsWith("application/xml") || type.contains("+json") || type.contains("+xml")
+                || type.startsWith(FilmCbor.MEDIA_TYPE); // Binary, but mostly the same text as the JSON
+    }
+
+    private void compress(byte[] b, int off, int len) throws IOException {
+        if (crc != null) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while (!deflater.needsInput()) {
+            drain(Deflater.NO_FLUSH);
+        }
+    }
+
+    private void drain(int flushMode) throws IOException {
+        int n = deflater.deflate(chunk, 0, chunk.length, flushMode);
+        if (n > 0) {
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Pushes compressed data written so far to the client. Does nothing while the body is still being held back,
+     * since sending it would commit the response before compression has been decided.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (deflater != null) {
+            int n;
+            do {
+                n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                out.write(chunk, 0, n);
+            } while (n == chunk.length);
+        }
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Ends the body: sends a small body uncompressed, or finishes the compressed stream and returns the Deflater.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (out == null) {
+            if (pendingCount > 0) {
+                response.setContentLength(pendingCount);
+                response.getOutputStream().write(pending, 0, pendingCount);
+            }
+            return;
+        }
+        if (deflater != null) {
+            try {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    drain(Deflater.NO_FLUSH);
+                }
+                if (crc != null) {
+                    writeIntLE((int) crc.getValue());
+                    writeIntLE((int) deflater.getBytesRead()); // Uncompressed size modulo 2^32
+                }
+            } finally {
+                pool.release(deflater);
+                deflater = null;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Closes the stream without sending held-back bytes or the end of the compressed data, for a body that will not
+     * be completed, and returns the Deflater to the pool.
+     */
+    void abandon() {
+        closed = true;
+        pendingCount = 0;
+        if (deflater != null) {
+            pool.release(deflater);
+            deflater = null;
+        }
+    }
+
+    /**
+     * Discards held-back bytes, for a response reset before anything was sent.
+     * @return false if part of the body has already been sent.
+     */
+    boolean resetBuffer() {
+        if (out != null) {
+            return false;
+        }
+        pendingCount = 0;
+        return true;
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+        out.write((value >>> 16) & 0xff);
+        out.write((value >>> 24) & 0xff);
+    }
+
+    @Override
+    public boolean isReady() {
+        return true; // Writes block; non-blocking output is not supported through this stream.
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        throw new IllegalStateException("Non-blocking output is not supported on compressed responses.");
+    }
+}
@@ -0,0 +1,160 @@
+package filters;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper that routes the body, written through either getWriter() or getOutputStream(),
+ * into a CompressingOutputStream. Content-Length set by the servlet is dropped, since it describes
+ * the uncompressed body; the stream sets the real length itself when it sends a body uncompressed.
+ * A servlet that sets Content-Encoding itself has encoded the body already: the stream sends it as it is,
+ * so its Content-Length is kept.
+ */
+final class CompressingResponse extends HttpServletResponseWrapper {
+
+    private final String encoding;
+    private final DeflaterPool pool;
+    private final int threshold;
+    private CompressingOutputStream stream;
+    private PrintWriter writer;
+    private boolean preEncoded; // The servlet set its own Content-Encoding
+
+    CompressingResponse(HttpServletResponse response, String encoding, DeflaterPool pool, int threshold) {
+        super(response);
+        this.encoding = encoding;
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    private CompressingOutputStream stream() {
+        if (stream == null) {
+            stream = new CompressingOutputStream((HttpServletResponse) getResponse(), encoding, pool, threshold);
+        }
+        return stream;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called for this response");
+        }
+        return stream();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called for this response");
+            }
+            writer = new PrintWriter(new OutputStreamWriter(stream(), getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        if (preEncoded) {
+            super.setContentLength(len);
+        }
+        // Otherwise ignored: the compressed length is not known until the body has been written
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        if (preEncoded) {
+            super.setContentLengthLong(len);
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (keep(name)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (keep(name)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (keep(name)) {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (keep(name)) {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    /**
+     * Notes a servlet-set Content-Encoding and tells whether a header may reach the real response.
+     */
+    private boolean keep(String name) {
+        if ("Content-Encoding".equalsIgnoreCase(name)) {
+            preEncoded = true;
+        }
+        return preEncoded || !"Content-Length".equalsIgnoreCase(name);
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        } else if (stream != null) {
+            stream.flush();
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        if (stream != null && !stream.resetBuffer()) {
+            throw new IllegalStateException("The response has already been committed");
+        }
+        if (writer != null) {
+            // Characters the old writer still holds must not come out ahead of the new body
+            writer = new PrintWriter(new OutputStreamWriter(stream, Charset.forName(getCharacterEncoding())));
+        }
+        super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        super.reset();
+    }
+
+    /**
+     * Completes the body once the servlet is done with it, whether or not it closed its writer.
+     */
+    void finish() throws IOException {
+        if (writer != null) {
+            writer.close();
+        } else if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * Gives up on the body after the servlet failed, returning the Deflater without completing the stream.
+     */
+    void abandon() {
+        if (stream != null) {
+            stream.abandon();
+        }
+    }
+}
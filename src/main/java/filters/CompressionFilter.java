@@ -0,0 +1,178 @@
+package filters;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import utils.AppConfig;
+
+/**
+ * Compresses response bodies for clients that accept it, negotiated from the Accept-Encoding header.
+ * gzip is preferred, then deflate. Bodies of up to compression.minSize bytes are sent as they are, since
+ * compressing them saves little and costs a Deflater; larger ones are compressed while they are written,
+ * so streamed film pages are never buffered whole.
+ *
+ * Deflaters are pooled (compression.pool.maxIdle per format) so each response does not allocate native zlib memory.
+ * The negotiated coding is left in the ENCODING_ATTRIBUTE request attribute; a servlet that already holds the body in
+ * that coding may send it with its own Content-Encoding and Content-Length, and it is passed through untouched.
+ * Settings: compression.enabled, compression.level (1-9), compression.minSize.
+ */
+@WebFilter(filterName = "CompressionFilter", urlPatterns = "/*", asyncSupported = true)
+public class CompressionFilter implements Filter {
+
+    /** Request attribute holding the coding responses are compressed with, "gzip" or "deflate"; absent if none. */
+    public static final String ENCODING_ATTRIBUTE = "filters.CompressionFilter.encoding";
+
+    private boolean enabled;
+    private int minSize;
+    private DeflaterPool gzipDeflaters;
+    private DeflaterPool deflateDeflaters;
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        enabled = AppConfig.getBoolean("compression.enabled", true);
+        minSize = AppConfig.getInt("compression.minSize", 1024);
+        int level = AppConfig.getInt("compression.level", 1); // Level 1 gets most of the size win for a fraction of the CPU
+        int maxIdle = AppConfig.getInt("compression.pool.maxIdle", 64);
+        gzipDeflaters = new DeflaterPool(level, true, maxIdle); // Raw deflate data; the gzip framing is added by hand
+        deflateDeflaters = new DeflaterPool(level, false, maxIdle); // zlib format, which is what HTTP calls deflate
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        httpResponse.addHeader("Vary", "Accept-Encoding"); // Caches must keep compressed and plain copies apart
+        String encoding = negotiate(httpRequest.getHeader("Accept-Encoding"));
+        if (encoding == null || "HEAD".equals(httpRequest.getMethod())) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        request.setAttribute(ENCODING_ATTRIBUTE, encoding);
+        DeflaterPool pool = encoding.equals("gzip") ? gzipDeflaters : deflateDeflaters;
+        CompressingResponse compressing = new CompressingResponse(httpResponse, encoding, pool, minSize);
+        boolean completed = false;
+        try {
+            chain.doFilter(request, compressing);
+            completed = true;
+        } finally {
+            if (!completed && !request.isAsyncStarted()) {
+                compressing.abandon(); // The error page replaces the body; only the Deflater needs returning
+            }
+        }
+        if (request.isAsyncStarted()) {
+            // An async response is finished when its handler closes the writer. One whose handler never does (it
+            // timed out, or failed once part of the body had gone) is left without its end, and the Deflater returned
+            request.getAsyncContext().addListener(new AbandonOnComplete(compressing));
+        } else {
+            compressing.finish();
+        }
+    }
+
+    /**
+     * Abandons an async response's compressed body when the request completes; does nothing if it was finished.
+     */
+    private static final class AbandonOnComplete implements AsyncListener {
+        private final CompressingResponse response;
+
+        AbandonOnComplete(CompressingResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            response.abandon();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Picks the content coding to use from an Accept-Encoding header.
+     * @return "gzip", "deflate", or null to send the body uncompressed.
+     */
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = 0;
+        double deflate = 0;
+        double any = -1; // q of '*', which stands for every coding not listed by name
+        boolean gzipListed = false;
+        boolean deflateListed = false;
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.trim().split(";");
+            String coding = params[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (coding) {
+                case "gzip":
+                case "x-gzip":
+                    gzip = q;
+                    gzipListed = true;
+                    break;
+                case "deflate":
+                    deflate = q;
+                    deflateListed = true;
+                    break;
+                case "*":
+                    any = q;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!gzipListed && any >= 0) {
+            gzip = any;
+        }
+        if (!deflateListed && any >= 0) {
+            deflate = any;
+        }
+        if (gzip <= 0 && deflate <= 0) {
+            return null;
+        }
+        return gzip >= deflate ? "gzip" : "deflate";
+    }
+
+    @Override
+    public void destroy() {
+        gzipDeflaters.close();
+        deflateDeflaters.close();
+    }
+}
@@ -0,0 +1,68 @@
+package filters;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of Deflaters of one kind, so each compressed response reuses the native zlib state
+ * of an earlier one instead of allocating and freeing its own.
+ */
+final class DeflaterPool {
+
+    private final int level;
+    private final boolean nowrap;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<Deflater> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param level The compression level, 1 (fastest) to 9 (smallest).
+     * @param nowrap true for raw deflate data (wrapped as gzip by the caller), false for the zlib format.
+     * @param maxIdle The most Deflaters kept for reuse; extras are released when returned.
+     */
+    DeflaterPool(int level, boolean nowrap, int maxIdle) {
+        this.level = level;
+        this.nowrap = nowrap;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Takes an idle Deflater, or creates one if none is free.
+     */
+    Deflater borrow() {
+        Deflater deflater = idle.poll();
+        if (deflater != null) {
+            idleCount.decrementAndGet();
+            return deflater;
+        }
+        return new Deflater(level, nowrap);
+    }
+
+    /**
+     * Resets a Deflater and keeps it for reuse, or frees its native memory if the pool is full.
+     */
+    void release(Deflater deflater) {
+        deflater.reset();
+        if (!closed && idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(deflater);
+        } else {
+            if (!closed) {
+                idleCount.decrementAndGet();
+            }
+            deflater.end();
+        }
+    }
+
+    /**
+     * Frees every idle Deflater. Ones still borrowed are freed as they come back.
+     */
+    void close() {
+        closed = true;
+        Deflater deflater;
+        while ((deflater = idle.poll()) != null) {
+            deflater.end();
+        }
+    }
+}
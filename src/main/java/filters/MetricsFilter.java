@@ -0,0 +1,183 @@
+package filters;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
+import utils.AppConfig;
+
+/**
+ * Counts requests and times them from the first filter to the last byte, per servlet mapping and HTTP method.
+ * Exported as films_http_request_duration_seconds{endpoint, method} and
+ * films_http_responses_total{endpoint, method, status}, where status is the class: 2xx, 3xx, 4xx or 5xx.
+ *
+ * Endpoints are labelled with the mapping pattern (e.g. "/films/*"), not the path, so the number of series stays fixed.
+ * Asynchronous requests are recorded when they complete rather than when the container thread lets go of them.
+ * Setting: metrics.enabled.
+ */
+@WebFilter(filterName = "MetricsFilter", urlPatterns = "/*", asyncSupported = true)
+public class MetricsFilter implements Filter {
+
+    private static final String[] METHODS = {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "OTHER"};
+
+    private boolean enabled;
+    private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        enabled = AppConfig.getBoolean("metrics.enabled", true);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+        Route route = endpoint(httpRequest.getHttpServletMapping().getPattern()).route(httpRequest.getMethod());
+
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            route.record(start, HttpServletResponse.SC_INTERNAL_SERVER_ERROR); // The container answers 500
+            throw e;
+        }
+        if (request.isAsyncStarted()) {
+            request.getAsyncContext().addListener(new CompletionListener(route, start, httpResponse));
+        } else {
+            route.record(start, httpResponse.getStatus());
+        }
+    }
+
+    private Endpoint endpoint(String pattern) {
+        Endpoint endpoint = endpoints.get(pattern);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(pattern, Endpoint::new);
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * The routes of one servlet mapping, one per HTTP method, registered as they are first used.
+     */
+    private static final class Endpoint {
+        private final String pattern;
+        private final Route[] routes = new Route[METHODS.length];
+
+        Endpoint(String pattern) {
+            this.pattern = pattern.isEmpty() ? "/" : pattern; // The context root maps to ""
+        }
+
+        Route route(String method) {
+            int index = methodIndex(method);
+            Route route = routes[index];
+            if (route == null) {
+                synchronized (this) {
+                    route = routes[index];
+                    if (route == null) {
+                        route = new Route(pattern, METHODS[index]);
+                        routes[index] = route;
+                    }
+                }
+            }
+            return route;
+        }
+
+        private static int methodIndex(String method) {
+            switch (method) {
+                case "GET":
+                    return 0;
+                case "HEAD":
+                    return 1;
+                case "POST":
+                    return 2;
+                case "PUT":
+                    return 3;
+                case "DELETE":
+                    return 4;
+                case "OPTIONS":
+                    return 5;
+                default:
+                    return 6; // Arbitrary methods share one series rather than each making a new one
+            }
+        }
+    }
+
+    /**
+     * The timer and status counters for one endpoint and method.
+     * Route objects are fully built before they are published, and their fields are final,
+     * so reading one without the Endpoint's lock is safe.
+     */
+    private static final class Route {
+        private final LatencyHistogram duration;
+        private final Counter[] statuses = new Counter[4];
+
+        Route(String endpoint, String method) {
+            duration = Metrics.histogram("films_http_request_duration_seconds",
+                    "Time from receiving a request to completing its response.", "endpoint", endpoint, "method", method);
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = Metrics.counter("films_http_responses_total", "Responses sent, by status class.",
+                        "endpoint", endpoint, "method", method, "status", (i + 2) + "xx");
+            }
+        }
+
+        void record(long start, int status) {
+            duration.recordSince(start);
+            int index = Math.min(Math.max(status / 100, 2), 5) - 2; // 1xx is counted with 2xx
+            statuses[index].increment();
+        }
+    }
+
+    /**
+     * Records an asynchronous request once its response is complete, however it ended.
+     */
+    private static final class CompletionListener implements AsyncListener {
+        private final Route route;
+        private final long start;
+        private final HttpServletResponse response;
+
+        CompletionListener(Route route, long start, HttpServletResponse response) {
+            this.route = route;
+            this.start = start;
+            this.response = response;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            route.record(start, response.getStatus());
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this); // Listeners are dropped if the request is made async again
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package filters;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client token buckets, kept lock-free with the generic cell rate algorithm (GCRA). Instead of a token count and
+ * a refill time, each client has a single number, the time its bucket will next be full (its theoretical arrival
+ * time), moved on by one token's worth with a compare-and-set for every request admitted. A request is admitted
+ * while that time is less than a burst ahead of now; otherwise the caller learns how long until it would be.
+ *
+ * At most maxClients clients are tracked, so memory stays bounded whatever addresses requests come from. A client
+ * whose bucket is full again is in the same state as one never seen, so such entries are swept out when the table
+ * fills. If it is still full, clients not yet tracked share one bucket until room frees up.
+ */
+final class RateLimiter {
+
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final long interval; // Nanoseconds per token
+    private final long tolerance; // How far ahead of now a bucket's full time may be and still admit: burst - 1 tokens
+    private final int maxClients;
+    private final ConcurrentHashMap<String, AtomicLong> clients = new ConcurrentHashMap<>();
+    private final AtomicLong overflow; // The bucket shared by untracked clients while the table is full
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long nextSweep;
+
+    /**
+     * @param perSecond Tokens added to each bucket per second: the sustained request rate.
+     * @param burst Tokens a bucket holds: how many requests a client that has been idle may send at once.
+     * @param maxClients The most clients with a bucket of their own.
+     */
+    RateLimiter(int perSecond, int burst, int maxClients) {
+        interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, perSecond);
+        tolerance = interval * (Math.max(1, burst) - 1);
+        this.maxClients = maxClients;
+        long now = System.nanoTime();
+        overflow = new AtomicLong(now);
+        nextSweep = now;
+    }
+
+    /**
+     * Takes a token from a client's bucket.
+     * @param client The client's key, e.g. its address.
+     * @param now The current System.nanoTime().
+     * @return 0 if the request is admitted; otherwise the nanoseconds until the bucket holds a token again.
+     */
+    long acquire(String client, long now) {
+        AtomicLong bucket = clients.get(client);
+        if (bucket == null) {
+            bucket = track(client, now);
+        }
+        while (true) {
+            long full = bucket.get();
+            long start = full - now > 0 ? full : now; // An idle bucket holds no more than a burst
+            long wait = start - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(full, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    private AtomicLong track(String client, long now) {
+        if (clients.size() >= maxClients) {
+            sweep(now);
+            if (clients.size() >= maxClients) {
+                return overflow;
+            }
+        }
+        AtomicLong created = new AtomicLong(now);
+        AtomicLong existing = clients.putIfAbsent(client, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Drops the buckets that are full again. Runs on one thread at a time and at most once a second, however many
+     * new clients arrive while the table is full of busy ones. A request racing with the removal of its client's
+     * bucket may be counted against a fresh one, which costs at most one extra burst.
+     */
+    private void sweep(long now) {
+        if (now - nextSweep < 0 || !sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (Iterator<Map.Entry<String, AtomicLong>> it = clients.entrySet().iterator(); it.hasNext();) {
+                if (it.next().getValue().get() - now <= 0) {
+                    it.remove();
+                }
+            }
+            nextSweep = now + SWEEP_INTERVAL_NANOS;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /** @return The number of clients with a bucket of their own. */
+    int size() {
+        return clients.size();
+    }
+}
@@ -0,0 +1,169 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * The application's metrics registry, written out in the Prometheus text exposition format (version 0.0.4).
+ *
+ * Metrics are looked up once, when a class is loaded or a new label value is first seen, and the returned
+ * histogram or counter is kept; recording then touches only that object, never this registry.
+ * Asking again for the same name and labels returns the same instance.
+ *
+ * Histograms are exported as summaries: the 0.5, 0.9, 0.99 and 0.999 quantiles in seconds, plus _sum and _count.
+ */
+public final class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_LABELS = {"0.5", "0.9", "0.99", "0.999"};
+
+    // Sorted by name, so the output is stable from one scrape to the next
+    private static final ConcurrentMap<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    // Static utility class, no instances.
+    private Metrics() {
+    }
+
+    /**
+     * Returns the latency histogram with a given name and labels, creating it if needed.
+     * @param name The metric name, e.g. "films_dao_duration_seconds".
+     * @param help One line describing the metric; only the first registration's is kept.
+     * @param labels Label names and values, alternately: "method", "getFilmById", ...
+     */
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "summary")
+                .series.computeIfAbsent(labelText(labels), k -> new LatencyHistogram());
+    }
+
+    /**
+     * Returns the counter with a given name and labels, creating it if needed.
+     * @param name The metric name, ending in "_total" by convention.
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter")
+                .series.computeIfAbsent(labelText(labels), k -> new Counter());
+    }
+
+    /**
+     * Exports a count that is kept elsewhere, such as the cache's hit count, read at each scrape.
+     * Registering the same name and labels again replaces the earlier function.
+     */
+    public static void counter(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").series.put(labelText(labels), value);
+    }
+
+    /**
+     * Exports a value that can go up and down, such as the number of idle connections, read at each scrape.
+     * Registering the same name and labels again replaces the earlier function.
+     */
+    public static void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").series.put(labelText(labels), value);
+    }
+
+    private static Family family(String name, String help, String type) {
+        Family family = FAMILIES.computeIfAbsent(name, k -> new Family(name, help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Builds the text between the braces of a series, e.g. method="getFilmById",phase="execute".
+     */
+    private static String labelText(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name, value pairs");
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                text.append(',');
+            }
+            text.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    text.append('\\').append(c);
+                } else if (c == '\n') {
+                    text.append("\\n");
+                } else {
+                    text.append(c);
+                }
+            }
+            text.append('"');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes every registered metric in the Prometheus text format.
+     * @param out Where to write; not closed.
+     * @throws IOException If writing fails.
+     */
+    public static void write(Writer out) throws IOException {
+        for (Family family : FAMILIES.values()) {
+            out.write("# HELP " + family.name + " " + family.help + "\n");
+            out.write("# TYPE " + family.name + " " + family.type + "\n");
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                String labels = series.getKey();
+                Object metric = series.getValue();
+                if (metric instanceof LatencyHistogram) {
+                    writeSummary(out, family.name, labels, (LatencyHistogram) metric);
+                } else if (metric instanceof Counter) {
+                    writeSample(out, family.name, labels, Long.toString(((Counter) metric).get()));
+                } else if (metric instanceof LongSupplier) {
+                    writeSample(out, family.name, labels, Long.toString(((LongSupplier) metric).getAsLong()));
+                } else {
+                    writeSample(out, family.name, labels, Double.toString(((DoubleSupplier) metric).getAsDouble()));
+                }
+            }
+        }
+    }
+
+    private static void writeSummary(Writer out, String name, String labels, LatencyHistogram histogram) throws IOException {
+        long count = histogram.getCount();
+        long sum = histogram.getSum();
+        String separator = labels.isEmpty() ? "" : ",";
+        for (int i = 0; i < QUANTILES.length; i++) {
+            String quantileLabels = labels + separator + "quantile=\"" + QUANTILE_LABELS[i] + "\"";
+            writeSample(out, name, quantileLabels, seconds(histogram.getValueAtQuantile(QUANTILES[i])));
+        }
+        writeSample(out, name + "_sum", labels, seconds(sum));
+        writeSample(out, name + "_count", labels, Long.toString(count));
+    }
+
+    private static void writeSample(Writer out, String name, String labels, String value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write("{" + labels + "}");
+        }
+        out.write(" " + value + "\n");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * All the series of one metric name, keyed by their label text.
+     */
+    private static final class Family {
+        private final String name;
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
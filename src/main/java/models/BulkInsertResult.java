@@ -0,0 +1,152 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jakarta.xml.bind.annotation.XmlElement;
+import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlType;
+
+/**
+ * Outcome of a bulk film insert: the generated ID of every film that was stored,
+ * and an error for every film that was not, both identified by the film's position in the request.
+ */
+@XmlRootElement(name = "bulkInsertResult")
+@XmlType(propOrder = { "received", "inserted", "created", "errors" })
+public class BulkInsertResult {
+    private int received;
+    private int inserted;
+    private List<Created> created = new ArrayList<>();
+    private List<Failure> errors = new ArrayList<>();
+
+    /**
+     * Records that the film at the given position was stored with the given ID.
+     */
+    public void addCreated(int index, int id) {
+        created.add(new Created(index, id));
+        inserted++;
+    }
+
+    /**
+     * Records that the film at the given position was rejected.
+     */
+    public void addError(int index, String message) {
+        errors.add(new Failure(index, message));
+    }
+
+    @XmlElement
+    public int getReceived() {
+        return received;
+    }
+
+    public void setReceived(int received) {
+        this.received = received;
+    }
+
+    @XmlElement
+    public int getInserted() {
+        return inserted;
+    }
+
+    public void setInserted(int inserted) {
+        this.inserted = inserted;
+    }
+
+    @XmlElement(name = "film")
+    public List<Created> getCreated() {
+        return created;
+    }
+
+    public void setCreated(List<Created> created) {
+        this.created = created;
+    }
+
+    @XmlElement(name = "error")
+    public List<Failure> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<Failure> errors) {
+        this.errors = errors;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkInsertResult [received=" + received + ", inserted=" + inserted + ", created=" + created
+                + ", errors=" + errors + "]";
+    }
+
+    /**
+     * A stored film: its position in the request and its generated ID.
+     */
+    public static class Created {
+        private int index;
+        private int id;
+
+        public Created() {
+        }
+
+        public Created(int index, int id) {
+            this.index = index;
+            this.id = id;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public void setId(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return index + "=" + id;
+        }
+    }
+
+    /**
+     * A rejected film: its position in the request and why it was rejected.
+     */
+    public static class Failure {
+        private int index;
+        private String message;
+
+        public Failure() {
+        }
+
+        public Failure(int index, String message) {
+            this.index = index;
+            this.message = message;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public void setMessage(String message) {
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return index + ": " + message;
+        }
+    }
+}
@@ -40,6 +40,13 @@ public class Film {
         this.id = id;
     }
 
+    /**
+     * Constructs a copy of another Film.
+     */
+    public Film(Film other) {
+        this(other.id, other.title, other.year, other.director, other.stars, other.review);
+    }
+
     // Getters and Setters for all properties.
     public int getId() {
         return id;
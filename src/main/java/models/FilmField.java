@@ -0,0 +1,85 @@
+package models;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.StringJoiner;
+
+/**
+ * The fields of a film, as named in the '?fields=' query parameter, in JSON and XML output, and as database columns.
+ * A set of fields is a projection: only those columns are read and only those fields are written.
+ */
+public enum FilmField {
+    ID("id"),
+    TITLE("title"),
+    YEAR("year"),
+    DIRECTOR("director"),
+    STARS("stars"),
+    REVIEW("review");
+
+    /** Every field; the projection used when none is asked for. */
+    public static final Set<FilmField> ALL = Collections.unmodifiableSet(EnumSet.allOf(FilmField.class));
+
+    private final String name;
+
+    FilmField(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return The field's name in requests, responses and the films table.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Parses a comma-separated list of field names, e.g. "title,year".
+     * The ID is always included, since paging, caching and ETags depend on it.
+     * @param list The value of the 'fields' parameter; null or blank means every field.
+     * @return The fields, in declaration order.
+     * @throws IllegalArgumentException If a name is not a film field.
+     */
+    public static Set<FilmField> parse(String list) {
+        if (list == null || list.trim().isEmpty()) {
+            return ALL;
+        }
+        EnumSet<FilmField> fields = EnumSet.of(ID);
+        for (String part : list.split(",")) {
+            String name = part.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            fields.add(forName(name));
+        }
+        return fields.size() == ALL.size() ? ALL : Collections.unmodifiableSet(fields);
+    }
+
+    private static FilmField forName(String name) {
+        for (FilmField field : values()) {
+            if (field.name.equalsIgnoreCase(name)) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field: " + name);
+    }
+
+    /**
+     * @return true if a projection holds every field, so films can be written whole.
+     */
+    public static boolean isAll(Set<FilmField> fields) {
+        return fields.size() == ALL.size();
+    }
+
+    /**
+     * Joins field names, e.g. "id,title,year" for a column list or an ETag part.
+     * @param separator What to put between names.
+     */
+    public static String join(Set<FilmField> fields, String separator) {
+        StringJoiner joined = new StringJoiner(separator);
+        for (FilmField field : fields) {
+            joined.add(field.name);
+        }
+        return joined.toString();
+    }
+}
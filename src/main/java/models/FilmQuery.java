@@ -0,0 +1,182 @@
+package models;
+
+/**
+ * Which films a listing returns and in what order: optional filters on year range, exact director and title prefix,
+ * a sort order, and for keyset pages the position of the last film already seen.
+ * Instances are immutable; each with... method returns a changed copy.
+ */
+public final class FilmQuery {
+
+    /**
+     * The orders a listing can be sorted in. Films with the same key are ordered by ID, so every order is total
+     * and pages never overlap.
+     */
+    public enum Sort {
+        ID("id"),
+        TITLE("title"),
+        YEAR("year");
+
+        private final String name;
+
+        Sort(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The sort's name in the '?sort=' parameter, which is also its column in the films table.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The film's key in this order: its ID, title or year.
+         */
+        public Object keyOf(Film film) {
+            switch (this) {
+                case TITLE:
+                    return film.getTitle();
+                case YEAR:
+                    return film.getYear();
+                default:
+                    return film.getId();
+            }
+        }
+
+        private static Sort forName(String name) {
+            for (Sort sort : values()) {
+                if (sort.name.equalsIgnoreCase(name)) {
+                    return sort;
+                }
+            }
+            throw new IllegalArgumentException("Unknown sort: " + name + ". Use id, title or year, with '-' for descending.");
+        }
+    }
+
+    /** Every film in ID order: the listing when no filter or sort is asked for. */
+    public static final FilmQuery ALL = new FilmQuery(null, null, null, null, Sort.ID, false, 0, null);
+
+    private final Integer yearFrom;
+    private final Integer yearTo;
+    private final String director;
+    private final String titlePrefix;
+    private final Sort sort;
+    private final boolean descending;
+    private final int afterId; // 0 unless this is a keyset page
+    private final Object afterKey; // The sort key of the film with afterId; null for ID order
+
+    private FilmQuery(Integer yearFrom, Integer yearTo, String director, String titlePrefix, Sort sort,
+                      boolean descending, int afterId, Object afterKey) {
+        this.yearFrom = yearFrom;
+        this.yearTo = yearTo;
+        this.director = director;
+        this.titlePrefix = titlePrefix;
+        this.sort = sort;
+        this.descending = descending;
+        this.afterId = afterId;
+        this.afterKey = afterKey;
+    }
+
+    /**
+     * Keeps films released in a range of years.
+     * @param from The first year, or null for no lower bound.
+     * @param to The last year, or null for no upper bound.
+     */
+    public FilmQuery withYears(Integer from, Integer to) {
+        return new FilmQuery(from, to, director, titlePrefix, sort, descending, afterId, afterKey);
+    }
+
+    /**
+     * Keeps the films of one director, matched exactly.
+     * @param name The director, or null for any.
+     */
+    public FilmQuery withDirector(String name) {
+        return new FilmQuery(yearFrom, yearTo, name, titlePrefix, sort, descending, afterId, afterKey);
+    }
+
+    /**
+     * Keeps films whose title starts with the given text, compared as the database compares titles
+     * (case-insensitively under MySQL's default collation).
+     * @param prefix The start of the title, or null for any.
+     */
+    public FilmQuery withTitlePrefix(String prefix) {
+        return new FilmQuery(yearFrom, yearTo, director, prefix == null || prefix.isEmpty() ? null : prefix, sort,
+                descending, afterId, afterKey);
+    }
+
+    /**
+     * Sets the order, e.g. "title", or "-year" for newest first.
+     * @param param The value of the 'sort' parameter; null or blank means ID order.
+     * @throws IllegalArgumentException If it names something that is not a sort.
+     */
+    public FilmQuery sortedBy(String param) {
+        if (param == null || param.trim().isEmpty()) {
+            return sortedBy(Sort.ID, false);
+        }
+        String name = param.trim();
+        boolean desc = name.startsWith("-");
+        return sortedBy(Sort.forName(desc ? name.substring(1) : name), desc);
+    }
+
+    public FilmQuery sortedBy(Sort order, boolean desc) {
+        return new FilmQuery(yearFrom, yearTo, director, titlePrefix, order, desc, afterId, afterKey);
+    }
+
+    /**
+     * Starts the listing after a film, for keyset pagination.
+     * @param id The ID of the last film on the previous page; 0 starts at the beginning.
+     * @param key That film's key in this query's sort order, as returned by Sort.keyOf; ignored for ID order.
+     */
+    public FilmQuery after(int id, Object key) {
+        return new FilmQuery(yearFrom, yearTo, director, titlePrefix, sort, descending, id,
+                sort == Sort.ID || id == 0 ? null : key);
+    }
+
+    /**
+     * @return true if no filter is set and films are in ascending ID order, which FilmDao can answer from its cache.
+     */
+    public boolean isPlain() {
+        return !hasFilters() && sort == Sort.ID && !descending;
+    }
+
+    public boolean hasFilters() {
+        return yearFrom != null || yearTo != null || director != null || titlePrefix != null;
+    }
+
+    /** @return true if this is a keyset page, which starts after the film given to after(). */
+    public boolean isAfter() {
+        return afterId != 0;
+    }
+
+    public Integer getYearFrom() {
+        return yearFrom;
+    }
+
+    public Integer getYearTo() {
+        return yearTo;
+    }
+
+    public String getDirector() {
+        return director;
+    }
+
+    public String getTitlePrefix() {
+        return titlePrefix;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getAfterId() {
+        return afterId;
+    }
+
+    public Object getAfterKey() {
+        return afterKey;
+    }
+}
@@ -0,0 +1,110 @@
+package models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import jakarta.xml.bind.annotation.XmlAccessOrder;
+import jakarta.xml.bind.annotation.XmlAccessType;
+import jakarta.xml.bind.annotation.XmlAccessorOrder;
+import jakarta.xml.bind.annotation.XmlAccessorType;
+import jakarta.xml.bind.annotation.XmlType;
+
+/**
+ * The requested fields of a film, for responses to '?fields='.
+ * Fields that were not requested are null, and both Gson and JAXB leave null fields out, so the output has
+ * the same shape as a whole Film with the other fields removed: the same JSON field order, the same
+ * alphabetical XML elements and the same 'film' XML type name.
+ */
+@XmlType(name = "film")
+@XmlAccessorType(XmlAccessType.FIELD)
+@XmlAccessorOrder(XmlAccessOrder.ALPHABETICAL)
+public class PartialFilm {
+    // Declared in Film's order, which is the order Gson writes them in.
+    private Integer id;
+    private String title;
+    private Integer year;
+    private String director;
+    private String stars;
+    private String review;
+
+    /**
+     * Default constructor for JAXB.
+     */
+    public PartialFilm() {
+    }
+
+    /**
+     * Copies the requested fields of a film.
+     * @param film The film to copy from.
+     * @param fields The fields to keep.
+     */
+    public PartialFilm(Film film, Set<FilmField> fields) {
+        id = fields.contains(FilmField.ID) ? film.getId() : null;
+        title = fields.contains(FilmField.TITLE) ? film.getTitle() : null;
+        year = fields.contains(FilmField.YEAR) ? film.getYear() : null;
+        director = fields.contains(FilmField.DIRECTOR) ? film.getDirector() : null;
+        stars = fields.contains(FilmField.STARS) ? film.getStars() : null;
+        review = fields.contains(FilmField.REVIEW) ? film.getReview() : null;
+    }
+
+    /**
+     * Copies the requested fields of each film in a list.
+     */
+    public static List<PartialFilm> of(List<Film> films, Set<FilmField> fields) {
+        List<PartialFilm> partials = new ArrayList<>(films.size());
+        for (Film film : films) {
+            partials.add(new PartialFilm(film, fields));
+        }
+        return partials;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public Integer getYear() {
+        return year;
+    }
+
+    public String getDirector() {
+        return director;
+    }
+
+    public String getStars() {
+        return stars;
+    }
+
+    public String getReview() {
+        return review;
+    }
+
+    /**
+     * The same form as Film.toString(), listing only the requested fields.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Film [");
+        append(text, "id", id);
+        append(text, "title", title);
+        append(text, "year", year);
+        append(text, "director", director);
+        append(text, "stars", stars);
+        append(text, "review", review);
+        return text.append(']').toString();
+    }
+
+    private static void append(StringBuilder text, String name, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (text.charAt(text.length() - 1) != '[') {
+            text.append(", ");
+        }
+        text.append(name).append('=').append(value);
+    }
+}
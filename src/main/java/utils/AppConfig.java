@@ -0,0 +1,90 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Read-only access to application settings.
+ * A key is resolved from a JVM system property first, then from an environment variable
+ * (upper-cased, with dots replaced by underscores, e.g. db.pool.maxSize -> DB_POOL_MAXSIZE),
+ * and finally from the app.properties file on the classpath.
+ */
+public final class AppConfig {
+
+    private static final String RESOURCE_NAME = "/app.properties";
+    private static final Properties FILE_PROPERTIES = loadFileProperties();
+
+    // Static utility class, no instances.
+    private AppConfig() {
+    }
+
+    /**
+     * Loads app.properties from the classpath, returning empty properties if the file is absent.
+     */
+    private static Properties loadFileProperties() {
+        Properties properties = new Properties();
+        try (InputStream in = AppConfig.class.getResourceAsStream(RESOURCE_NAME)) {
+            if (in != null) {
+                properties.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + RESOURCE_NAME, e);
+        }
+        return properties;
+    }
+
+    /**
+     * Converts a dotted property key into its environment variable form.
+     */
+    private static String toEnvName(String key) {
+        return key.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_");
+    }
+
+    /**
+     * Looks up a setting.
+     * @param key The dotted property key.
+     * @param defaultValue The value returned when the key is not configured anywhere.
+     * @return The configured value, or the default.
+     */
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(toEnvName(key));
+        }
+        if (value == null) {
+            value = FILE_PROPERTIES.getProperty(key);
+        }
+        return value != null ? value.trim() : defaultValue;
+    }
+
+    /**
+     * Looks up a setting that has no sensible default.
+     * @param key The dotted property key.
+     * @return The configured value.
+     * @throws IllegalStateException If the key is not configured.
+     */
+    public static String require(String key) {
+        String value = get(key, null);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalStateException("Missing required setting: " + key);
+        }
+        return value;
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        return value == null || value.isEmpty() ? defaultValue : Long.parseLong(value);
+    }
+
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key, null);
+        return value == null || value.isEmpty() ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,106 @@
+package utils;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Conditional GET support: sets ETag, Last-Modified and Cache-Control on a response and answers
+ * If-None-Match / If-Modified-Since with 304 Not Modified when the client's copy is still current.
+ *
+ * Validators are built from version counters rather than from the response body, so a 304 can be sent
+ * before the database or the serializer is touched.
+ * Cache-Control is read from http.cacheControl.{endpoint}, falling back to http.cacheControl.
+ */
+public final class ConditionalGet {
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * Builds a strong ETag from the parts that identify one version of a representation.
+     * @param parts For example the run epoch, a version counter and the response format.
+     * @return The quoted ETag.
+     */
+    public static String etag(Object... parts) {
+        StringBuilder tag = new StringBuilder("\"");
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                tag.append('-');
+            }
+            tag.append(parts[i]);
+        }
+        return tag.append('"').toString();
+    }
+
+    /**
+     * A short token for the format a response will be written in, so JSON and XML copies of a resource get different ETags.
+     * @param format The value of the Accept header, possibly null.
+     */
+    public static String formatTag(String format) {
+        String contentType = RequestUtils.getContentType(format == null ? "" : format);
+        return contentType.substring(contentType.indexOf('/') + 1);
+    }
+
+    /**
+     * Sets the validator and caching headers and checks the request's preconditions against them.
+     * If-None-Match takes precedence over If-Modified-Since, as RFC 9110 requires.
+     * @param request The GET request.
+     * @param response The response; on a match its status is set to 304 and nothing more should be written.
+     * @param etag The current ETag of the resource, from etag().
+     * @param lastModified The time the resource last changed, in milliseconds.
+     * @param endpoint The name used to look up the Cache-Control setting, e.g. "films".
+     * @return true if a 304 was set and the caller must not write a body.
+     */
+    public static boolean notModified(HttpServletRequest request, HttpServletResponse response,
+                                      String etag, long lastModified, String endpoint) {
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", cacheControl(endpoint));
+        response.addHeader("Vary", "Accept"); // The same URL has a JSON, XML, CBOR and text representation
+
+        boolean notModified;
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            notModified = matches(ifNoneMatch, etag);
+        } else {
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = request.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                ifModifiedSince = -1; // An unparseable date is ignored, as if it were absent
+            }
+            // HTTP dates have one-second resolution
+            notModified = ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+        if (notModified) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    /**
+     * @return The Cache-Control value configured for an endpoint.
+     */
+    public static String cacheControl(String endpoint) {
+        return AppConfig.get("http.cacheControl." + endpoint, AppConfig.get("http.cacheControl", "no-cache"));
+    }
+
+    /**
+     * Weak comparison of an If-None-Match list against the current ETag, as used for GET.
+     */
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+package utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+import javax.servlet.ServletResponse;
+
+/**
+ * A writer for a servlet response that takes the response's own writer only when text is first written.
+ * Until then the servlet may still send a binary body through getOutputStream() instead, so handlers that
+ * open a writer up front for their error messages can also answer in CBOR.
+ * Once the output stream is in use, text written here is dropped and the PrintWriter's error flag is set.
+ */
+public final class DeferredWriter extends Writer {
+
+    private final ServletResponse response;
+    private Writer out; // The response's writer, once taken
+
+    private DeferredWriter(ServletResponse response) {
+        this.response = response;
+    }
+
+    /**
+     * @return A PrintWriter for the response that has not yet taken the response's writer.
+     */
+    public static PrintWriter of(ServletResponse response) {
+        return new PrintWriter(new DeferredWriter(response));
+    }
+
+    private Writer out() throws IOException {
+        if (out == null) {
+            try {
+                out = response.getWriter();
+            } catch (IllegalStateException e) {
+                throw new IOException("The response body has been sent through its output stream", e);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        out().write(cbuf, off, len);
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        out().write(str, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Closes the response's writer if it was taken; otherwise leaves the response as it is.
+     */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,615 @@
+package utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import models.Film;
+import models.FilmField;
+
+/**
+ * The binary wire format for films: CBOR (RFC 8949), negotiated as application/cbor.
+ * The schema, in CDDL, is published with the application at /schema/film.cddl. In short:
+ * a film is a map from small integer keys to its fields (1 id, 2 title, 3 year, 4 director, 5 stars, 6 review),
+ * with absent fields left out; a list is an array of films; a cursor or ID-lookup page is a map of
+ * 1 films, 2 next token and 3 missing IDs.
+ *
+ * Integer keys and length-prefixed strings make a film a few bytes smaller than its JSON and let both sides skip
+ * quoting, escaping and number parsing. Encoding is deterministic: shortest lengths and keys in ascending order.
+ * The encoder writes into a byte buffer kept per thread, as FilmJsonCodec does.
+ */
+public final class FilmCbor {
+
+    public static final String MEDIA_TYPE = "application/cbor";
+
+    // Map keys of a film, in the order they are written.
+    static final int ID = 1;
+    static final int TITLE = 2;
+    static final int YEAR = 3;
+    static final int DIRECTOR = 4;
+    static final int STARS = 5;
+    static final int REVIEW = 6;
+    // Map keys of a page.
+    static final int PAGE_OBJECTS = 1;
+    static final int PAGE_NEXT = 2;
+    static final int PAGE_MISSING = 3;
+
+    // Major types (RFC 8949 section 3.1), already shifted into the initial byte's top three bits.
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1 << 5;
+    private static final int BYTES = 2 << 5;
+    private static final int TEXT = 3 << 5;
+    private static final int ARRAY = 4 << 5;
+    private static final int MAP = 5 << 5;
+    private static final int TAG = 6 << 5;
+    private static final int SIMPLE = 7 << 5;
+    private static final int NULL = 0xf6;
+    private static final int BREAK = 0xff;
+    private static final int INDEFINITE = 31; // Additional information for indefinite-length items
+
+    /** First byte of an indefinite-length array; the films of a streamed page follow, then END_OF_STREAM. */
+    public static final int START_OF_STREAM = ARRAY | INDEFINITE;
+    /** The "break" byte that ends an indefinite-length array. */
+    public static final int END_OF_STREAM = BREAK;
+
+    // Longest string accepted when decoding, so a bad length prefix cannot make us allocate without bound.
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+    // Deepest nesting skipped in an unknown field, so a run of array or tag bytes cannot overflow the stack.
+    private static final int MAX_DEPTH = 64;
+    // A buffer grown beyond this by a large page is dropped after use rather than kept by the thread.
+    private static final int MAX_RETAINED = 1 << 20;
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    // Static utility class, no instances.
+    private FilmCbor() {
+    }
+
+    /**
+     * Encodes the given fields of a film.
+     */
+    public static byte[] encode(Film film, Set<FilmField> fields) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.film(film, fields);
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Encodes the given fields of each film as an array.
+     */
+    public static byte[] encode(List<Film> films, Set<FilmField> fields) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.films(films, fields);
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Encodes a page: its films, and its next token and missing IDs when they are set.
+     */
+    public static byte[] encode(ObjectListWrapper<Film> page, Set<FilmField> fields) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            List<Film> films = page.getObjects() != null ? page.getObjects() : new ArrayList<>();
+            buffer.head(MAP, 1 + (page.getNext() != null ? 1 : 0) + (page.getMissing() != null ? 1 : 0));
+            buffer.head(UNSIGNED, PAGE_OBJECTS);
+            buffer.films(films, fields);
+            if (page.getNext() != null) {
+                buffer.head(UNSIGNED, PAGE_NEXT);
+                buffer.text(page.getNext());
+            }
+            if (page.getMissing() != null) {
+                buffer.head(UNSIGNED, PAGE_MISSING);
+                buffer.head(ARRAY, page.getMissing().size());
+                for (Integer id : page.getMissing()) {
+                    buffer.integer(id);
+                }
+            }
+            return buffer.toByteArray();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Writes one film to a stream, as an element of a streamed page.
+     */
+    public static void write(Film film, Set<FilmField> fields, OutputStream out) throws IOException {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.film(film, fields);
+            out.write(buffer.bytes, 0, buffer.count);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static void release(Buffer buffer) {
+        if (buffer.bytes.length > MAX_RETAINED) {
+            BUFFERS.remove();
+        } else {
+            buffer.count = 0;
+        }
+    }
+
+    /**
+     * Decodes one film, reading the stream to its end.
+     * @return The film, or null if the stream is empty.
+     * @throws IOException If reading fails or the input is not a single film as the schema describes it.
+     */
+    public static Film decodeFilm(InputStream in) throws IOException {
+        Decoder decoder = new Decoder(in);
+        if (decoder.atEnd()) {
+            return null;
+        }
+        Film film = decoder.film();
+        if (!decoder.atEnd()) {
+            throw decoder.error("Unexpected data after the film");
+        }
+        return film;
+    }
+
+    /**
+     * Decodes a list of films, whether sent with a length or streamed, reading the stream to its end.
+     * @throws IOException If reading fails or the input is not a film list as the schema describes it.
+     */
+    public static List<Film> decodeFilms(InputStream in) throws IOException {
+        Decoder decoder = new Decoder(in);
+        List<Film> films = decoder.films();
+        if (!decoder.atEnd()) {
+            throw decoder.error("Unexpected data after the film list");
+        }
+        return films;
+    }
+
+    /**
+     * A growable byte buffer with the CBOR items a film needs.
+     */
+    private static final class Buffer {
+        byte[] bytes = new byte[8192];
+        int count;
+
+        void films(List<Film> films, Set<FilmField> fields) {
+            head(ARRAY, films.size());
+            for (Film film : films) {
+                film(film, fields);
+            }
+        }
+
+        void film(Film film, Set<FilmField> fields) {
+            boolean title = film.getTitle() != null && fields.contains(FilmField.TITLE);
+            boolean year = fields.contains(FilmField.YEAR);
+            boolean director = film.getDirector() != null && fields.contains(FilmField.DIRECTOR);
+            boolean stars = film.getStars() != null && fields.contains(FilmField.STARS);
+            boolean review = film.getReview() != null && fields.contains(FilmField.REVIEW);
+            head(MAP, 1 + (title ? 1 : 0) + (year ? 1 : 0) + (director ? 1 : 0) + (stars ? 1 : 0) + (review ? 1 : 0));
+            head(UNSIGNED, ID);
+            integer(film.getId());
+            if (title) {
+                head(UNSIGNED, TITLE);
+                text(film.getTitle());
+            }
+            if (year) {
+                head(UNSIGNED, YEAR);
+                integer(film.getYear());
+            }
+            if (director) {
+                head(UNSIGNED, DIRECTOR);
+                text(film.getDirector());
+            }
+            if (stars) {
+                head(UNSIGNED, STARS);
+                text(film.getStars());
+            }
+            if (review) {
+                head(UNSIGNED, REVIEW);
+                text(film.getReview());
+            }
+        }
+
+        void integer(int value) {
+            if (value >= 0) {
+                head(UNSIGNED, value);
+            } else {
+                head(NEGATIVE, -1L - value); // CBOR stores -1 - n for negative n
+            }
+        }
+
+        /**
+         * Writes an item's initial byte and its argument in the shortest form.
+         */
+        void head(int majorType, long argument) {
+            ensure(9);
+            if (argument < 24) {
+                bytes[count++] = (byte) (majorType | argument);
+            } else if (argument < 0x100) {
+                bytes[count++] = (byte) (majorType | 24);
+                bytes[count++] = (byte) argument;
+            } else if (argument < 0x10000) {
+                bytes[count++] = (byte) (majorType | 25);
+                bytes[count++] = (byte) (argument >> 8);
+                bytes[count++] = (byte) argument;
+            } else {
+                bytes[count++] = (byte) (majorType | 26);
+                bytes[count++] = (byte) (argument >> 24);
+                bytes[count++] = (byte) (argument >> 16);
+                bytes[count++] = (byte) (argument >> 8);
+                bytes[count++] = (byte) argument;
+            }
+        }
+
+        /**
+         * Writes a text string: its UTF-8 length, then its UTF-8 bytes.
+         * Most text is ASCII, whose length is known up front, so that is tried first in a single pass.
+         */
+        void text(String s) {
+            int length = s.length();
+            int start = count;
+            head(TEXT, length);
+            ensure(length);
+            byte[] b = bytes;
+            int n = count;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c >= 0x80) {
+                    count = start; // Not ASCII after all: start again, measuring the UTF-8 length first
+                    utf8Text(s);
+                    return;
+                }
+                b[n++] = (byte) c;
+            }
+            count = n;
+        }
+
+        private void utf8Text(String s) {
+            int length = s.length();
+            int utf8Length = 0;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    utf8Length++;
+                } else if (c < 0x800) {
+                    utf8Length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    utf8Length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    utf8Length++; // Written as '?'
+                } else {
+                    utf8Length += 3;
+                }
+            }
+            head(TEXT, utf8Length);
+            ensure(utf8Length);
+            byte[] b = bytes;
+            int n = count;
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    b[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[n++] = (byte) (0xc0 | (c >> 6));
+                    b[n++] = (byte) (0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[n++] = (byte) (0xf0 | (cp >> 18));
+                    b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    b[n++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    b[n++] = '?'; // An unpaired surrogate has no UTF-8 form; String.getBytes writes '?' too
+                } else {
+                    b[n++] = (byte) (0xe0 | (c >> 12));
+                    b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    b[n++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            count = n;
+        }
+
+        void ensure(int extra) {
+            if (count + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, count + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, count);
+        }
+    }
+
+    /**
+     * Reads films from a stream through a small buffer of its own.
+     */
+    private static final class Decoder {
+        private final InputStream in;
+        private final byte[] chunk = new byte[4096];
+        private int pos;
+        private int limit;
+        private long offset; // Bytes consumed before the current chunk, for error messages
+
+        Decoder(InputStream in) {
+            this.in = in;
+        }
+
+        List<Film> films() throws IOException {
+            int initial = readByte();
+            if ((initial & 0xe0) != ARRAY) {
+                throw error("Expected an array of films");
+            }
+            List<Film> films = new ArrayList<>();
+            if ((initial & 0x1f) == INDEFINITE) {
+                while (peekByte() != BREAK) {
+                    films.add(film());
+                }
+                pos++;
+            } else {
+                long size = argument(initial);
+                for (long i = 0; i < size; i++) {
+                    films.add(film());
+                }
+            }
+            return films;
+        }
+
+        Film film() throws IOException {
+            int initial = readByte();
+            if ((initial & 0xe0) != MAP) {
+                throw error("Expected a film map");
+            }
+            boolean indefinite = (initial & 0x1f) == INDEFINITE;
+            long size = indefinite ? Long.MAX_VALUE : argument(initial);
+            Film film = new Film();
+            for (long i = 0; i < size; i++) {
+                if (indefinite && peekByte() == BREAK) {
+                    pos++;
+                    break;
+                }
+                int keyByte = readByte();
+                if ((keyByte & 0xe0) != UNSIGNED) {
+                    skipRest(keyByte, 0); // Not one of our keys; skip it and its value
+                    skip(0);
+                    continue;
+                }
+                long key = argument(keyByte);
+                if (key == ID) {
+                    film.setId(integer(film.getId()));
+                } else if (key == TITLE) {
+                    film.setTitle(text());
+                } else if (key == YEAR) {
+                    film.setYear(integer(film.getYear()));
+                } else if (key == DIRECTOR) {
+                    film.setDirector(text());
+                } else if (key == STARS) {
+                    film.setStars(text());
+                } else if (key == REVIEW) {
+                    film.setReview(text());
+                } else {
+                    skip(0); // A field added by a newer schema
+                }
+            }
+            return film;
+        }
+
+        /**
+         * Reads an int field; null leaves it as it is.
+         */
+        private int integer(int current) throws IOException {
+            int initial = readByte();
+            if (initial == NULL) {
+                return current;
+            }
+            int major = initial & 0xe0;
+            if (major != UNSIGNED && major != NEGATIVE) {
+                throw error("Expected an integer");
+            }
+            long value = argument(initial);
+            if (major == NEGATIVE) {
+                value = -1 - value;
+            }
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                throw error("Integer out of range: " + value);
+            }
+            return (int) value;
+        }
+
+        /**
+         * Reads a text string field, or null.
+         */
+        private String text() throws IOException {
+            int initial = readByte();
+            if (initial == NULL) {
+                return null;
+            }
+            if ((initial & 0xe0) != TEXT) {
+                throw error("Expected a text string");
+            }
+            if ((initial & 0x1f) == INDEFINITE) {
+                // Chunked text: concatenate the definite-length chunks up to the break. Chunks cannot be chunked
+                // themselves (RFC 8949, 3.2.3).
+                StringBuilder text = new StringBuilder();
+                while (peekByte() != BREAK) {
+                    int chunkByte = readByte();
+                    if ((chunkByte & 0xe0) != TEXT || (chunkByte & 0x1f) == INDEFINITE) {
+                        throw error("Expected a definite-length text chunk");
+                    }
+                    text.append(definiteText(chunkByte));
+                }
+                pos++;
+                return text.toString();
+            }
+            return definiteText(initial);
+        }
+
+        /**
+         * Reads the rest of a definite-length text string whose initial byte has been read.
+         */
+        private String definiteText(int initial) throws IOException {
+            long length = argument(initial);
+            if (length > MAX_STRING_BYTES) {
+                throw error("Text string too long: " + length + " bytes");
+            }
+            int n = (int) length;
+            if (limit - pos >= n) {
+                String s = new String(chunk, pos, n, StandardCharsets.UTF_8);
+                pos += n;
+                return s;
+            }
+            byte[] bytes = new byte[n];
+            int copied = limit - pos;
+            System.arraycopy(chunk, pos, bytes, 0, copied);
+            pos = limit;
+            while (copied < n) {
+                int read = in.read(bytes, copied, n - copied);
+                if (read < 0) {
+                    throw error("Unexpected end of input in a text string");
+                }
+                copied += read;
+                offset += read;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Skips one complete item of any type.
+         * @param depth How many arrays, maps and tags the item is nested in, counted from the field being skipped.
+         */
+        private void skip(int depth) throws IOException {
+            skipRest(readByte(), depth);
+        }
+
+        /**
+         * Skips the rest of an item whose initial byte has been read.
+         */
+        private void skipRest(int initial, int depth) throws IOException {
+            if (depth > MAX_DEPTH) {
+                throw error("Nested more than " + MAX_DEPTH + " levels deep");
+            }
+            int major = initial & 0xe0;
+            boolean indefinite = (initial & 0x1f) == INDEFINITE;
+            if (indefinite && major != UNSIGNED && major != NEGATIVE && major != TAG) {
+                if (major == SIMPLE) {
+                    throw error("Unexpected break");
+                }
+                while (peekByte() != BREAK) {
+                    skip(depth + 1);
+                }
+                pos++;
+                return;
+            }
+            long argument = argument(initial);
+            switch (major) {
+                case BYTES:
+                case TEXT:
+                    skipBytes(argument);
+                    break;
+                case ARRAY:
+                    for (long i = 0; i < argument; i++) {
+                        skip(depth + 1);
+                    }
+                    break;
+                case MAP:
+                    for (long i = 0; i < argument; i++) {
+                        skip(depth + 1);
+                        skip(depth + 1);
+                    }
+                    break;
+                case TAG:
+                    skip(depth + 1); // The tagged item
+                    break;
+                default:
+                    break; // Integers and simple values are all argument
+            }
+        }
+
+        /**
+         * Reads the argument that follows an initial byte: the value, length or count it carries.
+         */
+        private long argument(int initial) throws IOException {
+            int info = initial & 0x1f;
+            if (info < 24) {
+                return info;
+            }
+            int size;
+            switch (info) {
+                case 24:
+                    size = 1;
+                    break;
+                case 25:
+                    size = 2;
+                    break;
+                case 26:
+                    size = 4;
+                    break;
+                case 27:
+                    size = 8;
+                    break;
+                default:
+                    throw error("Invalid additional information " + info);
+            }
+            long value = 0;
+            for (int i = 0; i < size; i++) {
+                value = (value << 8) | readByte();
+            }
+            if (value < 0) {
+                throw error("Argument out of range");
+            }
+            return value;
+        }
+
+        private void skipBytes(long n) throws IOException {
+            while (n > 0) {
+                if (pos == limit && !fill()) {
+                    throw error("Unexpected end of input");
+                }
+                int step = (int) Math.min(n, limit - pos);
+                pos += step;
+                n -= step;
+            }
+        }
+
+        boolean atEnd() throws IOException {
+            return pos == limit && !fill();
+        }
+
+        private int peekByte() throws IOException {
+            if (pos == limit && !fill()) {
+                throw error("Unexpected end of input");
+            }
+            return chunk[pos] & 0xff;
+        }
+
+        private int readByte() throws IOException {
+            int b = peekByte();
+            pos++;
+            return b;
+        }
+
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int n = in.read(chunk, 0, chunk.length);
+            if (n <= 0) {
+                return false;
+            }
+            limit = n;
+            return true;
+        }
+
+        IOException error(String message) {
+            return new IOException("Malformed film CBOR at byte " + (offset + pos) + ": " + message);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import dao.FilmChangeListener;
+import dao.FilmDao;
+import models.Film;
+
+/**
+ * The most recent writes made through FilmDao, as a numbered sequence of change events for the /films/changes
+ * stream (see controllers.FilmChangesServlet). Each insert, update and delete gets the next sequence number and is
+ * encoded once, as a ready-to-send Server-Sent Events frame shared by every subscriber:
+ *
+ *   id: 1700000000000-42
+ *   event: update
+ *   data: {"seq":42,"id":7,"film":{...}}
+ *
+ * Deletes carry only the ID. The event ID is the feed's epoch (the time it started) and the sequence number, so a
+ * client resuming with Last-Event-ID after a restart is recognised as having missed changes.
+ *
+ * The last changes.bufferSize events are kept in a ring, which is how far back a client can resume. A client that
+ * asks for older events, or falls that far behind, gets a 'reset' event instead: it should re-read the listing and
+ * carry on from the reset's sequence number.
+ *
+ * Only writes made on this node are seen. Sequence numbers follow the order in which FilmDao reports writes, which
+ * for concurrent writes to the same film may differ from the order they committed in; a consumer that needs the
+ * stored row can read /films/{id}.
+ */
+public final class FilmChangeFeed implements FilmChangeListener {
+
+    private final boolean enabled;
+    private final long epoch = System.currentTimeMillis();
+    private final Change[] ring;
+    private long latest; // Sequence number of the newest change; guarded by this
+    private final List<Runnable> watchers = new CopyOnWriteArrayList<>();
+    private final LongAdder resets = new LongAdder();
+
+    private FilmChangeFeed(FilmDao dao) {
+        enabled = AppConfig.getBoolean("changes.enabled", true);
+        ring = new Change[Math.max(1, AppConfig.getInt("changes.bufferSize", 10000))];
+        if (enabled) {
+            dao.addChangeListener(this);
+        }
+    }
+
+    /**
+     * Holds the single feed, registered with FilmDao on first use. AppContextListener creates it on startup, so
+     * changes are kept from then on rather than from the first subscriber.
+     */
+    private static class SingletonHolder {
+        private static final FilmChangeFeed INSTANCE = new FilmChangeFeed(FilmDao.getInstance());
+    }
+
+    public static FilmChangeFeed getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Registers a callback run after each new change, on the writing thread, so it must only hand the work on.
+     */
+    public void watch(Runnable watcher) {
+        watchers.add(watcher);
+    }
+
+    public void unwatch(Runnable watcher) {
+        watchers.remove(watcher);
+    }
+
+    /**
+     * Finds where a client resumes from.
+     * @param lastEventId The ID of the last event the client has seen, from Last-Event-ID or '?after='; null for
+     *                    a client that only wants changes from now on.
+     * @return The sequence number to send changes after, or -1 if the client has missed changes no longer kept
+     *         and must be sent reset().
+     */
+    public synchronized long resumeFrom(String lastEventId) {
+        if (lastEventId == null || lastEventId.trim().isEmpty()) {
+            return latest;
+        }
+        String id = lastEventId.trim();
+        int dash = id.indexOf('-');
+        try {
+            if (dash < 0 || Long.parseLong(id.substring(0, dash)) != epoch) {
+                return -1; // From before a restart, or not one of ours
+            }
+            long sequence = Long.parseLong(id.substring(dash + 1));
+            return sequence <= latest && sequence >= oldest() - 1 ? sequence : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the change after the given one, for a subscriber that has sent everything up to it.
+     * @return The next change; a reset() if that change is no longer kept; or null if the subscriber is up to date.
+     */
+    public synchronized Change next(long after) {
+        if (after >= latest) {
+            return null;
+        }
+        if (after < oldest() - 1) {
+            return reset(); // Fell behind by more than the ring holds
+        }
+        return ring[(int) ((after + 1) % ring.length)];
+    }
+
+    /**
+     * Builds a 'reset' event at the newest sequence number, telling a client that it has missed changes.
+     */
+    public synchronized Change reset() {
+        resets.increment();
+        return new Change(latest, frame(latest, "reset", "{\"seq\":" + latest + "}"));
+    }
+
+    private long oldest() {
+        return Math.max(1, latest - ring.length + 1);
+    }
+
+    private void publish(String type, int id, Film film) {
+        String body = ",\"id\":" + id + (film != null ? ",\"film\":" + FilmJsonCodec.toJson(film) : "") + "}";
+        synchronized (this) {
+            long sequence = latest + 1;
+            ring[(int) (sequence % ring.length)] = new Change(sequence, frame(sequence, type, "{\"seq\":" + sequence + body));
+            latest = sequence;
+        }
+        for (Runnable watcher : watchers) {
+            watcher.run();
+        }
+    }
+
+    private byte[] frame(long sequence, String type, String data) {
+        // JSON escapes line breaks inside strings, so the data is always a single line
+        return ("id: " + epoch + "-" + sequence + "\nevent: " + type + "\ndata: " + data + "\n\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void filmInserted(Film film) {
+        publish("insert", film.getId(), film);
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        publish("update", film.getId(), film);
+    }
+
+    @Override
+    public void filmDeleted(int id) {
+        publish("delete", id, null);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** @return The sequence number of the newest change, which is also the number of changes since startup. */
+    public synchronized long getLatest() {
+        return latest;
+    }
+
+    /** @return The number of reset events handed out to clients that had missed changes. */
+    public long getResetCount() {
+        return resets.sum();
+    }
+
+    /**
+     * One change event, encoded as the frame sent to subscribers.
+     */
+    public static final class Change {
+        private final long sequence;
+        private final byte[] frame;
+
+        Change(long sequence, byte[] frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /** @return The Server-Sent Events frame, in UTF-8. Shared; must not be modified. */
+        public byte[] getFrame() {
+            return frame;
+        }
+    }
+}
@@ -0,0 +1,621 @@
+package utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import models.Film;
+import models.FilmField;
+
+/**
+ * JSON encoder and decoder written for Film alone, used instead of Gson for application/json when json.codec is "film".
+ *
+ * The encoder writes UTF-8 straight into a byte buffer kept per thread, with no reflection and no intermediate
+ * String per field, and produces exactly what Gson would: fields in declaration order, null fields left out, and
+ * the same escapes, including Gson's HTML-safe ones for &lt; &gt; &amp; = and '.
+ *
+ * The decoder reads a film object from a Reader token by token, filling a Film as it goes; unknown fields are skipped.
+ * It accepts standard JSON plus the one Gson leniency clients are likely to rely on, numbers sent as strings
+ * ("year": "1999"). Gson's other lenient forms (single quotes, unquoted names, comments) are rejected.
+ */
+public final class FilmJsonCodec {
+
+    // Escape sequences for ASCII characters, null where the character is written as it is. Matches Gson's HTML-safe set.
+    private static final byte[][] ASCII_ESCAPES = new byte[128][];
+    private static final byte[] LINE_SEPARATOR = ascii("\\u2028");
+    private static final byte[] PARAGRAPH_SEPARATOR = ascii("\\u2029");
+
+    // A buffer grown beyond this by a large page is dropped after use rather than kept by the thread.
+    private static final int MAX_RETAINED = 1 << 20;
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+    private static final ThreadLocal<Parser> PARSERS = ThreadLocal.withInitial(Parser::new);
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ASCII_ESCAPES[c] = ascii(String.format("\\u%04x", c));
+        }
+        ASCII_ESCAPES['"'] = ascii("\\\"");
+        ASCII_ESCAPES['\\'] = ascii("\\\\");
+        ASCII_ESCAPES['\t'] = ascii("\\t");
+        ASCII_ESCAPES['\b'] = ascii("\\b");
+        ASCII_ESCAPES['\n'] = ascii("\\n");
+        ASCII_ESCAPES['\r'] = ascii("\\r");
+        ASCII_ESCAPES['\f'] = ascii("\\f");
+        ASCII_ESCAPES['<'] = ascii("\\u003c");
+        ASCII_ESCAPES['>'] = ascii("\\u003e");
+        ASCII_ESCAPES['&'] = ascii("\\u0026");
+        ASCII_ESCAPES['='] = ascii("\\u003d");
+        ASCII_ESCAPES['\''] = ascii("\\u0027");
+    }
+
+    // Static utility class, no instances.
+    private FilmJsonCodec() {
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Encodes a film as a JSON object.
+     */
+    public static String toJson(Film film) {
+        return toJson(film, FilmField.ALL);
+    }
+
+    /**
+     * Encodes the given fields of a film as a JSON object, as Gson writes a PartialFilm.
+     */
+    public static String toJson(Film film, Set<FilmField> fields) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.film(film, fields);
+            return buffer.toString();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Encodes films as a JSON array.
+     */
+    public static String toJson(List<Film> films) {
+        return toJson(films, FilmField.ALL);
+    }
+
+    /**
+     * Encodes the given fields of each film as a JSON array.
+     */
+    public static String toJson(List<Film> films, Set<FilmField> fields) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.films(films, fields);
+            return buffer.toString();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Encodes a page as Gson writes an ObjectListWrapper: the films under 'objects', then 'next' and 'missing' if set.
+     */
+    public static String toJson(ObjectListWrapper<Film> page, Set<FilmField> fields) {
+        Buffer buffer = BUFFERS.get();
+        try {
+            buffer.raw('{');
+            boolean first = true;
+            if (page.getObjects() != null) {
+                buffer.raw("\"objects\":");
+                buffer.films(page.getObjects(), fields);
+                first = false;
+            }
+            if (page.getNext() != null) {
+                buffer.raw(first ? "\"next\":" : ",\"next\":");
+                buffer.string(page.getNext());
+                first = false;
+            }
+            if (page.getMissing() != null) {
+                buffer.raw(first ? "\"missing\":[" : ",\"missing\":[");
+                for (int i = 0; i < page.getMissing().size(); i++) {
+                    if (i > 0) {
+                        buffer.raw(',');
+                    }
+                    buffer.integer(page.getMissing().get(i));
+                }
+                buffer.raw(']');
+            }
+            buffer.raw('}');
+            return buffer.toString();
+        } finally {
+            release(buffer);
+        }
+    }
+
+    private static void release(Buffer buffer) {
+        if (buffer.bytes.length > MAX_RETAINED) {
+            BUFFERS.remove();
+        } else {
+            buffer.count = 0;
+        }
+    }
+
+    /**
+     * Decodes one film object from a reader, which is read to the end.
+     * @return The film, or null if the input is empty or the JSON literal null, as Gson returns.
+     * @throws IOException If reading fails or the input is not a single JSON object with valid film fields.
+     */
+    public static Film fromJson(Reader reader) throws IOException {
+        Parser parser = PARSERS.get();
+        parser.reset(reader);
+        try {
+            return parser.document();
+        } finally {
+            parser.reset(null); // Do not keep the request's reader reachable from the thread
+        }
+    }
+
+    /**
+     * A growable UTF-8 byte buffer with the few JSON writes a film needs.
+     */
+    private static final class Buffer {
+        byte[] bytes = new byte[8192];
+        int count;
+
+        void films(List<Film> films, Set<FilmField> fields) {
+            raw('[');
+            for (int i = 0; i < films.size(); i++) {
+                if (i > 0) {
+                    raw(',');
+                }
+                film(films.get(i), fields);
+            }
+            raw(']');
+        }
+
+        void film(Film film, Set<FilmField> fields) {
+            raw("{\"id\":");
+            integer(film.getId());
+            if (film.getTitle() != null && fields.contains(FilmField.TITLE)) {
+                raw(",\"title\":");
+                string(film.getTitle());
+            }
+            if (fields.contains(FilmField.YEAR)) {
+                raw(",\"year\":");
+                integer(film.getYear());
+            }
+            if (film.getDirector() != null && fields.contains(FilmField.DIRECTOR)) {
+                raw(",\"director\":");
+                string(film.getDirector());
+            }
+            if (film.getStars() != null && fields.contains(FilmField.STARS)) {
+                raw(",\"stars\":");
+                string(film.getStars());
+            }
+            if (film.getReview() != null && fields.contains(FilmField.REVIEW)) {
+                raw(",\"review\":");
+                string(film.getReview());
+            }
+            raw('}');
+        }
+
+        void ensure(int extra) {
+            if (count + extra > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, count + extra)];
+                System.arraycopy(bytes, 0, grown, 0, count);
+                bytes = grown;
+            }
+        }
+
+        void raw(char c) {
+            ensure(1);
+            bytes[count++] = (byte) c;
+        }
+
+        /**
+         * Appends ASCII text that needs no escaping, such as punctuation and field names.
+         */
+        void raw(String ascii) {
+            int length = ascii.length();
+            ensure(length);
+            for (int i = 0; i < length; i++) {
+                bytes[count++] = (byte) ascii.charAt(i);
+            }
+        }
+
+        void integer(int value) {
+            ensure(11);
+            if (value < 0) {
+                if (value == Integer.MIN_VALUE) {
+                    raw("-2147483648");
+                    return;
+                }
+                bytes[count++] = '-';
+                value = -value;
+            }
+            int digits = 1;
+            for (int v = value; v >= 10; v /= 10) {
+                digits++;
+            }
+            for (int i = count + digits - 1; i >= count; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            count += digits;
+        }
+
+        /**
+         * Appends a quoted, escaped string, encoding it as UTF-8.
+         */
+        void string(String s) {
+            int length = s.length();
+            ensure(length * 6 + 2); // The longest form of any char is a six-byte \\uXXXX escape
+            byte[] b = bytes;
+            int n = count;
+            b[n++] = '"';
+            for (int i = 0; i < length; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    byte[] escape = ASCII_ESCAPES[c];
+                    if (escape == null) {
+                        b[n++] = (byte) c;
+                    } else {
+                        System.arraycopy(escape, 0, b, n, escape.length);
+                        n += escape.length;
+                    }
+                } else if (c < 0x800) {
+                    b[n++] = (byte) (0xc0 | (c >> 6));
+                    b[n++] = (byte) (0x80 | (c & 0x3f));
+                } else if (c == '\u2028' || c == '\u2029') {
+                    byte[] escape = c == '\u2028' ? LINE_SEPARATOR : PARAGRAPH_SEPARATOR;
+                    System.arraycopy(escape, 0, b, n, escape.length);
+                    n += escape.length;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[n++] = (byte) (0xf0 | (cp >> 18));
+                    b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                    b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                    b[n++] = (byte) (0x80 | (cp & 0x3f));
+                } else if (Character.isSurrogate(c)) {
+                    b[n++] = '?'; // An unpaired surrogate has no UTF-8 form; String.getBytes writes '?' too
+                } else {
+                    b[n++] = (byte) (0xe0 | (c >> 12));
+                    b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                    b[n++] = (byte) (0x80 | (c & 0x3f));
+                }
+            }
+            b[n++] = '"';
+            count = n;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, count, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Pull parser for a single film object, reading the input in chunks. Kept per thread and reset for each input.
+     */
+    private static final class Parser {
+        private Reader in;
+        private final char[] chunk = new char[2048];
+        private int pos;
+        private int limit;
+        private final StringBuilder text = new StringBuilder(); // Holds strings that span chunks or contain escapes
+
+        void reset(Reader reader) {
+            in = reader;
+            pos = 0;
+            limit = 0;
+            if (text.capacity() > 8192) {
+                text.setLength(0);
+                text.trimToSize(); // Let go of the room a long review needed
+            }
+        }
+
+        Film document() throws IOException {
+            int c = skipWhitespace();
+            if (c == -1) {
+                return null;
+            }
+            Film film;
+            if (c == 'n') {
+                literal("null");
+                film = null;
+            } else {
+                film = object();
+            }
+            if (skipWhitespace() != -1) {
+                throw error("Unexpected content after the film object");
+            }
+            return film;
+        }
+
+        private Film object() throws IOException {
+            expect('{');
+            Film film = new Film();
+            if (skipWhitespace() == '}') {
+                pos++;
+                return film;
+            }
+            while (true) {
+                if (skipWhitespace() != '"') {
+                    throw error("Expected a field name");
+                }
+                String name = string();
+                if (skipWhitespace() != ':') {
+                    throw error("Expected ':' after \"" + name + "\"");
+                }
+                pos++;
+                switch (name) {
+                    case "id":
+                        film.setId(integer(film.getId()));
+                        break;
+                    case "year":
+                        film.setYear(integer(film.getYear()));
+                        break;
+                    case "title":
+                        film.setTitle(nullableString());
+                        break;
+                    case "director":
+                        film.setDirector(nullableString());
+                        break;
+                    case "stars":
+                        film.setStars(nullableString());
+                        break;
+                    case "review":
+                        film.setReview(nullableString());
+                        break;
+                    default:
+                        skipValue(); // Gson ignores fields Film does not have
+                        break;
+                }
+                int c = skipWhitespace();
+                pos++;
+                if (c == '}') {
+                    return film;
+                }
+                if (c != ',') {
+                    throw error("Expected ',' or '}'");
+                }
+            }
+        }
+
+        /**
+         * Reads an int field. null leaves the current value, as Gson does for primitive fields.
+         */
+        private int integer(int current) throws IOException {
+            int c = skipWhitespace();
+            if (c == 'n') {
+                literal("null");
+                return current;
+            }
+            String number = c == '"' ? string() : numberToken();
+            try {
+                return Integer.parseInt(number);
+            } catch (NumberFormatException e) {
+                // Gson also takes a whole number written with a fraction or exponent, e.g. 1999.0
+                try {
+                    double value = Double.parseDouble(number);
+                    if (value == (int) value) {
+                        return (int) value;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Reported below
+                }
+                throw error("Expected an int but was " + number);
+            }
+        }
+
+        private String nullableString() throws IOException {
+            int c = skipWhitespace();
+            if (c == 'n') {
+                literal("null");
+                return null;
+            }
+            if (c != '"') {
+                // Gson turns a bare number or boolean into its text for a String field
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return numberToken();
+                }
+                if (c == 't') {
+                    literal("true");
+                    return "true";
+                }
+                if (c == 'f') {
+                    literal("false");
+                    return "false";
+                }
+                throw error("Expected a string");
+            }
+            return string();
+        }
+
+        /**
+         * Reads a quoted string, starting at its opening quote.
+         */
+        private String string() throws IOException {
+            pos++; // Opening quote
+            text.setLength(0);
+            while (true) {
+                if (pos == limit && !fill()) {
+                    throw error("Unterminated string");
+                }
+                // Copy the run up to the next quote or backslash in one go
+                int start = pos;
+                while (pos < limit && chunk[pos] != '"' && chunk[pos] != '\\') {
+                    pos++;
+                }
+                if (pos == limit) {
+                    text.append(chunk, start, pos - start);
+                    continue;
+                }
+                char c = chunk[pos++];
+                if (c == '"') {
+                    if (text.length() == 0) {
+                        return new String(chunk, start, pos - 1 - start); // The common case: no escapes, one chunk
+                    }
+                    return text.append(chunk, start, pos - 1 - start).toString();
+                }
+                text.append(chunk, start, pos - 1 - start);
+                int e = read();
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) e);
+                        break;
+                    case 'b':
+                        text.append('\b');
+                        break;
+                    case 'f':
+                        text.append('\f');
+                        break;
+                    case 'n':
+                        text.append('\n');
+                        break;
+                    case 'r':
+                        text.append('\r');
+                        break;
+                    case 't':
+                        text.append('\t');
+                        break;
+                    case 'u':
+                        int value = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                throw error("Invalid \\u escape");
+                            }
+                            value = value * 16 + digit;
+                        }
+                        text.append((char) value);
+                        break;
+                    default:
+                        throw error("Invalid escape");
+                }
+            }
+        }
+
+        private String numberToken() throws IOException {
+            text.setLength(0);
+            while (true) {
+                if (pos == limit && !fill()) {
+                    break;
+                }
+                char c = chunk[pos];
+                if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                    text.append(c);
+                    pos++;
+                } else {
+                    break;
+                }
+            }
+            if (text.length() == 0) {
+                throw error("Expected a number");
+            }
+            return text.toString();
+        }
+
+        /**
+         * Skips a value of any type, including nested objects and arrays.
+         */
+        private void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                int c = skipWhitespace();
+                switch (c) {
+                    case '{':
+                    case '[':
+                        depth++;
+                        pos++;
+                        break;
+                    case '}':
+                    case ']':
+                        depth--;
+                        pos++;
+                        break;
+                    case ',':
+                    case ':':
+                        if (depth == 0) {
+                            throw error("Expected a value");
+                        }
+                        pos++;
+                        break;
+                    case '"':
+                        string();
+                        break;
+                    case 't':
+                        literal("true");
+                        break;
+                    case 'f':
+                        literal("false");
+                        break;
+                    case 'n':
+                        literal("null");
+                        break;
+                    case -1:
+                        throw error("Unexpected end of input");
+                    default:
+                        numberToken();
+                        break;
+                }
+            } while (depth > 0);
+        }
+
+        private void literal(String word) throws IOException {
+            for (int i = 0; i < word.length(); i++) {
+                if (read() != word.charAt(i)) {
+                    throw error("Expected " + word);
+                }
+            }
+        }
+
+        private void expect(char c) throws IOException {
+            if (skipWhitespace() != c) {
+                throw error("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        /**
+         * Moves past whitespace.
+         * @return The next character, which is not consumed, or -1 at the end of the input.
+         */
+        private int skipWhitespace() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {
+                    return -1;
+                }
+                char c = chunk[pos];
+                if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                    return c;
+                }
+                pos++;
+            }
+        }
+
+        private int read() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            return chunk[pos++];
+        }
+
+        private boolean fill() throws IOException {
+            int n = in.read(chunk, 0, chunk.length);
+            if (n <= 0) {
+                return false;
+            }
+            pos = 0;
+            limit = n;
+            return true;
+        }
+
+        private IOException error(String message) {
+            return new IOException("Malformed film JSON: " + message);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package utils;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import jakarta.xml.bind.JAXBException;
+import models.Film;
+
+/**
+ * Reads a list of films from a request body one film at a time, so a large upload never has to be held in memory.
+ * Accepts a JSON array of film objects, or the XML document produced for ObjectListWrapper
+ * ('list' root with one 'object' element per film).
+ *
+ * Usage: create with open(), call next() until it returns null, then close().
+ */
+public abstract class FilmStreamReader implements AutoCloseable {
+
+    private static final Gson GSON = new Gson();
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * XML input factory with external entities disabled, since request bodies are untrusted.
+     */
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Creates a reader for the given request content type.
+     * @param contentType The content type of the body; parameters such as charset are ignored.
+     * @param in The request body.
+     * @return A reader, or null if the content type is neither JSON nor XML.
+     * @throws IOException If the start of the body is malformed.
+     */
+    public static FilmStreamReader open(String contentType, Reader in) throws IOException {
+        String type = contentType == null ? "" : contentType.split(";")[0].trim();
+        switch (type) {
+            case "application/json":
+                return new JsonArrayReader(in);
+            case "application/xml":
+                return new XmlListReader(in);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Reads the next film.
+     * @return The next film, or null at the end of the list.
+     * @throws IOException If the body is malformed or cannot be read.
+     */
+    public abstract Film next() throws IOException;
+
+    @Override
+    public abstract void close() throws IOException;
+
+    /**
+     * A JSON array of film objects, each bound with Gson as it is reached.
+     */
+    private static final class JsonArrayReader extends FilmStreamReader {
+        private final JsonReader json;
+
+        JsonArrayReader(Reader in) throws IOException {
+            json = new JsonReader(in);
+            try {
+                json.beginArray();
+            } catch (IllegalStateException e) {
+                throw new IOException("Expected a JSON array of films.", e);
+            }
+        }
+
+        @Override
+        public Film next() throws IOException {
+            try {
+                if (!json.hasNext()) {
+                    json.endArray();
+                    return null;
+                }
+                if (json.peek() != JsonToken.BEGIN_OBJECT) {
+                    throw new IOException("Expected a film object but found " + json.peek() + ".");
+                }
+                return GSON.fromJson(json, Film.class);
+            } catch (JsonParseException | IllegalStateException e) {
+                throw new IOException("Malformed film: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            json.close();
+        }
+    }
+
+    /**
+     * An ObjectListWrapper XML document; each 'object' element is unmarshalled as a Film when reached.
+     */
+    private static final class XmlListReader extends FilmStreamReader {
+        private final XMLStreamReader xml;
+
+        XmlListReader(Reader in) throws IOException {
+            try {
+                xml = XML_INPUT_FACTORY.createXMLStreamReader(in);
+                xml.nextTag(); // Move onto the root element.
+                if (!"list".equals(xml.getLocalName())) {
+                    throw new IOException("Expected a 'list' root element.");
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException("Malformed XML: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public Film next() throws IOException {
+            try {
+                while (true) {
+                    int event = xml.getEventType();
+                    if (event == XMLStreamConstants.START_ELEMENT && "object".equals(xml.getLocalName())) {
+                        // The unmarshaller consumes the element and leaves the reader on the event after it.
+                        return JaxbContexts.withUnmarshaller(
+                                unmarshaller -> unmarshaller.unmarshal(xml, Film.class).getValue(), Film.class);
+                    }
+                    if (event == XMLStreamConstants.END_ELEMENT && "list".equals(xml.getLocalName())) {
+                        return null;
+                    }
+                    if (!xml.hasNext()) {
+                        throw new IOException("Unexpected end of XML document.");
+                    }
+                    xml.next();
+                }
+            } catch (XMLStreamException | JAXBException e) {
+                throw new IOException("Malformed XML: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                xml.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Set;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.google.gson.stream.JsonWriter;
+
+import models.Film;
+import models.FilmField;
+import models.PartialFilm;
+
+/**
+ * Writes a list of films to a response one film at a time, so memory use does not grow with the list.
+ * The output matches what RequestUtils.formatResponse produces for the same format:
+ * a Gson-style JSON array, the JAXB ObjectListWrapper XML document, or List.toString() text.
+ * CBOR, being binary, is written to an OutputStream as an indefinite-length array of films (see FilmCbor).
+ * Exports use openExport: newline-delimited JSON, or CSV with a header row.
+ * With a projection ('?fields='), only those fields of each film are written, as RequestUtils does.
+ *
+ * Usage: create with open(), call write() for each film, then finish(). The underlying writer is not closed.
+ */
+public abstract class FilmStreamWriter {
+
+    /** Newline-delimited JSON: one film object per line, with no enclosing array. */
+    public static final String NDJSON = "application/x-ndjson";
+    /** Comma-separated values as RFC 4180 describes them, with a header row naming the fields. */
+    public static final String CSV = "text/csv";
+
+    private static final XMLOutputFactory XML_OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+    private static final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    protected final Set<FilmField> fields; // The fields to write for each film
+
+    protected FilmStreamWriter(Set<FilmField> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Creates a writer for the given Accept format that writes every field.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param out Where the formatted films are written.
+     * @return A writer that has already written the list opening.
+     * @throws IOException If writing the opening fails.
+     */
+    public static FilmStreamWriter open(String format, Writer out) throws IOException {
+        return open(format, out, FilmField.ALL);
+    }
+
+    /**
+     * Creates a writer for the given Accept format that writes only some fields of each film.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param out Where the formatted films are written.
+     * @param fields The fields to write.
+     * @return A writer that has already written the list opening.
+     * @throws IOException If writing the opening fails.
+     */
+    public static FilmStreamWriter open(String format, Writer out, Set<FilmField> fields) throws IOException {
+        String type = format != null ? RequestUtils.getContentType(format) : "application/json";
+        FilmStreamWriter writer;
+        switch (type) {
+            case "application/xml":
+                writer = new XmlWriter(out, fields);
+                break;
+            case "text/plain":
+                writer = new TextWriter(out, fields);
+                break;
+            default:
+                writer = new JsonArrayWriter(out, fields);
+                break;
+        }
+        writer.begin();
+        return writer;
+    }
+
+    /**
+     * Creates a writer that encodes some fields of each film as CBOR, the binary format, to a byte stream.
+     * @param out Where the encoded films are written.
+     * @param fields The fields to write.
+     * @return A writer that has already written the list opening.
+     * @throws IOException If writing the opening fails.
+     */
+    public static FilmStreamWriter open(OutputStream out, Set<FilmField> fields) throws IOException {
+        FilmStreamWriter writer = new CborWriter(out, fields);
+        writer.begin();
+        return writer;
+    }
+
+    /**
+     * Creates a writer for one of the export formats, which a client can consume row by row as it arrives.
+     * @param type NDJSON or CSV.
+     * @param out Where the formatted films are written.
+     * @param fields The fields to write.
+     * @return A writer that has already written the opening (for CSV, the header row).
+     * @throws IOException If writing the opening fails.
+     */
+    public static FilmStreamWriter openExport(String type, Writer out, Set<FilmField> fields) throws IOException {
+        FilmStreamWriter writer = CSV.equals(type) ? new CsvWriter(out, fields) : new NdjsonWriter(out, fields);
+        writer.begin();
+        return writer;
+    }
+
+    /**
+     * Writes the start of the list.
+     */
+    protected abstract void begin() throws IOException;
+
+    /**
+     * Writes one film as the next list element.
+     * @param film The film to write.
+     * @throws IOException If writing fails.
+     */
+    public abstract void write(Film film) throws IOException;
+
+    /**
+     * Writes the end of the list and flushes.
+     * @throws IOException If writing fails.
+     */
+    public abstract void finish() throws IOException;
+
+    /**
+     * JSON array of film objects, field for field as Gson writes them.
+     */
+    private static final class JsonArrayWriter extends FilmStreamWriter {
+        private final JsonWriter json;
+
+        JsonArrayWriter(Writer out, Set<FilmField> fields) {
+            super(fields);
+            json = new JsonWriter(out);
+            json.setHtmlSafe(true); // Gson escapes <, >, & and = by default; keep the output identical.
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            json.beginArray();
+        }
+
+        @Override
+        public void write(Film film) throws IOException {
+            json.beginObject();
+            json.name("id").value(film.getId());
+            if (film.getTitle() != null && fields.contains(FilmField.TITLE)) {
+                json.name("title").value(film.getTitle());
+            }
+            if (fields.contains(FilmField.YEAR)) {
+                json.name("year").value(film.getYear());
+            }
+            if (film.getDirector() != null && fields.contains(FilmField.DIRECTOR)) {
+                json.name("director").value(film.getDirector());
+            }
+            if (film.getStars() != null && fields.contains(FilmField.STARS)) {
+                json.name("stars").value(film.getStars());
+            }
+            if (film.getReview() != null && fields.contains(FilmField.REVIEW)) {
+                json.name("review").value(film.getReview());
+            }
+            json.endObject();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            json.endArray();
+            json.flush();
+        }
+    }
+
+    /**
+     * The same XML document marshallUtil.toXml produces, written with StAX.
+     * JAXB orders the film properties alphabetically and, when xml.formatted is on, indents by four spaces.
+     */
+    private static final class XmlWriter extends FilmStreamWriter {
+        private final Writer out;
+        private XMLStreamWriter xml;
+
+        XmlWriter(Writer out, Set<FilmField> fields) {
+            super(fields);
+            this.out = out;
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+            if (marshallUtil.FORMATTED_XML) {
+                out.write("\n");
+            }
+            try {
+                xml = XML_OUTPUT_FACTORY.createXMLStreamWriter(out);
+                xml.writeStartElement("list");
+            } catch (XMLStreamException e) {
+                throw new IOException("Could not start XML output", e);
+            }
+        }
+
+        @Override
+        public void write(Film film) throws IOException {
+            try {
+                indent("\n    ");
+                xml.writeStartElement("object");
+                xml.writeAttribute("xsi", XSI_NAMESPACE, "type", "film");
+                xml.writeNamespace("xsi", XSI_NAMESPACE);
+                element(FilmField.DIRECTOR, film.getDirector());
+                element(FilmField.ID, Integer.toString(film.getId()));
+                element(FilmField.REVIEW, film.getReview());
+                element(FilmField.STARS, film.getStars());
+                element(FilmField.TITLE, film.getTitle());
+                if (fields.contains(FilmField.YEAR)) {
+                    element(FilmField.YEAR, Integer.toString(film.getYear()));
+                }
+                indent("\n    ");
+                xml.writeEndElement();
+            } catch (XMLStreamException e) {
+                throw new IOException("Could not write film " + film.getId() + " as XML", e);
+            }
+        }
+
+        /**
+         * Writes one indented child element, skipping null values as JAXB does and fields outside the projection.
+         */
+        private void element(FilmField field, String value) throws XMLStreamException {
+            if (value == null || !fields.contains(field)) {
+                return;
+            }
+            indent("\n        ");
+            xml.writeStartElement(field.getName());
+            xml.writeCharacters(value);
+            xml.writeEndElement();
+        }
+
+        /**
+         * Writes whitespace that is only present in formatted output.
+         */
+        private void indent(String whitespace) throws XMLStreamException {
+            if (marshallUtil.FORMATTED_XML) {
+                xml.writeCharacters(whitespace);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                indent("\n");
+                xml.writeEndElement();
+                xml.flush();
+                if (marshallUtil.FORMATTED_XML) {
+                    out.write("\n");
+                }
+                out.flush();
+            } catch (XMLStreamException e) {
+                throw new IOException("Could not finish XML output", e);
+            }
+        }
+    }
+
+    /**
+     * Plain text in the form of List.toString(): "[film, film]".
+     */
+    private static final class TextWriter extends FilmStreamWriter {
+        private final Writer out;
+        private boolean first = true;
+
+        TextWriter(Writer out, Set<FilmField> fields) {
+            super(fields);
+            this.out = out;
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            out.write('[');
+        }
+
+        @Override
+        public void write(Film film) throws IOException {
+            if (!first) {
+                out.write(", ");
+            }
+            first = false;
+            out.write(FilmField.isAll(fields) ? film.toString() : new PartialFilm(film, fields).toString());
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.write(']');
+            out.flush();
+        }
+    }
+
+    /**
+     * One JSON object per line, each the same object FilmJsonCodec writes for a single film.
+     */
+    private static final class NdjsonWriter extends FilmStreamWriter {
+        private final Writer out;
+
+        NdjsonWriter(Writer out, Set<FilmField> fields) {
+            super(fields);
+            this.out = out;
+        }
+
+        @Override
+        protected void begin() {
+        }
+
+        @Override
+        public void write(Film film) throws IOException {
+            out.write(FilmJsonCodec.toJson(film, fields)); // Line breaks inside strings are escaped
+            out.write('\n');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * A header row with the field names, then one row per film, fields in FilmField order and rows ended by CRLF.
+     * Missing values are empty; values holding a comma, quote or line break are quoted, with quotes doubled.
+     */
+    private static final class CsvWriter extends FilmStreamWriter {
+        private final Writer out;
+
+        CsvWriter(Writer out, Set<FilmField> fields) {
+            super(fields);
+            this.out = out;
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            out.write(FilmField.join(fields, ","));
+            out.write("\r\n");
+        }
+
+        @Override
+        public void write(Film film) throws IOException {
+            boolean first = true;
+            for (FilmField field : fields) {
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                switch (field) {
+                    case ID:
+                        out.write(Integer.toString(film.getId()));
+                        break;
+                    case TITLE:
+                        value(film.getTitle());
+                        break;
+                    case YEAR:
+                        out.write(Integer.toString(film.getYear()));
+                        break;
+                    case DIRECTOR:
+                        value(film.getDirector());
+                        break;
+                    case STARS:
+                        value(film.getStars());
+                        break;
+                    default:
+                        value(film.getReview());
+                        break;
+                }
+            }
+            out.write("\r\n");
+        }
+
+        private void value(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.flush();
+        }
+    }
+
+    /**
+     * CBOR array of film maps. The count is not known up front, so the array is indefinite-length and ends with a
+     * break byte; FilmCbor.decodeFilms reads both forms.
+     */
+    private static final class CborWriter extends FilmStreamWriter {
+        private final OutputStream out;
+
+        CborWriter(OutputStream out, Set<FilmField> fields) {
+            super(fields);
+            this.out = out;
+        }
+
+        @Override
+        protected void begin() throws IOException {
+            out.write(FilmCbor.START_OF_STREAM);
+        }
+
+        @Override
+        public void write(Film film) throws IOException {
+            FilmCbor.write(film, fields, out);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.write(FilmCbor.END_OF_STREAM);
+            out.flush();
+        }
+    }
+}
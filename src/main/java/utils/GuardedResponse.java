@@ -0,0 +1,434 @@
+package utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * The response handed to a handler running on RequestExecutor's threads.
+ * Once the request has been abandoned (it timed out or the client went away), every change the handler still
+ * makes is dropped, because the container may already have recycled the real response for another request.
+ * Writes and the switch to abandoned share one lock, so a write is either fully sent or not sent at all.
+ */
+final class GuardedResponse extends HttpServletResponseWrapper {
+
+    private final Object lock = new Object();
+    private boolean abandoned;
+    private boolean finished;
+    private boolean failed; // The handler threw once part of the body had gone
+    private PrintWriter writer;
+    private ServletOutputStream stream;
+
+    GuardedResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Stops all further output from the handler.
+     * @return true if the handler had not finished yet, so the caller now owns the real response.
+     */
+    boolean abandon() {
+        synchronized (lock) {
+            if (finished) {
+                return false;
+            }
+            abandoned = true;
+            return true;
+        }
+    }
+
+    boolean isAbandoned() {
+        synchronized (lock) {
+            return abandoned;
+        }
+    }
+
+    /**
+     * Marks the handler as done and ends the body it wrote, unless the request was abandoned first or the handler
+     * failed part way through it.
+     * @return true if the caller should complete the request.
+     */
+    boolean finish() {
+        synchronized (lock) {
+            if (abandoned) {
+                return false;
+            }
+            finished = true;
+            if (failed) {
+                return true; // Left without its end, so the client cannot take it for a whole body
+            } else if (writer != null) {
+                writer.close();
+            } else if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // The client has gone; there is nothing left to send it.
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Answers 500 for a handler that threw, if nothing has been sent yet; servlets do the same for unexpected errors.
+     * Once part of the body has gone, it is left unfinished instead.
+     */
+    void fail(Exception e) {
+        synchronized (lock) {
+            if (abandoned) {
+                return;
+            }
+            HttpServletResponse real = (HttpServletResponse) getResponse();
+            if (!reset(real)) {
+                failed = true;
+                return;
+            }
+            // The handler's writer may still hold text that was not reset with the buffer
+            writer = null;
+            stream = null;
+            RequestUtils.setAccessControlHeaders(real);
+            real.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            try {
+                send(this, "Internal server error: " + e.getMessage());
+            } catch (IOException ignored) {
+                // The client has gone; there is nothing left to send it.
+            }
+        }
+    }
+
+    /**
+     * Clears a response that has not been sent yet, to replace it.
+     * @return false if part of it has gone out. That includes a compressed body CompressionFilter has started,
+     *         which it can no longer take back even though the container has not committed the response yet.
+     */
+    static boolean reset(HttpServletResponse response) {
+        if (response.isCommitted()) {
+            return false;
+        }
+        try {
+            response.reset();
+            return true;
+        } catch (IllegalStateException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a message as the rest of the body and ends it, through the writer or, if the handler took the output
+     * stream, through that.
+     */
+    static void send(HttpServletResponse response, String message) throws IOException {
+        PrintWriter writer;
+        try {
+            writer = response.getWriter();
+        } catch (IllegalStateException e) {
+            ServletOutputStream stream = response.getOutputStream();
+            stream.write(message.getBytes(response.getCharacterEncoding()));
+            stream.close();
+            return;
+        }
+        writer.write(message);
+        writer.close();
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        synchronized (lock) {
+            if (writer == null) {
+                writer = new PrintWriter(new GuardedWriter(super.getWriter()));
+            }
+            return writer;
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        synchronized (lock) {
+            if (stream == null) {
+                stream = new GuardedOutputStream(super.getOutputStream());
+            }
+            return stream;
+        }
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setStatus(sc);
+            }
+        }
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.sendError(sc, msg);
+            }
+        }
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.sendError(sc);
+            }
+        }
+    }
+
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.sendRedirect(location);
+            }
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setHeader(name, value);
+            }
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.addHeader(name, value);
+            }
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setIntHeader(name, value);
+            }
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.addIntHeader(name, value);
+            }
+        }
+    }
+
+    @Override
+    public void setDateHeader(String name, long date) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setDateHeader(name, date);
+            }
+        }
+    }
+
+    @Override
+    public void addDateHeader(String name, long date) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.addDateHeader(name, date);
+            }
+        }
+    }
+
+    @Override
+    public void setContentType(String type) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setContentType(type);
+            }
+        }
+    }
+
+    @Override
+    public void setCharacterEncoding(String charset) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setCharacterEncoding(charset);
+            }
+        }
+    }
+
+    @Override
+    public void setContentLength(int len) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setContentLength(len);
+            }
+        }
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setContentLengthLong(len);
+            }
+        }
+    }
+
+    @Override
+    public void setLocale(Locale loc) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setLocale(loc);
+            }
+        }
+    }
+
+    @Override
+    public void setBufferSize(int size) {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.setBufferSize(size);
+            }
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.flushBuffer();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.reset();
+            }
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        synchronized (lock) {
+            if (!abandoned) {
+                super.resetBuffer();
+            }
+        }
+    }
+
+    /**
+     * Character output that goes nowhere once the request is abandoned.
+     */
+    private final class GuardedWriter extends Writer {
+        private final PrintWriter out;
+
+        GuardedWriter(PrintWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.write(cbuf, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.write(str, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.flush();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Byte output that goes nowhere once the request is abandoned.
+     */
+    private final class GuardedOutputStream extends ServletOutputStream {
+        private final ServletOutputStream out;
+
+        GuardedOutputStream(ServletOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.flush();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (lock) {
+                if (!abandoned) {
+                    out.close();
+                }
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            out.setWriteListener(writeListener);
+        }
+    }
+}
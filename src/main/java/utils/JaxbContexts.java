@@ -0,0 +1,135 @@
+package utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBException;
+import jakarta.xml.bind.Marshaller;
+import jakarta.xml.bind.Unmarshaller;
+
+/**
+ * Registry of JAXBContexts, built once per set of bound classes, with pools of reusable
+ * Marshallers and Unmarshallers.
+ * JAXBContext is thread-safe but expensive to create; Marshaller and Unmarshaller are cheap
+ * to reuse but not thread-safe, so each caller borrows one for the duration of a single operation.
+ */
+public final class JaxbContexts {
+
+    // Idle marshallers kept per type set; enough for a busy container thread pool.
+    private static final int MAX_IDLE = AppConfig.getInt("xml.pool.maxIdle", 64);
+    private static final ConcurrentHashMap<List<Class<?>>, Entry> ENTRIES = new ConcurrentHashMap<>();
+
+    // Static utility class, no instances.
+    private JaxbContexts() {
+    }
+
+    /**
+     * An operation performed with a borrowed Marshaller.
+     */
+    public interface MarshallerAction<R> {
+        R apply(Marshaller marshaller) throws JAXBException;
+    }
+
+    /**
+     * An operation performed with a borrowed Unmarshaller.
+     */
+    public interface UnmarshallerAction<R> {
+        R apply(Unmarshaller unmarshaller) throws JAXBException;
+    }
+
+    /**
+     * Returns the shared context for a set of classes, creating it on first use.
+     * @param types The classes to bind, in a fixed order.
+     * @return The cached JAXBContext.
+     * @throws JAXBException If the context cannot be created.
+     */
+    public static JAXBContext get(Class<?>... types) throws JAXBException {
+        return entry(types).context;
+    }
+
+    /**
+     * Runs an action with a pooled Marshaller for the given classes.
+     * The marshaller goes back to the pool afterwards, so the action must not keep a reference to it.
+     * @param action What to do with the marshaller.
+     * @param types The classes to bind.
+     * @return Whatever the action returns.
+     * @throws JAXBException If the context cannot be created or the action fails.
+     */
+    public static <R> R withMarshaller(MarshallerAction<R> action, Class<?>... types) throws JAXBException {
+        Entry entry = entry(types);
+        Marshaller marshaller = entry.marshallers.poll();
+        if (marshaller == null) {
+            marshaller = entry.context.createMarshaller();
+        } else {
+            entry.idleMarshallers.decrementAndGet();
+        }
+        R result = action.apply(marshaller);
+        if (entry.idleMarshallers.incrementAndGet() <= MAX_IDLE) {
+            entry.marshallers.offer(marshaller); // Only returned on success; a failed marshaller may be mid-document.
+        } else {
+            entry.idleMarshallers.decrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Runs an action with a pooled Unmarshaller for the given classes.
+     * The unmarshaller goes back to the pool afterwards, so the action must not keep a reference to it.
+     * @param action What to do with the unmarshaller.
+     * @param types The classes to bind.
+     * @return Whatever the action returns.
+     * @throws JAXBException If the context cannot be created or the action fails.
+     */
+    public static <R> R withUnmarshaller(UnmarshallerAction<R> action, Class<?>... types) throws JAXBException {
+        Entry entry = entry(types);
+        Unmarshaller unmarshaller = entry.unmarshallers.poll();
+        if (unmarshaller == null) {
+            unmarshaller = entry.context.createUnmarshaller();
+        } else {
+            entry.idleUnmarshallers.decrementAndGet();
+        }
+        R result = action.apply(unmarshaller);
+        if (entry.idleUnmarshallers.incrementAndGet() <= MAX_IDLE) {
+            entry.unmarshallers.offer(unmarshaller);
+        } else {
+            entry.idleUnmarshallers.decrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Looks up or creates the registry entry for a type set.
+     */
+    private static Entry entry(Class<?>... types) throws JAXBException {
+        List<Class<?>> key = Arrays.asList(types);
+        Entry entry = ENTRIES.get(key);
+        if (entry == null) {
+            // Creating a context can take long; do it outside the map so other type sets are not blocked.
+            Entry created = new Entry(JAXBContext.newInstance(types));
+            entry = ENTRIES.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * A context and its pools of idle marshallers and unmarshallers.
+     */
+    private static final class Entry {
+        private final JAXBContext context;
+        private final ConcurrentLinkedQueue<Marshaller> marshallers = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<Unmarshaller> unmarshallers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleMarshallers = new AtomicInteger();
+        private final AtomicInteger idleUnmarshallers = new AtomicInteger();
+
+        Entry(JAXBContext context) {
+            this.context = context;
+        }
+    }
+}
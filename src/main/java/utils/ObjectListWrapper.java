@@ -2,11 +2,15 @@ package utils;
 
 import jakarta.xml.bind.annotation.XmlElement;
 import jakarta.xml.bind.annotation.XmlRootElement;
+import jakarta.xml.bind.annotation.XmlType;
 import java.util.List;
 
 @XmlRootElement(name = "list")
+@XmlType(propOrder = { "objects", "next", "missing" })
 public class ObjectListWrapper<T> {
     private List<T> objects;
+    private String next; // Token for the following page in cursor mode; null when there is none.
+    private List<Integer> missing; // Requested IDs with no film, for lookups by ID; null otherwise.
 
     public ObjectListWrapper() {
     }
@@ -15,6 +19,11 @@ public class ObjectListWrapper<T> {
         this.objects = objects;
     }
 
+    public ObjectListWrapper(List<T> objects, String next) {
+        this.objects = objects;
+        this.next = next;
+    }
+
     @XmlElement(name = "object")
     public List<T> getObjects() {
         return objects;
@@ -23,4 +32,22 @@ public class ObjectListWrapper<T> {
     public void setObjects(List<T> objects) {
         this.objects = objects;
     }
+
+    @XmlElement(name = "next")
+    public String getNext() {
+        return next;
+    }
+
+    public void setNext(String next) {
+        this.next = next;
+    }
+
+    @XmlElement(name = "missing")
+    public List<Integer> getMissing() {
+        return missing;
+    }
+
+    public void setMissing(List<Integer> missing) {
+        this.missing = missing;
+    }
 }
@@ -0,0 +1,103 @@
+package utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import models.Film;
+import models.FilmQuery;
+
+/**
+ * Encodes and decodes the opaque page tokens used for keyset pagination.
+ * A token records the ID of the last film on a page; clients pass it back unchanged as '?after=' to get the next page.
+ * For pages sorted by something other than ID, it also records the order and the last film's key in it, so the next
+ * page can seek straight to its first row; such a token is only accepted with the same '?sort='.
+ */
+public final class PageCursor {
+
+    private static final String PREFIX = "id:";
+
+    // Static utility class, no instances.
+    private PageCursor() {
+    }
+
+    /**
+     * Creates the token for the page that follows the given film ID.
+     * @param lastId The ID of the last film on the current page.
+     * @return A URL-safe token.
+     */
+    public static String encode(int lastId) {
+        byte[] raw = (PREFIX + lastId).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    /**
+     * Creates the token for the page that follows a film in a query's order.
+     * @param last The last film on the current page, read with its sort key.
+     * @param query The query the page was read with.
+     * @return A URL-safe token.
+     */
+    public static String encode(Film last, FilmQuery query) {
+        if (query.getSort() == FilmQuery.Sort.ID && !query.isDescending()) {
+            return encode(last.getId()); // Same tokens as unsorted pages
+        }
+        String raw = orderTag(query) + ":" + last.getId() + ":" + query.getSort().keyOf(last);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a token into the query it continues. An empty token means "start from the beginning".
+     * @param token The token received from a client.
+     * @param query The query of the page asked for, without a position.
+     * @return The query, starting after the film the token records.
+     * @throws IllegalArgumentException If the token was not produced by encode() for the same order.
+     */
+    public static FilmQuery decode(String token, FilmQuery query) {
+        if (query.getSort() == FilmQuery.Sort.ID && !query.isDescending()) {
+            return query.after(decode(token), null);
+        }
+        if (token == null || token.isEmpty()) {
+            return query;
+        }
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        String tag = orderTag(query) + ":";
+        int idEnd = raw.indexOf(':', tag.length());
+        if (!raw.startsWith(tag) || idEnd < 0) {
+            throw new IllegalArgumentException("Unrecognised page token for this sort order.");
+        }
+        try {
+            int id = Integer.parseInt(raw.substring(tag.length(), idEnd));
+            String key = raw.substring(idEnd + 1);
+            return query.after(id, query.getSort() == FilmQuery.Sort.YEAR ? (Object) Integer.valueOf(key) : key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unrecognised page token for this sort order.", e);
+        }
+    }
+
+    /**
+     * The order a token belongs to, as written in '?sort=', e.g. "title" or "-year".
+     */
+    private static String orderTag(FilmQuery query) {
+        return (query.isDescending() ? "-" : "") + query.getSort().getName();
+    }
+
+    /**
+     * Reads the film ID back out of a token. An empty token means "start from the beginning".
+     * @param token The token received from a client.
+     * @return The ID to seek after.
+     * @throws IllegalArgumentException If the token was not produced by encode().
+     */
+    public static int decode(String token) {
+        if (token == null || token.isEmpty()) {
+            return 0;
+        }
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        if (!raw.startsWith(PREFIX)) {
+            throw new IllegalArgumentException("Unrecognised page token.");
+        }
+        try {
+            return Integer.parseInt(raw.substring(PREFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unrecognised page token.", e);
+        }
+    }
+}
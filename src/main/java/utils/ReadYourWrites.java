@@ -0,0 +1,117 @@
+package utils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import dao.FilmChangeListener;
+import dao.FilmDao;
+import dao.ReplicaRouter;
+import models.Film;
+
+/**
+ * Read-your-writes for clients when reads go to replicas: a response to a request that wrote a film carries a
+ * short-lived cookie, and while a client sends it back, its requests read from the primary and skip the caches
+ * (see ReplicaRouter.pinToPrimary). The cookie holds the time of the write, so it works whichever node the
+ * client's next request reaches. Nothing is set when no replicas are configured.
+ *
+ * RequestExecutor calls begin and end around every film request, on the thread that runs the handler.
+ */
+public final class ReadYourWrites implements FilmChangeListener {
+
+    static final String COOKIE = "films-wrote";
+
+    // The response of the request running on this thread, for the write callbacks to set the cookie on.
+    private static final ThreadLocal<HttpServletResponse> RESPONSE = new ThreadLocal<>();
+
+    private final boolean enabled;
+    private final long windowMillis;
+
+    private ReadYourWrites(FilmDao dao) {
+        ReplicaRouter router = dao.getRouter();
+        enabled = !router.getReplicas().isEmpty();
+        windowMillis = router.getReadYourWritesMillis();
+        if (enabled) {
+            dao.addChangeListener(this); // Called on the thread that made the write
+        }
+    }
+
+    /**
+     * Holds the single instance, registered with FilmDao on first use.
+     */
+    private static class SingletonHolder {
+        private static final ReadYourWrites INSTANCE = new ReadYourWrites(FilmDao.getInstance());
+    }
+
+    /**
+     * Starts a request on the current thread: pins its reads to the primary if the client wrote recently.
+     */
+    public static void begin(HttpServletRequest request, HttpServletResponse response) {
+        ReadYourWrites instance = SingletonHolder.INSTANCE;
+        if (!instance.enabled) {
+            return;
+        }
+        RESPONSE.set(response);
+        ReplicaRouter.pinToPrimary(instance.wroteRecently(request));
+    }
+
+    /**
+     * Ends the request on the current thread.
+     */
+    public static void end() {
+        RESPONSE.remove();
+        ReplicaRouter.pinToPrimary(false);
+    }
+
+    private boolean wroteRecently(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return false;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE.equals(cookie.getName())) {
+                try {
+                    long age = System.currentTimeMillis() - Long.parseLong(cookie.getValue());
+                    return age >= 0 && age < windowMillis;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the current request's client as having just written, and pins the rest of the request to the primary.
+     */
+    private void written() {
+        HttpServletResponse response = RESPONSE.get();
+        if (response == null) {
+            return; // Not a request thread, e.g. a background flush of queued updates
+        }
+        ReplicaRouter.pinToPrimary(true);
+        if (response.isCommitted()) {
+            return; // Too late to add a header
+        }
+        Cookie cookie = new Cookie(COOKIE, Long.toString(System.currentTimeMillis()));
+        cookie.setMaxAge((int) Math.max(1, (windowMillis + 999) / 1000));
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        response.addCookie(cookie);
+    }
+
+    @Override
+    public void filmInserted(Film film) {
+        written();
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        written();
+    }
+
+    @Override
+    public void filmDeleted(int id) {
+        written();
+    }
+}
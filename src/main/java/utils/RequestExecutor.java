@@ -0,0 +1,225 @@
+package utils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Runs servlet handlers off the container's worker threads.
+ * With async.enabled on, each request is put into asynchronous mode and its handler runs on a dedicated executor,
+ * so a container thread is only held while the request is read and handed over, not for the JDBC round trip.
+ * Without it, or when a request does not support async, handlers run on the calling thread as before.
+ *
+ * Settings:
+ * async.executor - "bounded" (a fixed pool of async.threads threads with a queue of async.queueSize requests;
+ *                  requests beyond that get 503) or "virtual" (a virtual thread per request, on Java 21 and later;
+ *                  falls back to bounded elsewhere).
+ * async.timeoutMillis - how long a request may take before it is answered with 503 and its task interrupted.
+ */
+public final class RequestExecutor {
+
+    /**
+     * The body of a servlet method, run either inline or on the executor.
+     */
+    public interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException;
+    }
+
+    private static final boolean ENABLED = AppConfig.getBoolean("async.enabled", true);
+    private static final long TIMEOUT_MILLIS = AppConfig.getLong("async.timeoutMillis", 30000);
+
+    // Static utility class, no instances.
+    private RequestExecutor() {
+    }
+
+    /**
+     * Holds the executor, created on first use.
+     */
+    private static class ExecutorHolder {
+        private static final ExecutorService EXECUTOR = createExecutor();
+    }
+
+    private static ExecutorService createExecutor() {
+        if ("virtual".equals(AppConfig.get("async.executor", "bounded"))) {
+            try {
+                // Looked up reflectively so the code still builds and runs on Java 11
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                // Virtual threads are not available on this JVM; use the bounded pool.
+            }
+        }
+        int threads = AppConfig.getInt("async.threads", 64);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(AppConfig.getInt("async.queueSize", 1000)), new WorkerThreadFactory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Runs a handler for a request, asynchronously if enabled.
+     * @param request The request, as passed to the servlet.
+     * @param response The response, as passed to the servlet (possibly wrapped by filters).
+     * @param handler The work to do; it may write the response and close its writer as usual.
+     */
+    public static void execute(HttpServletRequest request, HttpServletResponse response, Handler handler)
+            throws ServletException, IOException {
+        if (!ENABLED || !request.isAsyncSupported()) {
+            ReadYourWrites.begin(request, response);
+            try {
+                handler.handle(request, response);
+            } finally {
+                ReadYourWrites.end();
+            }
+            return;
+        }
+
+        // Keep the filter wrappers (such as compression) on the async response
+        AsyncContext context = request.startAsync(request, response);
+        context.setTimeout(TIMEOUT_MILLIS);
+        Task task = new Task(context, request, new GuardedResponse(response), handler);
+        context.addListener(task);
+        try {
+            task.future = ExecutorHolder.EXECUTOR.submit(task);
+        } catch (RejectedExecutionException e) {
+            // Every worker is busy and the queue is full: shed the request rather than queue it without bound
+            if (task.response.abandon()) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader("Retry-After", "1");
+                PrintWriter writer = response.getWriter();
+                writer.write("Server busy, try again later.");
+                writer.close();
+            }
+            context.complete();
+        }
+    }
+
+    /**
+     * Stops the executor, waiting briefly for requests in progress. Called when the application shuts down.
+     */
+    public static void shutdown() {
+        if (!ENABLED) {
+            return;
+        }
+        ExecutorService executor = ExecutorHolder.EXECUTOR;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One request's handler run, completing the async context when done and giving up on it when it times out.
+     */
+    private static final class Task implements Runnable, AsyncListener {
+        private final AsyncContext context;
+        private final HttpServletRequest request;
+        private final GuardedResponse response;
+        private final Handler handler;
+        private volatile Future<?> future;
+
+        Task(AsyncContext context, HttpServletRequest request, GuardedResponse response, Handler handler) {
+            this.context = context;
+            this.request = request;
+            this.response = response;
+            this.handler = handler;
+        }
+
+        @Override
+        public void run() {
+            ReadYourWrites.begin(request, response);
+            try {
+                handler.handle(request, response);
+            } catch (Exception e) {
+                if (!response.isAbandoned()) {
+                    request.getServletContext().log("Request to " + request.getRequestURI() + " failed", e);
+                    response.fail(e);
+                }
+            } finally {
+                ReadYourWrites.end(); // Pool threads are reused
+                if (response.finish()) {
+                    complete(context);
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            try {
+                if (response.abandon()) {
+                    Future<?> running = future;
+                    if (running != null) {
+                        running.cancel(true); // Interrupt the worker, e.g. while it waits for a pooled connection
+                    }
+                    HttpServletResponse real = (HttpServletResponse) event.getSuppliedResponse();
+                    // Once part of the body has gone it is left unfinished, rather than ended as if it were whole
+                    if (GuardedResponse.reset(real)) {
+                        RequestUtils.setAccessControlHeaders(real);
+                        real.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                        // Ends the body, including for filters that wrap the stream
+                        GuardedResponse.send(real, "Request timed out.");
+                    }
+                }
+            } finally {
+                complete(context); // Also when the handler has just finished, in case the container got here first
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            response.abandon(); // The connection failed; nothing more can be written
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Completes an async context that the other side of a timeout race may already have completed.
+     */
+    private static void complete(AsyncContext context) {
+        try {
+            context.complete();
+        } catch (IllegalStateException e) {
+            // Already completed
+        }
+    }
+
+    /**
+     * Names executor threads and marks them as daemons so they never hold up shutdown.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "film-request-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
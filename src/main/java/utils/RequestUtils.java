@@ -1,17 +1,37 @@
 package utils;
 
-import jakarta.xml.bind.JAXBContext;
+import dao.CircuitOpenException;
+import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.List;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import com.google.gson.Gson;
+import javax.xml.namespace.QName;
+import javax.xml.transform.stream.StreamSource;
+import metrics.LatencyHistogram;
+import metrics.Metrics;
 import models.Film;
+import models.FilmField;
+import models.PartialFilm;
 
 public class RequestUtils {
 
+    // Time spent turning results into response text, per format, exported at /metrics.
+    private static final String SERIALIZE = "films_serialize_duration_seconds";
+    private static final String SERIALIZE_HELP = "Time spent formatting response bodies, by format.";
+    private static final LatencyHistogram SERIALIZE_JSON = Metrics.histogram(SERIALIZE, SERIALIZE_HELP, "format", "json");
+    private static final LatencyHistogram SERIALIZE_XML = Metrics.histogram(SERIALIZE, SERIALIZE_HELP, "format", "xml");
+    private static final LatencyHistogram SERIALIZE_TEXT = Metrics.histogram(SERIALIZE, SERIALIZE_HELP, "format", "plain");
+    private static final LatencyHistogram SERIALIZE_CBOR = Metrics.histogram(SERIALIZE, SERIALIZE_HELP, "format", "cbor");
+
+    // Films are read and written as JSON by FilmJsonCodec unless json.codec is set to "gson"; other objects always use Gson.
+    private static final boolean FILM_CODEC = !"gson".equals(AppConfig.get("json.codec", "film"));
+
     /**
      * Formats the response based on the specified content type and data.
      * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
@@ -20,19 +40,264 @@ public class RequestUtils {
      * @throws JAXBException If an error occurs during XML formatting.
      */
     public static String formatResponse(String format, List<Film> allFilms) throws JAXBException {
-        switch (format) {
-            case "application/json":
-                return marshallUtil.toJson(allFilms);  // Use Gson to convert Java objects to JSON format.
+        long start = System.nanoTime();
+        try {
+            switch (format) {
+                case "application/xml":
+                	return marshallUtil.toXml(allFilms, Film.class);  // Use JAXB to convert Java objects to XML format.
+                case "text/plain":
+                    return allFilms.toString();  // Convert list to a string using the List's toString method.
+                default:
+                    // JSON, which is also the default if the format is not supported or specified
+                    return FILM_CODEC ? FilmJsonCodec.toJson(allFilms) : marshallUtil.toJson(allFilms);
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+    
+    /**
+     * Formats a page of films together with its paging token or missing IDs, based on the specified content type.
+     * JSON and XML carry them in 'next' and 'missing' fields; plain text appends each on its own line.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param page The films and the token for the following page.
+     * @return A string formatted according to the specified content type.
+     * @throws JAXBException If an error occurs during XML formatting.
+     */
+    public static String formatResponse(String format, ObjectListWrapper<Film> page) throws JAXBException {
+        long start = System.nanoTime();
+        try {
+            switch (format) {
+                case "application/xml":
+                    return marshallUtil.toXml(page, Film.class);
+                case "text/plain":
+                    String text = page.getObjects().toString();
+                    if (page.getNext() != null) {
+                        text += "\nnext=" + page.getNext();
+                    }
+                    if (page.getMissing() != null) {
+                        text += "\nmissing=" + page.getMissing();
+                    }
+                    return text;
+                default:
+                    // JSON is also the default format.
+                    return FILM_CODEC ? FilmJsonCodec.toJson(page, FilmField.ALL) : marshallUtil.toJson(page);
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+
+    /**
+     * Formats a single film based on the specified content type. In XML the film is the root element, named 'film'.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param film The film to format.
+     * @return A string formatted according to the specified content type.
+     * @throws JAXBException If an error occurs during XML formatting.
+     */
+    public static String formatFilm(String format, Film film) throws JAXBException {
+        long start = System.nanoTime();
+        try {
+            switch (format == null ? "" : format) {
+                case "application/xml":
+                    return marshallUtil.toXml(new JAXBElement<>(new QName("film"), Film.class, film));
+                case "text/plain":
+                    return film.toString();
+                default:
+                    return FILM_CODEC ? FilmJsonCodec.toJson(film) : marshallUtil.toJson(film);  // JSON is also the default format.
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+
+    /**
+     * Formats a list of films, writing only the given fields of each.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param films The films to format.
+     * @param fields The fields to include, from '?fields='.
+     * @return A string formatted according to the specified content type.
+     * @throws JAXBException If an error occurs during XML formatting.
+     */
+    public static String formatResponse(String format, List<Film> films, Set<FilmField> fields) throws JAXBException {
+        if (FilmField.isAll(fields)) {
+            return formatResponse(format, films);
+        }
+        long start = System.nanoTime();
+        try {
+            switch (format == null ? "" : format) {
+                case "application/xml":
+                    return marshallUtil.toXml(PartialFilm.of(films, fields), PartialFilm.class);
+                case "text/plain":
+                    return PartialFilm.of(films, fields).toString();
+                default:
+                    // JSON is also the default format.
+                    return FILM_CODEC ? FilmJsonCodec.toJson(films, fields) : marshallUtil.toJson(PartialFilm.of(films, fields));
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+
+    /**
+     * Formats a page of films with its paging token or missing IDs, writing only the given fields of each film.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param page The films and the token for the following page.
+     * @param fields The fields to include, from '?fields='.
+     * @return A string formatted according to the specified content type.
+     * @throws JAXBException If an error occurs during XML formatting.
+     */
+    public static String formatResponse(String format, ObjectListWrapper<Film> page, Set<FilmField> fields) throws JAXBException {
+        if (FilmField.isAll(fields)) {
+            return formatResponse(format, page);
+        }
+        long start = System.nanoTime();
+        try {
+            switch (format == null ? "" : format) {
+                case "application/xml":
+                    return marshallUtil.toXml(partialPage(page, fields), PartialFilm.class);
+                case "text/plain":
+                    String text = PartialFilm.of(page.getObjects(), fields).toString();
+                    if (page.getNext() != null) {
+                        text += "\nnext=" + page.getNext();
+                    }
+                    if (page.getMissing() != null) {
+                        text += "\nmissing=" + page.getMissing();
+                    }
+                    return text;
+                default:
+                    // JSON is also the default format; the codec projects each film as it writes it.
+                    return FILM_CODEC ? FilmJsonCodec.toJson(page, fields) : marshallUtil.toJson(partialPage(page, fields));
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+
+    private static ObjectListWrapper<PartialFilm> partialPage(ObjectListWrapper<Film> page, Set<FilmField> fields) {
+        ObjectListWrapper<PartialFilm> partials = new ObjectListWrapper<>(PartialFilm.of(page.getObjects(), fields), page.getNext());
+        partials.setMissing(page.getMissing());
+        return partials;
+    }
+
+    /**
+     * Formats the given fields of a single film. In XML the film is the root element, named 'film'.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param film The film to format.
+     * @param fields The fields to include, from '?fields='.
+     * @return A string formatted according to the specified content type.
+     * @throws JAXBException If an error occurs during XML formatting.
+     */
+    public static String formatFilm(String format, Film film, Set<FilmField> fields) throws JAXBException {
+        if (FilmField.isAll(fields)) {
+            return formatFilm(format, film);
+        }
+        long start = System.nanoTime();
+        try {
+            switch (format == null ? "" : format) {
+                case "application/xml":
+                    return marshallUtil.toXml(new JAXBElement<>(new QName("film"), PartialFilm.class, new PartialFilm(film, fields)));
+                case "text/plain":
+                    return new PartialFilm(film, fields).toString();
+                default:
+                    // JSON is also the default format.
+                    return FILM_CODEC ? FilmJsonCodec.toJson(film, fields) : marshallUtil.toJson(new PartialFilm(film, fields));
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+
+    /**
+     * @return true if the format is the binary one, CBOR, whose bodies are built with the encode methods and sent
+     * through the response's output stream rather than its writer.
+     */
+    public static boolean isBinary(String format) {
+        return FilmCbor.MEDIA_TYPE.equals(format);
+    }
+
+    /**
+     * Encodes the given fields of a list of films as CBOR (see FilmCbor).
+     * @param films The films to encode.
+     * @param fields The fields to include, from '?fields='.
+     * @return The encoded body.
+     */
+    public static byte[] encodeResponse(List<Film> films, Set<FilmField> fields) {
+        long start = System.nanoTime();
+        try {
+            return FilmCbor.encode(films, fields);
+        } finally {
+            SERIALIZE_CBOR.recordSince(start);
+        }
+    }
+
+    /**
+     * Encodes a page of films with its paging token or missing IDs as CBOR (see FilmCbor).
+     * @param page The films and the token for the following page.
+     * @param fields The fields to include, from '?fields='.
+     * @return The encoded body.
+     */
+    public static byte[] encodeResponse(ObjectListWrapper<Film> page, Set<FilmField> fields) {
+        long start = System.nanoTime();
+        try {
+            return FilmCbor.encode(page, fields);
+        } finally {
+            SERIALIZE_CBOR.recordSince(start);
+        }
+    }
+
+    /**
+     * Encodes the given fields of a single film as CBOR (see FilmCbor).
+     * @param film The film to encode.
+     * @param fields The fields to include, from '?fields='.
+     * @return The encoded body.
+     */
+    public static byte[] encodeFilm(Film film, Set<FilmField> fields) {
+        long start = System.nanoTime();
+        try {
+            return FilmCbor.encode(film, fields);
+        } finally {
+            SERIALIZE_CBOR.recordSince(start);
+        }
+    }
+
+    /**
+     * Formats any single result object (such as a BulkInsertResult) based on the specified content type.
+     * @param format The content type (e.g., "application/json", "application/xml", "text/plain").
+     * @param result The object to format; for XML its class must be annotated with @XmlRootElement.
+     * @return A string formatted according to the specified content type.
+     * @throws JAXBException If an error occurs during XML formatting.
+     */
+    public static String formatObject(String format, Object result) throws JAXBException {
+        long start = System.nanoTime();
+        try {
+            switch (format == null ? "" : format) {
+                case "application/xml":
+                    return marshallUtil.toXml(result);
+                case "text/plain":
+                    return result.toString();
+                default:
+                    return marshallUtil.toJson(result);  // JSON is also the default format.
+            }
+        } finally {
+            serializeTimer(format).recordSince(start);
+        }
+    }
+
+    /**
+     * @return The serialization timer for a format; unknown formats are written as JSON.
+     */
+    private static LatencyHistogram serializeTimer(String format) {
+        switch (format == null ? "" : format) {
             case "application/xml":
-            	return marshallUtil.toXml(allFilms, Film.class);  // Use JAXB to convert Java objects to XML format.
+                return SERIALIZE_XML;
             case "text/plain":
-                return allFilms.toString();  // Convert list to a string using the List's toString method.
+                return SERIALIZE_TEXT;
             default:
-                // Default to JSON if the format is not supported or specified
-                return new Gson().toJson(allFilms);
+                return SERIALIZE_JSON;
         }
     }
-    
+
     /**
      * Helper method to determine the correct content type based on the Accept header.
      * @param format The format specified in the Accept header.
@@ -46,11 +311,22 @@ public class RequestUtils {
                 return "application/xml";
             case "text/plain":
                 return "text/plain";
+            case FilmCbor.MEDIA_TYPE:
+                return FilmCbor.MEDIA_TYPE;
             default:
                 return "application/json";  // Default to JSON
         }
     }
     
+    /**
+     * Answers 503 for a call FilmDao's circuit breaker turned away, with a Retry-After of when it next lets one through.
+     */
+    public static void writeUnavailable(HttpServletResponse response, PrintWriter writer, CircuitOpenException e) {
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", Long.toString(Math.max(1, (e.getRetryAfterMillis() + 999) / 1000)));
+        writer.write("Database unavailable, try again later.");
+    }
+
     /**
      * Configures CORS headers for the response.
      * Allows access from any origin and supports various HTTP methods and headers.
@@ -58,28 +334,40 @@ public class RequestUtils {
     public static void setAccessControlHeaders(HttpServletResponse response) {
         response.setHeader("Access-Control-Allow-Origin", "*"); // Allow all domains
         response.setHeader("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
-        response.setHeader("Access-Control-Allow-Headers", "Content-Type");
+        response.setHeader("Access-Control-Allow-Headers", "Content-Type, If-None-Match, If-Modified-Since");
+        response.setHeader("Access-Control-Expose-Headers", "ETag"); // Let scripts read the validator to send it back
         response.setHeader("Access-Control-Allow-Credentials", "true");
     }
 
     /**
      * Parses and validates the request body for film data based on content type.
      * @param request The HTTP request object.
-     * @param contentType The content type of the request (e.g., "application/json", "application/xml").
+     * @param contentType The content type of the request (e.g., "application/json", "application/xml", "application/cbor").
      * @return A Film object if the parsing is successful; null otherwise.
      * @throws IOException If an error occurs during reading from the request.
      */
     public static Film parseRequestBody(HttpServletRequest request, String contentType) throws IOException {
+        if (FilmCbor.MEDIA_TYPE.equals(contentType)) {
+            // Binary bodies are read as bytes; taking the reader would decode them as text.
+            try (InputStream in = request.getInputStream()) {
+                return FilmCbor.decodeFilm(in);
+            } catch (IOException e) {
+                return null;  // Return null if parsing fails.
+            }
+        }
         BufferedReader reader = request.getReader();
         try {
         	switch (contentType) {
             case "application/json":
-                return new Gson().fromJson(reader, Film.class);  // Parse JSON to a Film object.
+                // Parse JSON to a Film object, with the hand-written codec or the shared Gson instance.
+                return FILM_CODEC ? FilmJsonCodec.fromJson(reader) : marshallUtil.fromJson(reader, Film.class);
             case "application/xml":
-                JAXBContext jaxbContext = JAXBContext.newInstance(Film.class);
-                return (Film) jaxbContext.createUnmarshaller().unmarshal(reader);  // Parse XML to a Film object.
+                // Parse XML to a Film object with a pooled unmarshaller; Film has no root element, so bind by declared type.
+                return JaxbContexts.withUnmarshaller(
+                        unmarshaller -> unmarshaller.unmarshal(new StreamSource(reader), Film.class).getValue(),
+                        Film.class);
             default:
-                return null;  // Return null if the content type is neither JSON nor XML.
+                return null;  // Return null if the content type is not JSON, XML or CBOR.
         	}
 
         } catch (Exception e) {
@@ -0,0 +1,375 @@
+package utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import dao.FilmChangeListener;
+import dao.FilmDao;
+import dao.FilmVersions;
+import dao.ReplicaRouter;
+import filters.CompressionFilter;
+import models.Film;
+
+/**
+ * Cache of finished film GET responses, held as the encoded bytes that were sent, so a repeated request for the same
+ * page or film in the same format skips the DAO, the serializer and the character encoder and is written with a
+ * Content-Length. A gzip copy is made the first time a client that accepts gzip asks for an entry, and is then
+ * served as is instead of being compressed again by CompressionFilter.
+ *
+ * Each entry remembers the FilmVersions version it was built at: the catalogue version for pages, the film's own
+ * version for '/films/{id}'. An entry whose version is no longer current is never served, and every write through
+ * FilmDao also drops the entries it has made stale, so their memory is freed straight away. Versions only count writes
+ * made through this node's FilmDao, so entries also expire cache.responses.maxAgeMillis after they were built, for
+ * writes from other nodes or straight to the database; expired ones go back through FilmCache and its TTLs.
+ *
+ * The bytes held, gzip copies included, are kept within cache.responses.maxBytes by dropping the oldest entries;
+ * bodies above cache.responses.maxEntryBytes are not cached. Settings: cache.responses.enabled, cache.responses.maxBytes,
+ * cache.responses.maxEntryBytes, cache.responses.maxAgeMillis, cache.responses.gzipLevel.
+ */
+public final class ResponseCache implements FilmChangeListener {
+
+    /** The scope of an entry built from the whole catalogue rather than from one film. */
+    public static final int CATALOGUE = -1;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final long maxAgeNanos;
+    private final int gzipLevel;
+    private final int compressionMinSize; // CompressionFilter sends bodies this small uncompressed; so does the cache
+    private final FilmVersions versions;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Entries in insertion order, used to pick eviction victims. May hold nodes for entries already removed.
+    private final ConcurrentLinkedQueue<Node> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedNodes = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private ResponseCache(FilmDao dao) {
+        enabled = AppConfig.getBoolean("cache.responses.enabled", true);
+        maxBytes = AppConfig.getLong("cache.responses.maxBytes", 32L * 1024 * 1024);
+        maxEntryBytes = AppConfig.getInt("cache.responses.maxEntryBytes", 1024 * 1024);
+        // No older than what FilmCache would serve, which is what the response was built from
+        long ttlMillis = Math.min(AppConfig.getLong("cache.pages.ttlMillis", 10000),
+                AppConfig.getLong("cache.films.ttlMillis", 60000));
+        maxAgeNanos = AppConfig.getLong("cache.responses.maxAgeMillis", ttlMillis) * 1_000_000L;
+        gzipLevel = AppConfig.getInt("cache.responses.gzipLevel", 6); // Paid once per entry, so worth more than level 1
+        compressionMinSize = AppConfig.getInt("compression.minSize", 1024);
+        versions = dao.getVersions();
+        if (enabled) {
+            dao.addChangeListener(this); // Frees the entries a write makes stale; their version already keeps them from being served
+        }
+    }
+
+    /**
+     * Holds the single cache shared by every servlet mapping, so the memory budget applies once.
+     */
+    private static class SingletonHolder {
+        private static final ResponseCache INSTANCE = new ResponseCache(FilmDao.getInstance());
+    }
+
+    public static ResponseCache getInstance() {
+        return SingletonHolder.INSTANCE;
+    }
+
+    /**
+     * Builds the key of the response a GET request asks for: its path and query string, as sent, and its format.
+     * Requests that spell the same query differently get separate entries, which costs memory but never correctness.
+     */
+    private static String key(HttpServletRequest request) {
+        StringBuilder key = new StringBuilder(request.getServletPath());
+        if (request.getPathInfo() != null) {
+            key.append(request.getPathInfo());
+        }
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        return key.append(' ').append(ConditionalGet.formatTag(request.getHeader("Accept"))).toString();
+    }
+
+    /**
+     * Answers a request from the cache if it holds a current copy: sets the validator and caching headers, then sends
+     * either 304 or the cached body, gzipped when the client accepts it.
+     * Must be called before the response's writer is taken, since the body is written to its output stream.
+     * @return true if the response has been written; false on a miss, when nothing has been touched.
+     */
+    public boolean serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!enabled || ReplicaRouter.isPinnedToPrimary()) {
+            return false; // A client that has just written reads from the primary, past anything cached
+        }
+        String key = key(request);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.version != versions(entry.scope)) {
+            if (entry != null) {
+                remove(key, entry); // Stale: a write since it was built has changed what it shows
+            }
+            misses.increment();
+            return false;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            if (remove(key, entry)) {
+                expirations.increment(); // May be stale from a write this node never saw
+            }
+            misses.increment();
+            return false;
+        }
+        hits.increment();
+
+        long lastModified = entry.scope == CATALOGUE ? versions.getLastModified() : versions.getLastModified(entry.scope);
+        if (ConditionalGet.notModified(request, response, entry.etag, lastModified, entry.endpoint)) {
+            return true;
+        }
+        response.setContentType(entry.contentType);
+        byte[] body = entry.body;
+        if (body.length > compressionMinSize && "gzip".equals(request.getAttribute(CompressionFilter.ENCODING_ATTRIBUTE))) {
+            body = gzip(entry);
+            response.setHeader("Content-Encoding", "gzip");
+            response.setHeader("ETag", "W/" + entry.etag); // As CompressionFilter does: gzip bytes differ from identity bytes
+        }
+        response.setContentLength(body.length);
+        ServletOutputStream out = response.getOutputStream();
+        out.write(body);
+        out.close();
+        return true;
+    }
+
+    /**
+     * Stores a response the servlet has just written, once its content type and validators are set.
+     * @param request The GET request the response answers.
+     * @param scope The film the response shows, or CATALOGUE for a page of the catalogue.
+     * @param version The version of that scope read before the data was, the same one its ETag was built from.
+     * @param endpoint The Cache-Control setting name passed to ConditionalGet, e.g. "films".
+     * @param response The response, for its ETag, content type and character encoding.
+     * @param body The body as written.
+     */
+    public void put(HttpServletRequest request, int scope, long version, String endpoint, HttpServletResponse response,
+                    String body) {
+        if (!enabled || response.getHeader("ETag") == null || body.length() > maxEntryBytes) {
+            return;
+        }
+        // Encoded as the writer encoded it, so a cached copy is byte for byte what a fresh response would send
+        put(request, scope, version, endpoint, response, body.getBytes(Charset.forName(response.getCharacterEncoding())));
+    }
+
+    /**
+     * Stores a binary response the servlet has just written to its output stream.
+     * @see #put(HttpServletRequest, int, long, String, HttpServletResponse, String)
+     */
+    public void put(HttpServletRequest request, int scope, long version, String endpoint, HttpServletResponse response,
+                    byte[] body) {
+        String etag = response.getHeader("ETag");
+        if (!enabled || etag == null || body.length > maxEntryBytes) {
+            return;
+        }
+        if (etag.startsWith("W/")) {
+            etag = etag.substring(2); // Weakened by CompressionFilter for its compressed copy; the cached bytes are identity
+        }
+        Entry entry = new Entry(scope, version, System.nanoTime() + maxAgeNanos, etag, endpoint,
+                response.getContentType(), body);
+        bytes.addAndGet(entry.size());
+        String key = key(request);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            release(previous);
+        }
+        insertionOrder.add(new Node(key, entry));
+        if (queuedNodes.incrementAndGet() > 2 * entries.size() + 64) {
+            purgeStaleNodes(); // Invalidations leave nodes behind; keep the queue proportional to the cache.
+        }
+        trim();
+    }
+
+    private long versions(int scope) {
+        return scope == CATALOGUE ? versions.getVersion() : versions.getVersion(scope);
+    }
+
+    /**
+     * Returns the gzip copy of an entry, making it on first use. Threads asking at the same time wait for one copy.
+     */
+    private byte[] gzip(Entry entry) throws IOException {
+        synchronized (entry) {
+            if (entry.gzipped == null) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(entry.body.length / 4 + 64);
+                try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+                    {
+                        def.setLevel(gzipLevel);
+                    }
+                }) {
+                    out.write(entry.body);
+                }
+                entry.gzipped = compressed.toByteArray();
+                if (!entry.removed) {
+                    bytes.addAndGet(entry.gzipped.length);
+                }
+            }
+        }
+        trim();
+        return entry.gzipped;
+    }
+
+    /**
+     * Drops the oldest entries while over the memory budget.
+     */
+    private void trim() {
+        while (bytes.get() > maxBytes) {
+            Node oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            queuedNodes.decrementAndGet();
+            if (remove(oldest.key, oldest.entry)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Drops queue nodes whose entries have already been invalidated or replaced.
+     */
+    private void purgeStaleNodes() {
+        for (Iterator<Node> it = insertionOrder.iterator(); it.hasNext();) {
+            Node node = it.next();
+            if (entries.get(node.key) != node.entry) {
+                it.remove();
+                queuedNodes.decrementAndGet();
+            }
+        }
+    }
+
+    private boolean remove(String key, Entry entry) {
+        if (!entries.remove(key, entry)) {
+            return false;
+        }
+        release(entry);
+        return true;
+    }
+
+    /**
+     * Takes a removed entry's bytes, and any gzip copy still being made, off the budget.
+     */
+    private void release(Entry entry) {
+        synchronized (entry) {
+            entry.removed = true;
+            bytes.addAndGet(-entry.size());
+        }
+    }
+
+    /**
+     * Removes every page entry, since any write can change any page, and the entries of the film that changed.
+     */
+    private void invalidate(int id) {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            int scope = e.getValue().scope;
+            if (scope == CATALOGUE || scope == id) {
+                remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public void filmInserted(Film film) {
+        invalidate(film.getId());
+    }
+
+    @Override
+    public void filmUpdated(Film film) {
+        invalidate(film.getId());
+    }
+
+    @Override
+    public void filmDeleted(int id) {
+        invalidate(id);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** @return The bytes held by cached bodies and their gzip copies. */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return The number of entries dropped to stay within the memory budget. */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /** @return The number of entries dropped because they outlived cache.responses.maxAgeMillis. */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /**
+     * A cached response: the identity body, a gzip copy once one has been asked for, and what is needed to revalidate it.
+     */
+    private static final class Entry {
+        final int scope;
+        final long version;
+        final long expiresAt; // System.nanoTime() after which it is no longer served
+        final String etag;
+        final String endpoint;
+        final String contentType;
+        final byte[] body;
+        volatile byte[] gzipped; // Guarded by the entry's lock while being made
+        boolean removed; // Guarded by the entry's lock
+
+        Entry(int scope, long version, long expiresAt, String etag, String endpoint, String contentType, byte[] body) {
+            this.scope = scope;
+            this.version = version;
+            this.expiresAt = expiresAt;
+            this.etag = etag;
+            this.endpoint = endpoint;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        long size() {
+            byte[] gz = gzipped;
+            return body.length + (gz != null ? gz.length : 0);
+        }
+    }
+
+    /**
+     * Insertion-order record pointing at the exact entry it was created for.
+     */
+    private static final class Node {
+        final String key;
+        final Entry entry;
+
+        Node(String key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+    }
+}
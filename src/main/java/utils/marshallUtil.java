@@ -1,5 +1,6 @@
 package utils;
 
+import java.io.Reader;
 import java.io.StringWriter;
 import java.util.List;
 import java.util.function.Function;
@@ -7,13 +8,15 @@ import java.util.stream.Collectors;
 
 import com.google.gson.Gson;
 
-import jakarta.xml.bind.JAXBContext;
+import jakarta.xml.bind.JAXBElement;
 import jakarta.xml.bind.JAXBException;
 import jakarta.xml.bind.Marshaller;
 
 public class marshallUtil {
 
     private static final Gson gson = new Gson();  // Create a single reusable Gson instance for performance.
+    // Pretty-printed XML is easier to read but larger on the wire; turn xml.formatted off in production.
+    static final boolean FORMATTED_XML = AppConfig.getBoolean("xml.formatted", true);
 
     /**
      * Marshals a list of objects to an XML string using JAXB.
@@ -23,18 +26,61 @@ public class marshallUtil {
      * @throws JAXBException if an error occurs during marshaling
      */
     public static <T> String toXml(List<T> objects, Class<T> clazz) throws JAXBException {
-        ObjectListWrapper<T> wrapper = new ObjectListWrapper<>(objects);  // Wrap the list of objects.
-
-        JAXBContext context = JAXBContext.newInstance(ObjectListWrapper.class, clazz);  // Create a JAXBContext for the wrapper and the class.
-        Marshaller marshaller = context.createMarshaller();
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);  // Format the XML output.
+        return toXml(new ObjectListWrapper<>(objects), clazz);  // Wrap the list of objects.
+    }
 
+    /**
+     * Marshals an already wrapped list of objects, including any paging token, to an XML string using JAXB.
+     * @param wrapper the wrapper holding the objects to be marshaled
+     * @param clazz the class of the objects in the list
+     * @return XML string representation of the list
+     * @throws JAXBException if an error occurs during marshaling
+     */
+    public static <T> String toXml(ObjectListWrapper<T> wrapper, Class<T> clazz) throws JAXBException {
         StringWriter writer = new StringWriter();
-        marshaller.marshal(wrapper, writer);  // Marshal the wrapper containing the list of objects into XML.
+        // Borrow a pooled marshaller from the cached JAXBContext for the wrapper and the class.
+        JaxbContexts.withMarshaller(marshaller -> {
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, FORMATTED_XML);  // Format the XML output if enabled.
+            marshaller.marshal(wrapper, writer);  // Marshal the wrapper containing the list of objects into XML.
+            return null;
+        }, ObjectListWrapper.class, clazz);
 
         return writer.toString();  // Convert StringWriter content to a string and return.
     }
 
+    /**
+     * Marshals a single object whose class is annotated with @XmlRootElement to an XML string using JAXB.
+     * @param object the object to be marshaled
+     * @return XML string representation of the object
+     * @throws JAXBException if an error occurs during marshaling
+     */
+    public static String toXml(Object object) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        JaxbContexts.withMarshaller(marshaller -> {
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, FORMATTED_XML);  // Format the XML output if enabled.
+            marshaller.marshal(object, writer);
+            return null;
+        }, object.getClass());
+        return writer.toString();
+    }
+
+    /**
+     * Marshals a single object wrapped in a JAXBElement, for classes that are not annotated with @XmlRootElement.
+     * @param element the object together with its root element name and declared type
+     * @return XML string representation of the object
+     * @throws JAXBException if an error occurs during marshaling
+     */
+    public static <T> String toXml(JAXBElement<T> element) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        JaxbContexts.withMarshaller(marshaller -> {
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, FORMATTED_XML);  // Format the XML output if enabled.
+            marshaller.marshal(element, writer);
+            return null;
+        }, element.getDeclaredType());
+
+        return writer.toString();
+    }
+
     /**
      * Converts an object to a JSON string using Gson.
      * @param object the object to be converted to JSON
@@ -44,6 +90,16 @@ public class marshallUtil {
         return gson.toJson(object);  // Convert the object to JSON using Gson.
     }
 
+    /**
+     * Reads an object from JSON using Gson.
+     * @param reader the JSON input
+     * @param clazz the class to bind the JSON to
+     * @return the object, or null if the input is empty
+     */
+    public static <T> T fromJson(Reader reader, Class<T> clazz) {
+        return gson.fromJson(reader, clazz);
+    }
+
     /**
      * Converts a list of objects to a plain text string using a custom formatting function.
      * @param <T> the type parameter of the list